@@ -0,0 +1,253 @@
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A rule applied to every matching item in one pass, such as a supplier price increase, a
+ * currency revaluation or a stock write-off:
+ * <pre>
+ * // +4.5% on all items priced under $20
+ * store.applyBulk(BulkUpdate.all().pricedBelow(20.00).priceByPercent(4.5));
+ * </pre>
+ * Rules are immutable; each method returns a new rule with one more filter or action.
+ *
+ * <p>An item matches if its unit price and quantity fall in the filter's ranges (lower
+ * bounds inclusive, upper bounds exclusive). A matching item's price is first scaled by the
+ * percentage, rounded to the nearest cent, then moved by the absolute amount, and kept
+ * from 0 to {@link InventoryItem#MAX_PRICE_CENTS}. Its quantity loses the written-off
+ * percentage, rounded to the nearest unit, then the written-off units, and never goes
+ * below zero.
+ *
+ * <p>{@link CompactInventory} applies rules over its price and quantity columns with SIMD
+ * instructions when the JDK's incubating Vector API is available (see
+ * {@code vector/VectorBulkKernel.java}), and with an equivalent scalar loop otherwise;
+ * both give identical results.
+ */
+public final class BulkUpdate {
+    private static final BulkUpdate ALL = new BulkUpdate(0, InventoryItem.MAX_PRICE_CENTS + 1, 0,
+            Integer.MAX_VALUE + 1L, 1, 0, 0, 0);
+
+    final long minPriceCents;   // inclusive
+    final long maxPriceCents;   // exclusive
+    final long minQuantity;     // inclusive
+    final long maxQuantity;     // exclusive
+    final double priceFactor;
+    final long priceDeltaCents;
+    final double writeOffFraction;
+    final long writeOffUnits;
+
+    private BulkUpdate(long minPriceCents, long maxPriceCents, long minQuantity, long maxQuantity,
+                       double priceFactor, long priceDeltaCents, double writeOffFraction, long writeOffUnits) {
+        this.minPriceCents = minPriceCents;
+        this.maxPriceCents = maxPriceCents;
+        this.minQuantity = minQuantity;
+        this.maxQuantity = maxQuantity;
+        this.priceFactor = priceFactor;
+        this.priceDeltaCents = priceDeltaCents;
+        this.writeOffFraction = writeOffFraction;
+        this.writeOffUnits = writeOffUnits;
+    }
+
+    /** Matches every item and changes nothing yet. */
+    public static BulkUpdate all() {
+        return ALL;
+    }
+
+    /** Only items with a unit price of at least {@code price}. */
+    public BulkUpdate pricedFrom(double price) {
+        return new BulkUpdate(Math.max(minPriceCents, cents(price)), maxPriceCents, minQuantity, maxQuantity,
+                priceFactor, priceDeltaCents, writeOffFraction, writeOffUnits);
+    }
+
+    /** Only items with a unit price below {@code price}. */
+    public BulkUpdate pricedBelow(double price) {
+        return new BulkUpdate(minPriceCents, Math.min(maxPriceCents, cents(price)), minQuantity, maxQuantity,
+                priceFactor, priceDeltaCents, writeOffFraction, writeOffUnits);
+    }
+
+    /** Only items with at least {@code quantity} in stock. */
+    public BulkUpdate quantityFrom(int quantity) {
+        return new BulkUpdate(minPriceCents, maxPriceCents, Math.max(minQuantity, quantity), maxQuantity,
+                priceFactor, priceDeltaCents, writeOffFraction, writeOffUnits);
+    }
+
+    /** Only items with less than {@code quantity} in stock. */
+    public BulkUpdate quantityBelow(int quantity) {
+        return new BulkUpdate(minPriceCents, maxPriceCents, minQuantity, Math.min(maxQuantity, quantity),
+                priceFactor, priceDeltaCents, writeOffFraction, writeOffUnits);
+    }
+
+    /** Scales matching prices by {@code percent} (e.g. 4.5 or -10); applied before {@link #priceBy}. */
+    public BulkUpdate priceByPercent(double percent) {
+        if (!(percent >= -100) || Double.isInfinite(percent)) {
+            throw new IllegalArgumentException("Price change must be -100% or more");
+        }
+        return new BulkUpdate(minPriceCents, maxPriceCents, minQuantity, maxQuantity,
+                priceFactor * (1 + percent / 100), priceDeltaCents, writeOffFraction, writeOffUnits);
+    }
+
+    /** Moves matching prices by {@code amount}, which may be negative. */
+    public BulkUpdate priceBy(double amount) {
+        long delta = amount < 0 ? -cents(-amount) : cents(amount);
+        return new BulkUpdate(minPriceCents, maxPriceCents, minQuantity, maxQuantity,
+                priceFactor, priceDeltaCents + delta, writeOffFraction, writeOffUnits);
+    }
+
+    /** Writes off {@code percent} of each matching item's stock; applied before {@link #writeOff}. */
+    public BulkUpdate writeOffPercent(double percent) {
+        if (!(percent >= 0 && percent <= 100)) {
+            throw new IllegalArgumentException("Write-off must be from 0% to 100%");
+        }
+        return new BulkUpdate(minPriceCents, maxPriceCents, minQuantity, maxQuantity,
+                priceFactor, priceDeltaCents, 1 - (1 - writeOffFraction) * (1 - percent / 100), writeOffUnits);
+    }
+
+    /** Writes off {@code units} from each matching item's stock, down to zero at most. */
+    public BulkUpdate writeOff(int units) {
+        if (units < 0) {
+            throw new IllegalArgumentException("Units to write off cannot be negative");
+        }
+        return new BulkUpdate(minPriceCents, maxPriceCents, minQuantity, maxQuantity,
+                priceFactor, priceDeltaCents, writeOffFraction, writeOffUnits + units);
+    }
+
+    private static long cents(double price) {
+        if (!(price >= 0) || price > InventoryItem.MAX_PRICE_CENTS) {
+            throw new IllegalArgumentException("Not a valid price: " + price);
+        }
+        return InventoryItem.toCents(price);
+    }
+
+    boolean changesPrice() {
+        return priceFactor != 1 || priceDeltaCents != 0;
+    }
+
+    boolean changesQuantity() {
+        return writeOffFraction != 0 || writeOffUnits != 0;
+    }
+
+    boolean matches(int quantity, long priceCents) {
+        return priceCents >= minPriceCents && priceCents < maxPriceCents
+                && quantity >= minQuantity && quantity < maxQuantity;
+    }
+
+    // The vector kernel computes exactly these, lane by lane
+
+    long newPriceCents(long priceCents) {
+        long scaled = priceFactor == 1 ? priceCents : (long) (priceCents * priceFactor + 0.5);
+        return Math.min(Math.max(scaled + priceDeltaCents, 0), InventoryItem.MAX_PRICE_CENTS);
+    }
+
+    int newQuantity(int quantity) {
+        long removed = (writeOffFraction == 0 ? 0 : (long) (quantity * writeOffFraction + 0.5)) + writeOffUnits;
+        return (int) Math.max(quantity - removed, 0);
+    }
+
+    /** What applying a rule did. */
+    public static final class Result {
+        /** Items that matched the filter. */
+        public final long matched;
+        /** Matching items whose price or quantity actually changed. */
+        public final long changed;
+        /** Change in total inventory value, in cents. */
+        public final long valueDeltaCents;
+        /** Change in total units. */
+        public final long unitsDelta;
+
+        Result(long matched, long changed, long valueDeltaCents, long unitsDelta) {
+            this.matched = matched;
+            this.changed = changed;
+            this.valueDeltaCents = valueDeltaCents;
+            this.unitsDelta = unitsDelta;
+        }
+    }
+
+    /**
+     * Applies a rule to a set of columns in place. Slots whose name length is
+     * {@code freeMarker} are unused and left alone.
+     */
+    interface Kernel {
+        Result apply(BulkUpdate rule, int[] quantities, long[] priceCents, int[] nameLengths, int count, int freeMarker);
+    }
+
+    /** The loop the vector kernel must agree with, and the fallback when it is not available. */
+    static final Kernel SCALAR = (rule, quantities, priceCents, nameLengths, count, freeMarker) ->
+            applyScalar(rule, quantities, priceCents, nameLengths, 0, count, freeMarker);
+
+    /** {@link #SCALAR} over slots {@code from} (inclusive) to {@code to} (exclusive). */
+    static Result applyScalar(BulkUpdate rule, int[] quantities, long[] priceCents, int[] nameLengths,
+                              int from, int to, int freeMarker) {
+        long matched = 0;
+        long changed = 0;
+        long valueDelta = 0;
+        long unitsDelta = 0;
+        for (int slot = from; slot < to; slot++) {
+            int quantity = quantities[slot];
+            long cents = priceCents[slot];
+            if (nameLengths[slot] == freeMarker || !rule.matches(quantity, cents)) {
+                continue;
+            }
+            matched++;
+            int newQuantity = rule.newQuantity(quantity);
+            long newCents = rule.newPriceCents(cents);
+            if (newQuantity != quantity || newCents != cents) {
+                changed++;
+                valueDelta += newQuantity * newCents - quantity * cents;
+                unitsDelta += newQuantity - quantity;
+                quantities[slot] = newQuantity;
+                priceCents[slot] = newCents;
+            }
+        }
+        return new Result(matched, changed, valueDelta, unitsDelta);
+    }
+
+    /**
+     * The SIMD kernel if the program was started with {@code --add-modules
+     * jdk.incubator.vector} and the kernel was compiled, else {@link #SCALAR}. Start with
+     * {@code -Dinventory.vector=false} to force the scalar loop.
+     */
+    static final Kernel KERNEL = loadKernel();
+
+    private static Kernel loadKernel() {
+        if (!Boolean.parseBoolean(System.getProperty("inventory.vector", "true"))) {
+            return SCALAR;
+        }
+        try {
+            return (Kernel) Class.forName("VectorBulkKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR; // not compiled in, or the module is not there
+        }
+    }
+
+    /** E.g. "price +4.50%, write off 10 units on items priced below $20.00". */
+    public String describe(NumberFormat currency) {
+        List<String> actions = new ArrayList<>();
+        if (priceFactor != 1) {
+            actions.add(String.format("price %+.2f%%", (priceFactor - 1) * 100));
+        }
+        if (priceDeltaCents != 0) {
+            actions.add("price " + (priceDeltaCents > 0 ? "+" : "-") + currency.format(Math.abs(priceDeltaCents) / 100.0));
+        }
+        if (writeOffFraction != 0) {
+            actions.add(String.format("write off %.2f%%", writeOffFraction * 100));
+        }
+        if (writeOffUnits != 0) {
+            actions.add("write off " + writeOffUnits + " units");
+        }
+        List<String> filters = new ArrayList<>();
+        if (minPriceCents > 0) {
+            filters.add("priced from " + currency.format(minPriceCents / 100.0));
+        }
+        if (maxPriceCents <= InventoryItem.MAX_PRICE_CENTS) {
+            filters.add("priced below " + currency.format(maxPriceCents / 100.0));
+        }
+        if (minQuantity > 0) {
+            filters.add("with at least " + minQuantity + " in stock");
+        }
+        if (maxQuantity <= Integer.MAX_VALUE) {
+            filters.add("with fewer than " + maxQuantity + " in stock");
+        }
+        return (actions.isEmpty() ? "no change" : String.join(", ", actions))
+                + (filters.isEmpty() ? " on all items" : " on items " + String.join(" and ", filters));
+    }
+}
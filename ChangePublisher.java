@@ -0,0 +1,242 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Turns a store's listener callbacks into batches of {@link StoreChange}s for subscribers
+ * that must not run on the mutating thread, such as the Swing UI:
+ * <pre>
+ * ChangePublisher changes = new ChangePublisher(SwingUtilities::invokeLater);
+ * store.addListener(changes);
+ * changes.subscribe(batch -&gt; ...); // on the EDT
+ * </pre>
+ *
+ * <p>Writers never block: a callback only appends to a lock-free queue. The queue holds at
+ * most {@code capacity} changes; past that, changes are dropped and the next batch starts
+ * with a {@link StoreChange.Kind#RESET}, which is cheaper for a subscriber to act on than
+ * the changes would have been. Subscribers act on a reset by rereading
+ * {@link InventoryStore#settledItems()} and then applying the rest of the batch; every
+ * change is safe to apply to state that already reflects it.
+ *
+ * <p>A background thread drains the queue {@code delayMillis} after the first change of a
+ * burst and coalesces it (see {@link #coalesce}) before handing the batch to the delivery
+ * executor. Only one batch is ever in flight, so a slow subscriber gets fewer,
+ * larger batches rather than a growing backlog on its thread; after a batch that took a
+ * while to apply, the next one waits twice as long.
+ */
+public final class ChangePublisher implements StoreListener {
+    public static final int DEFAULT_CAPACITY = 65_536;
+    public static final long DEFAULT_DELAY_MILLIS = 50;
+
+    private static final ScheduledExecutorService DRAINER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "inventory-changes");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Executor delivery;
+    private final int capacity;
+    private final long delayMillis;
+    private final List<Consumer<List<StoreChange>>> subscribers = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<StoreChange> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+    // Set from when a drain is scheduled until its batch has been delivered
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    public ChangePublisher(Executor delivery) {
+        this(delivery, DEFAULT_CAPACITY, DEFAULT_DELAY_MILLIS);
+    }
+
+    public ChangePublisher(Executor delivery, int capacity, long delayMillis) {
+        if (capacity < 1 || delayMillis < 0) {
+            throw new IllegalArgumentException("Capacity must be positive and the delay not negative");
+        }
+        this.delivery = delivery;
+        this.capacity = capacity;
+        this.delayMillis = delayMillis;
+    }
+
+    /** Delivers every later batch to {@code subscriber}, on the delivery executor. */
+    public void subscribe(Consumer<List<StoreChange>> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Consumer<List<StoreChange>> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /** Whether {@code batch} starts with a {@link StoreChange.Kind#RESET}. */
+    public static boolean isReset(List<StoreChange> batch) {
+        return !batch.isEmpty() && batch.get(0).kind == StoreChange.Kind.RESET;
+    }
+
+    // --- StoreListener: runs on writer threads, sometimes under a stripe lock ---
+
+    @Override
+    public void itemCreated(InventoryItem item, int quantity, double price) {
+        publish(StoreChange.added(item, quantity, price));
+    }
+
+    @Override
+    public void quantityChanged(InventoryItem item, int oldQuantity, int newQuantity) {
+        publish(StoreChange.quantityChanged(item, oldQuantity, newQuantity));
+    }
+
+    @Override
+    public void priceChanged(InventoryItem item, double oldPrice, double newPrice) {
+        publish(StoreChange.priceChanged(item, oldPrice, newPrice));
+    }
+
+    @Override
+    public void itemRenamed(InventoryItem from, InventoryItem to, int quantity) {
+        publish(StoreChange.renamed(from, to, quantity));
+    }
+
+    @Override
+    public void itemDeleted(InventoryItem item, int finalQuantity) {
+        publish(StoreChange.deleted(item, finalQuantity));
+    }
+
+    @Override
+    public void storeReset(List<InventoryItem> items) {
+        publish(StoreChange.RESET);
+    }
+
+    private void publish(StoreChange change) {
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            overflowed.set(true);
+        } else {
+            queue.offer(change);
+        }
+        scheduleIfPending(delayMillis);
+    }
+
+    private void scheduleIfPending(long delay) {
+        if ((!queue.isEmpty() || overflowed.get()) && scheduled.compareAndSet(false, true)) {
+            DRAINER.schedule(this::drain, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // --- Draining: on the drainer thread ---
+
+    private void drain() {
+        // Read the flag first: a change dropped after this point leaves it set for the next drain
+        boolean reset = overflowed.getAndSet(false);
+        List<StoreChange> raw = new ArrayList<>();
+        for (StoreChange change; (change = queue.poll()) != null; ) {
+            queued.decrementAndGet();
+            raw.add(change);
+        }
+        List<StoreChange> batch = coalesce(reset, raw);
+        if (batch.isEmpty() || subscribers.isEmpty()) {
+            scheduled.set(false);
+            scheduleIfPending(delayMillis);
+            return;
+        }
+        delivery.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                for (Consumer<List<StoreChange>> subscriber : subscribers) {
+                    try {
+                        subscriber.accept(batch);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace(); // one broken window must not starve the others
+                    }
+                }
+            } finally {
+                long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                scheduled.set(false);
+                scheduleIfPending(Math.max(delayMillis, 2 * tookMillis));
+            }
+        });
+    }
+
+    /**
+     * Folds runs of quantity and price updates into one change per item and drops updates
+     * to an item that is added or renamed in
+     * the same batch, since a subscriber reads its current values then anyway. Additions,
+     * renames and deletions are kept, in order: a subscriber that reread the store part way
+     * through may already show their effect, and must still hear of every later one. A reset
+     * discards everything before it.
+     *
+     * <p>Price updates are made under the stripe lock and reported in order, so a merged one
+     * runs from the first old price to the last new one. Lock-free adjustments may be
+     * reported out of order, so a merged quantity update adds up their differences instead
+     * and ends at the item's current quantity.
+     */
+    static List<StoreChange> coalesce(boolean reset, List<StoreChange> changes) {
+        List<StoreChange> batch = new ArrayList<>();
+        // Where each item's updates go: the slot of its addition or rename, or of its merged update
+        Map<InventoryItem, Integer> quantitySlots = new HashMap<>();
+        Map<InventoryItem, Integer> priceSlots = new HashMap<>();
+        for (StoreChange change : changes) {
+            switch (change.kind) {
+                case RESET:
+                    reset = true;
+                    batch.clear();
+                    quantitySlots.clear();
+                    priceSlots.clear();
+                    break;
+                case ITEM_ADDED:
+                case RENAMED:
+                    quantitySlots.put(change.item, batch.size());
+                    priceSlots.put(change.item, batch.size());
+                    batch.add(change);
+                    break;
+                case DELETED:
+                    quantitySlots.remove(change.item);
+                    priceSlots.remove(change.item);
+                    batch.add(change);
+                    break;
+                case QUANTITY_CHANGED: {
+                    Integer slot = quantitySlots.putIfAbsent(change.item, batch.size());
+                    if (slot == null) {
+                        batch.add(change);
+                    } else if (batch.get(slot).kind == StoreChange.Kind.QUANTITY_CHANGED) {
+                        StoreChange merged = batch.get(slot);
+                        long net = (long) merged.newQuantity - merged.oldQuantity + change.newQuantity - change.oldQuantity;
+                        int current = change.item.getQuantity();
+                        batch.set(slot, StoreChange.quantityChanged(change.item, (int) (current - net), current));
+                    }
+                    break;
+                }
+                case PRICE_CHANGED: {
+                    Integer slot = priceSlots.putIfAbsent(change.item, batch.size());
+                    if (slot == null) {
+                        batch.add(change);
+                    } else if (batch.get(slot).kind == StoreChange.Kind.PRICE_CHANGED) {
+                        StoreChange first = batch.get(slot);
+                        batch.set(slot, StoreChange.priceChanged(change.item, first.oldPrice, change.newPrice));
+                    }
+                    break;
+                }
+            }
+        }
+
+        List<StoreChange> coalesced = new ArrayList<>(batch.size() + 1);
+        if (reset) {
+            coalesced.add(StoreChange.RESET);
+        }
+        for (StoreChange change : batch) {
+            // Updates that cancelled out are dropped
+            boolean unchanged = (change.kind == StoreChange.Kind.QUANTITY_CHANGED && change.oldQuantity == change.newQuantity)
+                    || (change.kind == StoreChange.Kind.PRICE_CHANGED && change.oldPrice == change.newPrice);
+            if (!unchanged) {
+                coalesced.add(change);
+            }
+        }
+        return coalesced;
+    }
+}
@@ -0,0 +1,514 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Columnar inventory engine for very large catalogs. It offers the same operations and
+ * validation as {@link InventoryStore}, but keeps no object per item: each item is a slot
+ * in a set of primitive columns, so the garbage collector sees a handful of arrays however
+ * many items there are.
+ *
+ * <pre>
+ * int[]  quantities    per slot
+ * long[] priceCents    per slot
+ * int[]  nameOffsets   per slot, start of the name in the arena
+ * int[]  nameLengths   per slot, UTF-8 length, or -1 for a free slot
+ * int[]  hashes        per slot, cached name hash
+ * byte[] arena         UTF-8 names back to back
+ * int[]  index         open-addressing name to slot table, linear probing, slot + 1 or 0
+ * </pre>
+ *
+ * That is about 24 bytes plus the name and a few bytes of index per item, against roughly
+ * 100 for a {@code HashMap<String, Item>} entry with its key, value and name array.
+ *
+ * <p>Items returned by {@link #get}, {@link #search} and the other readers are detached
+ * copies made on demand; changing the inventory does not change them. Freed slots are
+ * reused, and the arena is compacted once more than half of it holds deleted names.
+ *
+ * <p>All operations are thread-safe. Readers share a lock and writers take it exclusively,
+ * so unlike {@link InventoryStore} concurrent writers do not scale; this engine trades
+ * write concurrency for footprint. It has no listeners and is not journaled.
+ */
+public class CompactInventory {
+    private static final int MIN_CAPACITY = 16;
+    private static final int FREE = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int[] quantities;
+    private long[] priceCents;
+    private int[] nameOffsets;
+    private int[] nameLengths;
+    private int[] hashes;
+    private int slotCount; // slots ever handed out; those below it are live or on the free list
+    private int[] freeSlots = new int[0];
+    private int freeCount;
+
+    private byte[] arena;
+    private int arenaUsed;
+    private int arenaGarbage;
+
+    private int[] index;
+    private int size;
+    private long valueCents;
+    private long units;
+
+    public CompactInventory() {
+        this(0);
+    }
+
+    /** Creates an engine sized for {@code expectedItems} without growing. */
+    public CompactInventory(int expectedItems) {
+        allocate(Math.max(MIN_CAPACITY, expectedItems), Math.max(MIN_CAPACITY, expectedItems) * 16L);
+    }
+
+    private void allocate(int capacity, long arenaBytes) {
+        quantities = new int[capacity];
+        priceCents = new long[capacity];
+        nameOffsets = new int[capacity];
+        nameLengths = new int[capacity];
+        hashes = new int[capacity];
+        arena = new byte[(int) Math.min(arenaBytes, Integer.MAX_VALUE - 8)];
+        index = new int[indexCapacity(capacity)];
+        slotCount = 0;
+        freeCount = 0;
+        arenaUsed = 0;
+        arenaGarbage = 0;
+        size = 0;
+        valueCents = 0;
+        units = 0;
+    }
+
+    // Keeps the index at most two-thirds full
+    private static int indexCapacity(int items) {
+        long needed = Math.max(MIN_CAPACITY, (long) items * 3 / 2 + 1);
+        return (int) Math.min(1 << 30, Long.highestOneBit(needed - 1) << 1);
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Creates the item or overwrites its quantity and price. */
+    public void upsert(String name, int quantity, double price) {
+        write(name, false, quantity, price);
+    }
+
+    /**
+     * Receives stock: creates the item, or adds {@code quantity} to the existing stock and
+     * takes the new price.
+     */
+    public void addStock(String name, int quantity, double price) {
+        write(name, true, quantity, price);
+    }
+
+    private void write(String name, boolean add, int quantity, double price) {
+        InventoryStore.validate(name, quantity, price);
+        long cents = InventoryItem.toCents(price);
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int h = hash(name);
+        lock.writeLock().lock();
+        try {
+            int position = find(bytes, h);
+            if (position < 0) {
+                insert(-position - 1, bytes, h, quantity, cents);
+                return;
+            }
+            int slot = index[position] - 1;
+            int updated = add ? Math.addExact(quantities[slot], quantity) : quantity;
+            set(slot, updated, cents);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds {@code delta} (which may be negative) to the item's quantity.
+     *
+     * @return the new quantity
+     * @throws IllegalArgumentException if the item does not exist or stock would go negative
+     */
+    public int adjustQuantity(String name, int delta) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(name, bytes);
+            int updated = Math.addExact(quantities[slot], delta);
+            if (updated < 0) {
+                throw new IllegalArgumentException("Quantity cannot be negative");
+            }
+            set(slot, updated, priceCents[slot]);
+            return updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves an item to a new name, keeping its quantity and price. An item already stored
+     * under {@code newName} is replaced.
+     *
+     * @throws IllegalArgumentException if {@code oldName} does not exist
+     */
+    public void rename(String oldName, String newName) {
+        InventoryStore.validate(newName, 0, 0);
+        byte[] oldBytes = oldName.getBytes(StandardCharsets.UTF_8);
+        byte[] newBytes = newName.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            int oldPosition = find(oldBytes, hash(oldName));
+            if (oldPosition < 0) {
+                throw new IllegalArgumentException("No such item: " + oldName);
+            }
+            if (oldName.equals(newName)) {
+                return;
+            }
+            int slot = index[oldPosition] - 1;
+            int quantity = quantities[slot];
+            long cents = priceCents[slot];
+            remove(oldPosition);
+            int h = hash(newName);
+            int position = find(newBytes, h);
+            if (position >= 0) {
+                remove(position);
+                position = find(newBytes, h);
+            }
+            insert(-position - 1, newBytes, h, quantity, cents);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** @return true if the item existed */
+    public boolean delete(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            int position = find(bytes, hash(name));
+            if (position < 0) {
+                return false;
+            }
+            remove(position);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Replaces the whole inventory; later duplicates of a name win. */
+    public void replaceAll(Collection<InventoryItem> items) {
+        for (InventoryItem item : items) {
+            InventoryStore.validate(item.getName(), item.getQuantity(), item.getPrice());
+        }
+        long arenaBytes = 0;
+        for (InventoryItem item : items) {
+            arenaBytes += item.getName().length();
+        }
+        lock.writeLock().lock();
+        try {
+            allocate(Math.max(MIN_CAPACITY, items.size()), Math.max(MIN_CAPACITY, arenaBytes + arenaBytes / 4));
+            for (InventoryItem item : items) {
+                String name = item.getName();
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                int h = hash(name);
+                int position = find(bytes, h);
+                if (position >= 0) {
+                    set(index[position] - 1, item.getQuantity(), item.getPriceCents());
+                } else {
+                    insert(-position - 1, bytes, h, item.getQuantity(), item.getPriceCents());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** @return a detached copy of the item, or null if there is none */
+    public InventoryItem get(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            int position = find(bytes, hash(name));
+            return position < 0 ? null : item(index[position] - 1, name);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            return find(bytes, hash(name)) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Case-insensitive substring match on the item name. Scans every name. */
+    public List<InventoryItem> search(String term) {
+        String needle = NameIndex.fold(term.trim());
+        List<InventoryItem> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (nameLengths[slot] != FREE) {
+                    String name = name(slot);
+                    if (NameIndex.fold(name).contains(needle)) {
+                        result.add(item(slot, name));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /** Items whose quantity is strictly below {@code threshold}. Scans the quantity column only. */
+    public List<InventoryItem> lowStock(int threshold) {
+        List<InventoryItem> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (quantities[slot] < threshold && nameLengths[slot] != FREE) {
+                    result.add(item(slot, name(slot)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Applies {@code rule} to every matching item in one pass over the price and quantity
+     * columns, with SIMD instructions when {@link BulkUpdate#KERNEL} has them.
+     */
+    public BulkUpdate.Result applyBulk(BulkUpdate rule) {
+        lock.writeLock().lock();
+        try {
+            BulkUpdate.Result result = BulkUpdate.KERNEL.apply(rule, quantities, priceCents, nameLengths, slotCount, FREE);
+            valueCents += result.valueDeltaCents;
+            units += result.unitsDelta;
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Sum of quantity * price over all items, in cents. O(1). */
+    public long totalValueCents() {
+        lock.readLock().lock();
+        try {
+            return valueCents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Sum of quantity * price over all items. O(1). */
+    public double totalValue() {
+        return totalValueCents() / 100.0;
+    }
+
+    /** Sum of all quantities. O(1). */
+    public long totalUnits() {
+        lock.readLock().lock();
+        try {
+            return units;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Visits a detached copy of every item, holding the read lock throughout. */
+    public void forEach(Consumer<InventoryItem> action) {
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (nameLengths[slot] != FREE) {
+                    action.accept(item(slot, name(slot)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Detached copies of all items, from one consistent read. */
+    public List<InventoryItem> snapshot() {
+        List<InventoryItem> copy = new ArrayList<>(size());
+        forEach(copy::add);
+        return copy;
+    }
+
+    // The slot number doubles as the id, so ids stay stable until the item is deleted
+    private InventoryItem item(int slot, String name) {
+        return new InventoryItem(slot + 1L, name, InventoryItem.pack(quantities[slot], priceCents[slot]));
+    }
+
+    private String name(int slot) {
+        return new String(arena, nameOffsets[slot], nameLengths[slot], StandardCharsets.UTF_8);
+    }
+
+    // Caller holds a lock
+    private int slotOf(String name, byte[] bytes) {
+        int position = find(bytes, hash(name));
+        if (position < 0) {
+            throw new IllegalArgumentException("No such item: " + name);
+        }
+        return index[position] - 1;
+    }
+
+    /**
+     * Index position holding {@code bytes}, or {@code -(p + 1)} where {@code p} is the empty
+     * position it would go in. Caller holds a lock.
+     */
+    private int find(byte[] bytes, int h) {
+        int mask = index.length - 1;
+        for (int position = h & mask; ; position = (position + 1) & mask) {
+            int entry = index[position];
+            if (entry == 0) {
+                return -position - 1;
+            }
+            int slot = entry - 1;
+            if (hashes[slot] == h && nameLengths[slot] == bytes.length
+                    && Arrays.equals(arena, nameOffsets[slot], nameOffsets[slot] + bytes.length, bytes, 0, bytes.length)) {
+                return position;
+            }
+        }
+    }
+
+    // Caller holds the write lock
+    private void set(int slot, int quantity, long cents) {
+        long oldValue = (long) quantities[slot] * priceCents[slot];
+        units += quantity - quantities[slot];
+        valueCents += (long) quantity * cents - oldValue;
+        quantities[slot] = quantity;
+        priceCents[slot] = cents;
+    }
+
+    // Caller holds the write lock; position is the empty index position find() returned
+    private void insert(int position, byte[] bytes, int h, int quantity, long cents) {
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot();
+        int offset = appendName(bytes);
+        nameOffsets[slot] = offset;
+        nameLengths[slot] = bytes.length;
+        hashes[slot] = h;
+        quantities[slot] = 0;
+        priceCents[slot] = 0;
+        set(slot, quantity, cents);
+        index[position] = slot + 1;
+        size++;
+        if (size > index.length / 3 * 2) {
+            rehash(index.length * 2);
+        }
+    }
+
+    private int nextSlot() {
+        if (slotCount == quantities.length) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, quantities.length + (quantities.length >> 1) + 1L);
+            if (capacity == slotCount) {
+                throw new IllegalStateException("Inventory is full");
+            }
+            quantities = Arrays.copyOf(quantities, capacity);
+            priceCents = Arrays.copyOf(priceCents, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+            nameLengths = Arrays.copyOf(nameLengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        return slotCount++;
+    }
+
+    private int appendName(byte[] bytes) {
+        if (arena.length - arenaUsed < bytes.length) {
+            if (arenaGarbage > arenaUsed / 2) {
+                compactArena();
+            }
+            if (arena.length - arenaUsed < bytes.length) {
+                long grown = Math.max((long) arenaUsed + bytes.length, arena.length + (arena.length >> 1) + 1L);
+                if (grown > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("Name arena is full");
+                }
+                arena = Arrays.copyOf(arena, (int) grown);
+            }
+        }
+        int offset = arenaUsed;
+        System.arraycopy(bytes, 0, arena, offset, bytes.length);
+        arenaUsed += bytes.length;
+        return offset;
+    }
+
+    // Copies the live names to the front of the arena, in slot order
+    private void compactArena() {
+        byte[] compacted = new byte[arena.length];
+        int used = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            int length = nameLengths[slot];
+            if (length != FREE) {
+                System.arraycopy(arena, nameOffsets[slot], compacted, used, length);
+                nameOffsets[slot] = used;
+                used += length;
+            }
+        }
+        arena = compacted;
+        arenaUsed = used;
+        arenaGarbage = 0;
+    }
+
+    // Caller holds the write lock. Shifts later entries of the probe run back into the hole,
+    // so the index never needs tombstones.
+    private void remove(int position) {
+        int slot = index[position] - 1;
+        set(slot, 0, 0);
+        arenaGarbage += nameLengths[slot];
+        nameLengths[slot] = FREE;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(MIN_CAPACITY, freeCount * 2));
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+
+        int mask = index.length - 1;
+        int hole = position;
+        for (int next = (hole + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int home = hashes[index[next] - 1] & mask;
+            // The entry may fill the hole only if the hole is not before its home position
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] rehashed = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry : index) {
+            if (entry != 0) {
+                int position = hashes[entry - 1] & mask;
+                while (rehashed[position] != 0) {
+                    position = (position + 1) & mask;
+                }
+                rehashed[position] = entry;
+            }
+        }
+        index = rehashed;
+    }
+}
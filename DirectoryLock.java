@@ -0,0 +1,79 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Claims a data directory for one process, such as the journal's or the movement log's:
+ * two processes appending to the same segments, and each deleting files the other is still
+ * writing, would lose edits.
+ *
+ * <p>The claim is an OS file lock on a {@code .lock} file in the directory, so it is
+ * released when the process exits, however it exits. The file itself is left behind.
+ * Opening the same directory twice in one process fails as well.
+ */
+final class DirectoryLock implements Closeable {
+    static final String FILE_NAME = ".lock";
+
+    // File locks belong to the whole process, and closing any channel to the file drops
+    // them, so claims made in this process are checked here before the file is touched
+    private static final Set<String> HELD = ConcurrentHashMap.newKeySet();
+
+    private final String path;
+    private final FileChannel channel;
+
+    private DirectoryLock(String path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /** Claims {@code directory}, or fails if another process (or this one) already has. */
+    static DirectoryLock acquire(File directory, String what) throws IOException {
+        File file = new File(directory, FILE_NAME);
+        String path = file.getCanonicalPath();
+        if (!HELD.add(path)) {
+            throw inUse(directory, what);
+        }
+        FileLock lock = null;
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held through another path to the same file; lock stays null
+        } finally {
+            if (lock == null) {
+                HELD.remove(path);
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+        if (lock == null) {
+            throw inUse(directory, what);
+        }
+        return new DirectoryLock(path, channel);
+    }
+
+    private static IOException inUse(File directory, String what) {
+        return new IOException("The " + what + " in " + directory.getAbsolutePath()
+                + " is in use by another window or process");
+    }
+
+    /** Releases the claim; closing the channel releases its lock. Does nothing the second time. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                channel.close();
+            } finally {
+                HELD.remove(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,634 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Headless front end for {@link InventoryStore}. Reads one command per line from stdin
+ * (or a script file) so batch jobs can run on machines without a display.
+ *
+ * <pre>
+ * java InventoryManagementSystem --headless [--data journal-dir] [--locations dir] [-f script.txt] [inventory.inv]
+ * java InventoryManagementSystem --serve [host:]port [--data journal-dir] [inventory.inv]
+ * java InventoryManagementSystem --headless|--serve ... [--primary [host:]port | --replica-of host:port]
+ * </pre>
+ *
+ * With {@code --data}, the inventory is recovered from that journal directory first and
+ * every change is journaled there. With {@code --locations}, per-location stock is loaded
+ * from that directory's {@code .inv} files, one per location (see {@link Warehouses}); any
+ * command can then be run against one location with {@code at}. With {@code --serve}, no commands are read; the
+ * inventory is served over HTTP by {@link InventoryServer} (on the loopback interface
+ * unless a host is given) until the process is stopped. With {@code --primary}, every change
+ * is shipped to replicas that connect to that port (see {@link ReplicationPrimary}); with
+ * {@code --replica-of}, the inventory follows such a primary (see {@link InventoryReplica})
+ * and commands and requests that would change it are refused. Names containing spaces can be wrapped in double quotes.
+ */
+public class InventoryCli {
+    private static final String HELP = String.join(System.lineSeparator(),
+            "Commands:",
+            "  add <name> <quantity> <price>     add stock (merges with an existing item)",
+            "  set <name> <quantity> <price>     create or overwrite an item",
+            "  adjust <name> <delta>             change quantity by delta",
+            "  rename <old> <new>                rename an item",
+            "  delete <name>                     remove an item",
+            "  get <name>                        show one item",
+            "  search <term>                     case-insensitive name search",
+            "  low <threshold>                   items with quantity below threshold",
+            "  price <min> <max>                 items priced from min to max",
+            "  top <n>                           the n items with the highest total value",
+            "  list                              show all items",
+            "  total                             item count and total value",
+            "  breakdown                         value by price band and a quantity histogram",
+            "  bulk <filter|action> <value> ...  reprice or write off every matching item; filters:",
+            "                                    price-from, price-below, qty-from, qty-below;",
+            "                                    actions: percent, amount, writeoff-percent, writeoff",
+            "  load <file>                       replace inventory from a .inv file",
+            "  save <file>                       write inventory to a .inv file",
+            "  import <csv> [rejects]            add stock from name,quantity,price rows",
+            "  export <csv>                      write inventory as name,quantity,price rows",
+            "  checkpoint                        fold the journal into a new checkpoint (needs --data)",
+            "  metrics [prometheus|json] [file]  dump timings, counters and gauges",
+            "  undo / redo                       take back or repeat the last command's changes",
+            "  velocity <name> [days]            units sold per day, days of cover (needs --data)",
+            "  reorder <lead-days> [safety-days] items that run out before a reorder arrives (needs --data)",
+            "  at <location> <command> ...       run a command against one existing location's stock",
+            "  locations [load|save <dir>]       per-location totals, or load/save a .inv file per location",
+            "  locations add <location>          create an empty location",
+            "  stock <name>                      an item's quantity at each location and in all",
+            "  transfer <name> <qty> <from> <to> move stock between locations",
+            "  replication                       primary or replica status and lag",
+            "  help                              show this text",
+            "  quit                              stop reading commands");
+
+    // Refused on a replica, whose inventory only changes as the primary's does
+    private static final Set<String> WRITE_COMMANDS = Set.of("add", "set", "adjust", "rename", "delete",
+            "load", "import", "undo", "redo", "bulk", "checkpoint");
+
+    // Demand is averaged over this many days
+    private static final int DEMAND_WINDOW_DAYS = 30;
+
+    private final InventoryStore store;
+    private final PrintStream out;
+    private InventoryJournal journal;
+    private MovementLog movements;
+    private ReplicationPrimary primary;
+    private InventoryReplica replica;
+    private final NumberFormat currencyFormat = NumberFormat.getCurrencyInstance();
+    private final UndoHistory history;
+    private final Warehouses sites;
+
+    public InventoryCli(InventoryStore store, PrintStream out) {
+        this(store, out, new Warehouses());
+    }
+
+    private InventoryCli(InventoryStore store, PrintStream out, Warehouses sites) {
+        this.store = store;
+        this.out = out;
+        this.history = new UndoHistory(store);
+        this.sites = sites;
+    }
+
+    public static void main(String[] args) {
+        InventoryStore store = new InventoryStore();
+        InventoryCli cli = new InventoryCli(store, System.out);
+        String script = null;
+        String serve = null;
+        InetSocketAddress primaryAddress = null;
+        InetSocketAddress replicaOf = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--headless")) {
+                    continue;
+                }
+                if (arg.equals("-f") && i + 1 < args.length) {
+                    script = args[++i];
+                } else if (arg.equals("--serve") && i + 1 < args.length) {
+                    serve = args[++i];
+                } else if (arg.equals("--data") && i + 1 < args.length) {
+                    File data = new File(args[++i]);
+                    cli.journal = InventoryJournal.open(data, store);
+                    cli.movements = MovementLog.open(new File(data, "movements"), store);
+                } else if (arg.equals("--primary") && i + 1 < args.length) {
+                    primaryAddress = address(args[++i], "--primary");
+                } else if (arg.equals("--replica-of") && i + 1 < args.length) {
+                    replicaOf = address(args[++i], "--replica-of");
+                } else if (arg.equals("--locations") && i + 1 < args.length) {
+                    cli.sites.load(new File(args[++i]));
+                } else {
+                    InventoryFiles.load(store, new File(arg));
+                }
+            }
+
+            if (primaryAddress != null && replicaOf != null) {
+                throw new IOException("A node is either a primary or a replica, not both");
+            }
+            if (replicaOf != null) {
+                cli.replica = InventoryReplica.start(store, replicaOf);
+            }
+            if (primaryAddress != null) {
+                cli.primary = ReplicationPrimary.start(store, primaryAddress);
+                InetSocketAddress bound = cli.primary.getAddress();
+                System.out.println("Replicating to replicas on " + bound.getHostString() + ":" + bound.getPort());
+            }
+
+            if (serve != null) {
+                cli.serve(serve);
+                return;
+            }
+
+            BufferedReader reader = script != null
+                    ? new BufferedReader(new InputStreamReader(new FileInputStream(script), StandardCharsets.UTF_8))
+                    : new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            int failures;
+            try (reader) {
+                failures = cli.run(reader);
+            } finally {
+                cli.closeReplication();
+                if (cli.movements != null) {
+                    cli.movements.close();
+                }
+                if (cli.journal != null) {
+                    cli.journal.close();
+                }
+            }
+            if (failures > 0) {
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    // The server's dispatcher thread keeps the JVM alive once main returns; on shutdown,
+    // let requests in flight finish before the movement log and the journal are closed
+    private void serve(String address) throws IOException {
+        InventoryServer server = new InventoryServer(store, address(address, "--serve"), replica != null);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            try {
+                closeReplication();
+                if (movements != null) {
+                    movements.close();
+                }
+                if (journal != null) {
+                    journal.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "inventory-server-shutdown"));
+        InetSocketAddress bound = server.getAddress();
+        System.out.println("Serving " + store.size() + " items on http://" + bound.getHostString() + ":" + bound.getPort()
+                + (replica != null ? " (read-only replica)" : ""));
+    }
+
+    // [host:]port, on the loopback interface unless a host is given
+    private static InetSocketAddress address(String address, String option) throws IOException {
+        int colon = address.lastIndexOf(':');
+        String host = colon < 0 ? InetAddress.getLoopbackAddress().getHostAddress() : address.substring(0, colon);
+        try {
+            return new InetSocketAddress(host, Integer.parseInt(address.substring(colon + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Expected [host:]port after " + option + " but found " + address);
+        }
+    }
+
+    private void closeReplication() throws IOException {
+        if (replica != null) {
+            replica.close();
+        }
+        if (primary != null) {
+            primary.close();
+        }
+    }
+
+    /** Executes every command in {@code reader}; returns the number of commands that failed. */
+    public int run(BufferedReader reader) throws IOException {
+        store.addListener(history);
+        try {
+            return runCommands(reader);
+        } finally {
+            store.removeListener(history);
+        }
+    }
+
+    private int runCommands(BufferedReader reader) throws IOException {
+        int failures = 0;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            List<String> tokens = tokenize(line);
+            if (tokens.get(0).equalsIgnoreCase("quit") || tokens.get(0).equalsIgnoreCase("exit")) {
+                break;
+            }
+            // Each command is one undoable step
+            history.begin(line);
+            try {
+                execute(tokens);
+            } catch (IllegalArgumentException | IOException | ArithmeticException e) {
+                failures++;
+                System.err.println("line " + lineNumber + ": " + e.getMessage());
+            } finally {
+                history.end();
+            }
+        }
+        return failures;
+    }
+
+    void execute(List<String> tokens) throws IOException {
+        String command = tokens.get(0).toLowerCase();
+        if (replica != null && WRITE_COMMANDS.contains(command)) {
+            throw new IllegalArgumentException("Read-only replica of " + replica.getPrimary().getHostString() + ":"
+                    + replica.getPrimary().getPort() + "; make changes on the primary");
+        }
+        switch (command) {
+            case "add":
+                expect(tokens, 4);
+                print(store.addStock(tokens.get(1), parseInt(tokens.get(2)), parseDouble(tokens.get(3))));
+                break;
+            case "set":
+                expect(tokens, 4);
+                print(store.upsert(tokens.get(1), parseInt(tokens.get(2)), parseDouble(tokens.get(3))));
+                break;
+            case "adjust":
+                expect(tokens, 3);
+                out.println(tokens.get(1) + " quantity: " + store.adjustQuantity(tokens.get(1), parseInt(tokens.get(2))));
+                break;
+            case "rename":
+                expect(tokens, 3);
+                print(store.rename(tokens.get(1), tokens.get(2)));
+                break;
+            case "delete":
+                expect(tokens, 2);
+                if (store.delete(tokens.get(1)) == null) {
+                    throw new IllegalArgumentException("No such item: " + tokens.get(1));
+                }
+                out.println("Deleted " + tokens.get(1));
+                break;
+            case "get":
+                expect(tokens, 2);
+                InventoryItem item = store.get(tokens.get(1));
+                if (item == null) {
+                    throw new IllegalArgumentException("No such item: " + tokens.get(1));
+                }
+                print(item);
+                break;
+            case "search":
+                expect(tokens, 2);
+                store.search(tokens.get(1)).forEach(this::print);
+                break;
+            case "low":
+                expect(tokens, 2);
+                store.lowStock(parseInt(tokens.get(1))).forEach(this::print);
+                break;
+            case "price":
+                expect(tokens, 3);
+                store.priceBetween(parseDouble(tokens.get(1)), parseDouble(tokens.get(2))).forEach(this::print);
+                break;
+            case "top":
+                expect(tokens, 2);
+                store.topByValue(parseInt(tokens.get(1))).forEach(this::print);
+                break;
+            case "list":
+                store.forEach(this::print);
+                break;
+            case "total":
+                out.println("Items: " + store.size());
+                out.println("Units: " + store.totalUnits());
+                out.println("Total Inventory Value: " + currencyFormat.format(store.totalValue()));
+                break;
+            case "undo":
+            case "redo": {
+                expect(tokens, 1);
+                UndoHistory.Result result = command.equals("undo") ? history.undo() : history.redo();
+                if (result == null) {
+                    out.println("Nothing to " + command);
+                    break;
+                }
+                out.println((command.equals("undo") ? "Undid: " : "Redid: ") + result.label);
+                if (result.skipped > 0) {
+                    out.println("Only partly: " + result.skipped + " change(s) were skipped, as their items have changed since");
+                }
+                break;
+            }
+            case "velocity": {
+                if (tokens.size() != 2) {
+                    expect(tokens, 3);
+                }
+                int days = tokens.size() == 3 ? parseInt(tokens.get(2)) : DEMAND_WINDOW_DAYS;
+                double perDay = stockHistory().velocity(tokens.get(1), days);
+                out.println(tokens.get(1) + " sold per day over " + days + " days: " + String.format("%.2f", perDay));
+                out.println("Days of cover: " + String.format("%.1f", stockHistory().daysOfCover(tokens.get(1), days)));
+                break;
+            }
+            case "reorder":
+                if (tokens.size() != 2) {
+                    expect(tokens, 3);
+                }
+                int safetyDays = tokens.size() == 3 ? parseInt(tokens.get(2)) : 0;
+                out.println("Item\tquantity\tper day\tdays of cover\treorder point");
+                for (MovementLog.Reorder reorder : stockHistory().belowReorderPoint(parseInt(tokens.get(1)), safetyDays, DEMAND_WINDOW_DAYS)) {
+                    out.println(reorder.item.getName() + "\t" + reorder.quantity + "\t" + String.format("%.2f", reorder.perDay)
+                            + "\t" + String.format("%.1f", reorder.daysOfCover()) + "\t" + reorder.reorderPoint);
+                }
+                break;
+            case "at": {
+                if (tokens.size() < 3) {
+                    expect(tokens, 3);
+                }
+                InventoryStore site = sites.find(tokens.get(1));
+                if (site == null) {
+                    // A typo must not quietly start a new site, which 'locations save' would then write
+                    throw new IllegalArgumentException("No such location: " + tokens.get(1)
+                            + " (create it with 'locations add')");
+                }
+                // Not undoable from here: the location's changes go to its own store
+                new InventoryCli(site, out, sites).execute(tokens.subList(2, tokens.size()));
+                break;
+            }
+            case "locations":
+                if (tokens.size() == 1) {
+                    printLocations();
+                    break;
+                }
+                expect(tokens, 3);
+                if (tokens.get(1).equalsIgnoreCase("add")) {
+                    if (sites.find(tokens.get(2)) != null) {
+                        throw new IllegalArgumentException("Location already exists: " + tokens.get(2));
+                    }
+                    sites.location(tokens.get(2));
+                    out.println("Added location " + tokens.get(2));
+                    break;
+                }
+                File directory = new File(tokens.get(2));
+                if (tokens.get(1).equalsIgnoreCase("load")) {
+                    out.println("Loaded " + String.join(", ", sites.load(directory)));
+                } else if (tokens.get(1).equalsIgnoreCase("save")) {
+                    sites.save(directory);
+                    out.println("Saved " + sites.locations().size() + " locations");
+                } else {
+                    throw new IllegalArgumentException("Expected 'load', 'save' or 'add' but found '" + tokens.get(1) + "'");
+                }
+                break;
+            case "stock":
+                expect(tokens, 2);
+                sites.stockOf(tokens.get(1)).forEach((location, quantity) -> out.println(location + "\t" + quantity));
+                out.println("All locations\t" + sites.unitsOf(tokens.get(1)));
+                break;
+            case "transfer":
+                expect(tokens, 5);
+                sites.transfer(tokens.get(1), parseInt(tokens.get(2)), tokens.get(3), tokens.get(4));
+                out.println("Moved " + tokens.get(2) + " " + tokens.get(1) + " from " + tokens.get(3) + " to " + tokens.get(4));
+                break;
+            case "bulk": {
+                BulkUpdate.Result result = store.applyBulk(bulkRule(tokens));
+                out.println("Matched " + result.matched + " items, changed " + result.changed);
+                out.println("Units: " + (result.unitsDelta >= 0 ? "+" : "") + result.unitsDelta);
+                out.println("Value: " + (result.valueDeltaCents >= 0 ? "+" : "-")
+                        + currencyFormat.format(Math.abs(result.valueDeltaCents) / 100.0));
+                break;
+            }
+            case "breakdown":
+                printBreakdown(InventoryReports.breakdown(store));
+                break;
+            case "load":
+                expect(tokens, 2);
+                InventoryFiles.load(store, new File(tokens.get(1)));
+                out.println("Loaded " + store.size() + " items");
+                break;
+            case "save":
+                expect(tokens, 2);
+                InventoryFiles.save(store, new File(tokens.get(1)));
+                out.println("Saved " + store.size() + " items");
+                break;
+            case "import":
+                if (tokens.size() != 2) {
+                    expect(tokens, 3);
+                }
+                File csv = new File(tokens.get(1));
+                File rejects = tokens.size() == 3 ? new File(tokens.get(2)) : InventoryCsv.defaultRejectFile(csv);
+                InventoryCsv.Result result = InventoryCsv.importCsv(store, csv, rejects);
+                out.println("Imported " + result.imported + " rows");
+                if (result.rejected > 0) {
+                    out.println("Rejected " + result.rejected + " rows, see " + result.rejectFile);
+                }
+                break;
+            case "export":
+                expect(tokens, 2);
+                out.println("Exported " + InventoryCsv.exportCsv(store, new File(tokens.get(1))) + " items");
+                break;
+            case "checkpoint":
+                if (journal == null) {
+                    throw new IllegalArgumentException("No journal; start with --data <dir>");
+                }
+                journal.compact();
+                out.println("Checkpoint written");
+                break;
+            case "metrics":
+                if (tokens.size() > 3) {
+                    expect(tokens, 3);
+                }
+                String format = tokens.size() > 1 ? tokens.get(1).toLowerCase() : "prometheus";
+                String dump;
+                if (format.equals("prometheus")) {
+                    dump = store.metrics().toPrometheus();
+                } else if (format.equals("json")) {
+                    dump = store.metrics().toJson();
+                } else {
+                    throw new IllegalArgumentException("Unknown metrics format '" + format + "' (prometheus or json)");
+                }
+                if (tokens.size() == 3) {
+                    Files.writeString(Path.of(tokens.get(2)), dump, StandardCharsets.UTF_8);
+                    out.println("Metrics written to " + tokens.get(2));
+                } else {
+                    out.print(dump);
+                }
+                break;
+            case "replication":
+                expect(tokens, 1);
+                printReplication();
+                break;
+            case "help":
+                out.println(HELP);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command '" + command + "' (try 'help')");
+        }
+    }
+
+    // "bulk price-below 20 percent 4.5": filter and action keywords, each followed by its value
+    private static BulkUpdate bulkRule(List<String> tokens) {
+        if (tokens.size() < 3 || tokens.size() % 2 == 0) {
+            expect(tokens, 3);
+        }
+        BulkUpdate rule = BulkUpdate.all();
+        boolean acts = false;
+        for (int i = 1; i < tokens.size(); i += 2) {
+            String value = tokens.get(i + 1);
+            switch (tokens.get(i).toLowerCase()) {
+                case "price-from":
+                    rule = rule.pricedFrom(parseDouble(value));
+                    break;
+                case "price-below":
+                    rule = rule.pricedBelow(parseDouble(value));
+                    break;
+                case "qty-from":
+                    rule = rule.quantityFrom(parseInt(value));
+                    break;
+                case "qty-below":
+                    rule = rule.quantityBelow(parseInt(value));
+                    break;
+                case "percent":
+                    rule = rule.priceByPercent(parseDouble(value));
+                    acts = true;
+                    break;
+                case "amount":
+                    rule = rule.priceBy(parseDouble(value));
+                    acts = true;
+                    break;
+                case "writeoff-percent":
+                    rule = rule.writeOffPercent(parseDouble(value));
+                    acts = true;
+                    break;
+                case "writeoff":
+                    rule = rule.writeOff(parseInt(value));
+                    acts = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown bulk option '" + tokens.get(i) + "' (try 'help')");
+            }
+        }
+        if (!acts) {
+            throw new IllegalArgumentException("Nothing to change: give percent, amount, writeoff-percent or writeoff");
+        }
+        return rule;
+    }
+
+    private MovementLog stockHistory() {
+        if (movements == null) {
+            throw new IllegalArgumentException("No stock history; start with --data <dir>");
+        }
+        return movements;
+    }
+
+    private void print(InventoryItem item) {
+        out.println(item.getName() + "\t" + item.getQuantity() + "\t" + item.getPrice()
+                + "\t" + currencyFormat.format(item.getTotalValue()));
+    }
+
+    // One line per location from its store's running totals, so this never visits an item
+    private void printLocations() {
+        out.println("Location\titems\tunits\tvalue");
+        long items = 0;
+        for (String location : sites.locations()) {
+            InventoryStore site = sites.find(location);
+            items += site.size();
+            out.println(location + "\t" + site.size() + "\t" + site.totalUnits()
+                    + "\t" + currencyFormat.format(site.totalValueCents() / 100.0));
+        }
+        out.println("All locations\t" + items + "\t" + sites.totalUnits()
+                + "\t" + currencyFormat.format(sites.totalValueCents() / 100.0));
+    }
+
+    private void printReplication() throws IOException {
+        if (primary != null) {
+            InetSocketAddress bound = primary.getAddress();
+            out.println("Primary on " + bound.getHostString() + ":" + bound.getPort() + ", " + primary.sequence() + " changes");
+            out.println("Replica\tchanges behind");
+            primary.replicas().forEach((address, behind) -> out.println(address + "\t" + behind));
+        } else if (replica != null) {
+            InetSocketAddress source = replica.getPrimary();
+            out.println("Replica of " + source.getHostString() + ":" + source.getPort() + ", "
+                    + (replica.isConnected() ? "connected" : "disconnected (" + replica.lastError() + ")"));
+            out.println("Applied: " + replica.appliedSequence() + " changes");
+            out.println("Behind: " + replica.lagRecords() + " changes, current as of " + replica.lagMillis() + " ms ago");
+        } else {
+            out.println("Not replicating; start with --primary [host:]port or --replica-of host:port");
+        }
+    }
+
+    private void printBreakdown(InventoryReports.Breakdown breakdown) {
+        NumberFormat numberFormat = NumberFormat.getIntegerInstance();
+        out.println("Unit price\titems\tunits\tvalue");
+        for (int band = 0; band < breakdown.bandItems.length; band++) {
+            out.println(InventoryReports.priceBandLabel(band, currencyFormat) + "\t" + breakdown.bandItems[band]
+                    + "\t" + breakdown.bandUnits[band] + "\t" + currencyFormat.format(breakdown.bandValueCents[band] / 100.0));
+        }
+        out.println();
+        out.println("Quantity\titems\tunits");
+        for (int bucket = 0; bucket < breakdown.bucketItems.length; bucket++) {
+            out.println(InventoryReports.quantityBucketLabel(bucket, numberFormat) + "\t" + breakdown.bucketItems[bucket]
+                    + "\t" + breakdown.bucketUnits[bucket]);
+        }
+    }
+
+    private static void expect(List<String> tokens, int count) {
+        if (tokens.size() != count) {
+            throw new IllegalArgumentException("Wrong number of arguments for '" + tokens.get(0) + "' (try 'help')");
+        }
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a whole number: " + value);
+        }
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
+    /** Splits on whitespace, treating "double quoted" runs as a single token. */
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean hasToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                hasToken = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (hasToken) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                    hasToken = false;
+                }
+            } else {
+                current.append(c);
+                hasToken = true;
+            }
+        }
+        if (hasToken) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+}
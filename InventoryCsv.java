@@ -0,0 +1,355 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Bulk import and export of {@code name,quantity,price} CSV files.
+ *
+ * <p>Import streams the file through a {@link FileChannel} in chunks cut at line breaks.
+ * Each chunk is decoded and parsed on the common {@link ForkJoinPool} while later chunks
+ * are read, and parsed chunks are applied to the store in file order, one
+ * {@link InventoryStore#addStockAll} batch per chunk, so an item listed twice ends up as
+ * if it had been added twice through the Add Item button. Only a few chunks are in flight
+ * at once, so memory use does not grow with the file.
+ *
+ * <p>Rows are checked with the same rules as the Add Item button. A bad row does not stop
+ * the import: it is copied to a reject file together with the reason, from where it can
+ * be fixed and imported again. Quoted fields may contain commas and doubled quotes, but
+ * not line breaks. A first line starting with {@code name,} is taken as a header, and a
+ * fourth column (such as the error column of a reject file) is ignored.
+ *
+ * <p>Export writes straight from the store, one row at a time.
+ */
+public final class InventoryCsv {
+    static final String HEADER = "name,quantity,price";
+    private static final String REJECT_HEADER = HEADER + ",error";
+    private static final int CHUNK_BYTES = 4 << 20;
+
+    /** What an import did. */
+    public static final class Result {
+        public final long imported;
+        public final long rejected;
+        /** Where the rejected rows were written; only exists if {@link #rejected} is not zero. */
+        public final File rejectFile;
+
+        Result(long imported, long rejected, File rejectFile) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.rejectFile = rejectFile;
+        }
+    }
+
+    private static final class Reject {
+        final int line; // within its chunk, from 1
+        final String text;
+        final String reason;
+
+        Reject(int line, String text, String reason) {
+            this.line = line;
+            this.text = text;
+            this.reason = reason;
+        }
+    }
+
+    // One chunk's worth of parsed rows and bad lines
+    private static final class Chunk {
+        final List<InventoryItem> rows = new ArrayList<>();
+        int[] rowLines = new int[256]; // line of each row, within the chunk
+        final List<Reject> rejects = new ArrayList<>();
+        int lines;
+
+        void add(InventoryItem row) {
+            if (rows.size() == rowLines.length) {
+                rowLines = Arrays.copyOf(rowLines, rowLines.length * 2);
+            }
+            rowLines[rows.size()] = lines;
+            rows.add(row);
+        }
+    }
+
+    private InventoryCsv() {
+    }
+
+    /** The reject file used for {@code csv} when none is given: {@code <csv>.rejects.csv}. */
+    public static File defaultRejectFile(File csv) {
+        return new File(csv.getPath() + ".rejects.csv");
+    }
+
+    /**
+     * Adds the stock listed in {@code csv} to {@code store}, writing bad rows to
+     * {@code rejectFile}. A reject file left over from an earlier import is removed first.
+     */
+    public static Result importCsv(InventoryStore store, File csv, File rejectFile) throws IOException {
+        try (InventoryMetrics.Timing timing = store.metrics().time(InventoryMetrics.Operation.IMPORT_CSV)) {
+            Files.deleteIfExists(rejectFile.toPath());
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            int window = Math.max(2, pool.getParallelism() * 2);
+            ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+            Applier applier = new Applier(store, rejectFile);
+
+            try (FileChannel channel = FileChannel.open(csv.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+                boolean first = true;
+                for (;;) {
+                    boolean eof = channel.read(buffer) < 0;
+                    if (!eof && buffer.hasRemaining()) {
+                        continue;
+                    }
+                    byte[] bytes = buffer.array();
+                    int filled = buffer.position();
+                    if (filled == 0) {
+                        break;
+                    }
+                    int end = eof ? filled : lastLineBreak(bytes, filled) + 1;
+                    if (end == 0) {
+                        // One line longer than the buffer; make room and keep reading
+                        buffer = ByteBuffer.allocate(bytes.length * 2).put(bytes, 0, filled);
+                        continue;
+                    }
+                    byte[] chunk = Arrays.copyOf(bytes, end);
+                    boolean header = first;
+                    inFlight.add(pool.submit(() -> parse(chunk, header)));
+                    first = false;
+                    System.arraycopy(bytes, end, bytes, 0, filled - end);
+                    buffer.position(filled - end);
+                    if (inFlight.size() >= window) {
+                        applier.apply(inFlight.poll().join());
+                    }
+                }
+                while (!inFlight.isEmpty()) {
+                    applier.apply(inFlight.poll().join());
+                }
+            } finally {
+                for (ForkJoinTask<Chunk> task : inFlight) {
+                    task.cancel(false);
+                }
+                applier.close();
+            }
+            timing.items(applier.imported);
+            return new Result(applier.imported, applier.rejected, rejectFile);
+        }
+    }
+
+    private static int lastLineBreak(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Applies parsed chunks in file order; runs on the importing thread only
+    private static final class Applier {
+        private final InventoryStore store;
+        private final File rejectFile;
+        private Writer rejectOut;
+        private long lineOffset;
+        long imported;
+        long rejected;
+
+        Applier(InventoryStore store, File rejectFile) {
+            this.store = store;
+            this.rejectFile = rejectFile;
+        }
+
+        void apply(Chunk chunk) throws IOException {
+            List<InventoryItem> overflowed = store.addStockAll(chunk.rows);
+            imported += chunk.rows.size() - overflowed.size();
+            if (!overflowed.isEmpty()) {
+                rejectOverflowed(chunk, overflowed);
+            }
+            for (Reject reject : chunk.rejects) {
+                if (rejectOut == null) {
+                    rejectOut = Files.newBufferedWriter(rejectFile.toPath(), StandardCharsets.UTF_8);
+                    rejectOut.write(REJECT_HEADER);
+                    rejectOut.write('\n');
+                }
+                // The original row first, so the file can be fixed up and imported again
+                rejectOut.write(reject.text);
+                rejectOut.write(',');
+                rejectOut.write(quote("line " + (lineOffset + reject.line) + ": " + reject.reason));
+                rejectOut.write('\n');
+            }
+            rejected += chunk.rejects.size();
+            lineOffset += chunk.lines;
+        }
+
+        // Rows the store left out because the stock would no longer fit in an int join the
+        // chunk's rejects, in line order
+        private void rejectOverflowed(Chunk chunk, List<InventoryItem> overflowed) throws IOException {
+            Set<InventoryItem> left = Collections.newSetFromMap(new IdentityHashMap<>());
+            left.addAll(overflowed);
+            for (int i = 0; i < chunk.rows.size(); i++) {
+                InventoryItem row = chunk.rows.get(i);
+                if (left.contains(row)) {
+                    StringWriter text = new StringWriter();
+                    writeRow(text, row);
+                    chunk.rejects.add(new Reject(chunk.rowLines[i], text.toString().trim(),
+                            "Quantity is too large"));
+                }
+            }
+            chunk.rejects.sort(Comparator.comparingInt(reject -> reject.line));
+        }
+
+        void close() throws IOException {
+            if (rejectOut != null) {
+                rejectOut.close();
+            }
+        }
+    }
+
+    private static Chunk parse(byte[] bytes, boolean first) {
+        int start = 0;
+        if (first && bytes.length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF) {
+            start = 3; // UTF-8 byte order mark
+        }
+        String text = new String(bytes, start, bytes.length - start, StandardCharsets.UTF_8);
+        Chunk chunk = new Chunk();
+        int position = 0;
+        while (position < text.length()) {
+            int lineEnd = text.indexOf('\n', position);
+            if (lineEnd < 0) {
+                lineEnd = text.length();
+            }
+            String line = text.substring(position, lineEnd > position && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd);
+            position = lineEnd + 1;
+            chunk.lines++;
+            if (line.isBlank() || (first && chunk.lines == 1 && line.regionMatches(true, 0, "name,", 0, 5))) {
+                continue;
+            }
+            try {
+                chunk.add(parseRow(line));
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                chunk.rejects.add(new Reject(chunk.lines, line, e.getMessage()));
+            }
+        }
+        return chunk;
+    }
+
+    // Same checks, in the same order, as InventoryManagementSystem.addItem()
+    private static InventoryItem parseRow(String line) {
+        List<String> fields = fields(line);
+        if (fields.size() != 3 && fields.size() != 4) {
+            throw new IllegalArgumentException("Expected 3 fields (name,quantity,price) but found " + fields.size());
+        }
+        String name = fields.get(0).trim();
+        int quantity;
+        double price;
+        try {
+            quantity = Integer.parseInt(fields.get(1).trim());
+            price = Double.parseDouble(fields.get(2).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Please enter valid numbers for quantity and price");
+        }
+        InventoryStore.validate(name, quantity, price);
+        return new InventoryItem(name, quantity, price);
+    }
+
+    /** Splits one CSV line; "quoted" fields may contain commas and "" for a quote. */
+    static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        current.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+
+    static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0
+                && field.equals(field.trim())) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Writes every item in {@code store} to {@code csv}, one row at a time, without copying
+     * the inventory first. Items changed while the export runs may be written before or
+     * after the change, as with {@link InventoryStore#forEach}.
+     *
+     * @return the number of rows written
+     */
+    public static long exportCsv(InventoryStore store, File csv) throws IOException {
+        try (InventoryMetrics.Timing timing = store.metrics().time(InventoryMetrics.Operation.EXPORT_CSV)) {
+            long[] count = new long[1];
+            try (BufferedWriter out = Files.newBufferedWriter(csv.toPath(), StandardCharsets.UTF_8)) {
+                out.write(HEADER);
+                out.write('\n');
+                store.forEach(item -> {
+                    try {
+                        writeRow(out, item);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    count[0]++;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            timing.items(count[0]);
+            return count[0];
+        }
+    }
+
+    private static void writeRow(Writer out, InventoryItem item) throws IOException {
+        // Quantity and price from one read, so the row is a state the item really had
+        long state = item.state();
+        long cents = InventoryItem.priceCentsOf(state);
+        out.write(quote(item.getName()));
+        out.write(',');
+        out.write(Integer.toString(InventoryItem.quantityOf(state)));
+        out.write(',');
+        out.write(Long.toString(cents / 100));
+        out.write('.');
+        long fraction = cents % 100;
+        if (fraction < 10) {
+            out.write('0');
+        }
+        out.write(Long.toString(fraction));
+        out.write('\n');
+    }
+}
@@ -0,0 +1,380 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Reads and writes {@code .inv} files.
+ *
+ * <p>Files are written in the columnar v2 format below. Files from earlier versions, which
+ * hold a serialized {@code ArrayList<InventoryManagementSystem.Item>}, are still readable;
+ * the two are told apart by their first bytes.
+ *
+ * <pre>
+ * header (24 bytes, little-endian)
+ *   int   magic      'INV2'
+ *   int   version    2
+ *   int   count      number of items
+ *   int   flags      bit 0: an id column follows the header
+ *   long  nameBytes  length of the name table
+ * long[count]    item ids (only with flag bit 0; used by journal checkpoints)
+ * double[count]  prices
+ * int[count]     quantities
+ * int[count]     name end offsets into the name table (exclusive)
+ * byte[nameBytes] UTF-8 names, back to back
+ * </pre>
+ *
+ * Every section is 8- or 4-byte aligned so it can be bulk-copied out of a memory-mapped file.
+ * Saves go to a temporary file that is then renamed over the target.
+ */
+public final class InventoryFiles {
+    static final int MAGIC = 0x494E5632; // "INV2"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 24;
+    static final int FLAG_IDS = 1;
+
+    private static final short SERIALIZATION_MAGIC = (short) 0xACED;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    private static final int DECODE_BLOCK = 1 << 16;
+
+    private InventoryFiles() {
+    }
+
+    /** Follows a save or load. Called on the thread doing the work. */
+    public interface Progress {
+        Progress NONE = (done, total) -> {
+        };
+
+        void update(long done, long total);
+
+        /**
+         * Called once, just before the result becomes visible (a save's rename, a load's swap
+         * into the store). Returning false cancels instead; after returning true the
+         * operation completes even if the thread is interrupted.
+         */
+        default boolean commit() {
+            return !Thread.currentThread().isInterrupted();
+        }
+    }
+
+    public static void save(InventoryStore store, File file) throws IOException {
+        save(store, file, Progress.NONE);
+    }
+
+    /**
+     * Saves a point-in-time copy of the store (see {@link InventoryStore#consistentSnapshot()}),
+     * so edits made while the file is written are not half in it. The file is written beside
+     * the target and renamed over it, so a crash or cancellation mid-save leaves the previous
+     * file intact. Interrupting the saving thread cancels the save, up to {@link Progress#commit()}.
+     */
+    public static void save(InventoryStore store, File file, Progress progress) throws IOException {
+        try (InventoryMetrics.Timing timing = store.metrics().time(InventoryMetrics.Operation.SAVE)) {
+            List<InventoryItem> items = store.consistentSnapshot();
+            timing.items(items.size());
+            writeAtomically(items, file, progress);
+        }
+    }
+
+    public static void load(InventoryStore store, File file) throws IOException {
+        load(store, file, Progress.NONE);
+    }
+
+    /**
+     * Replaces the store's contents with the file's. Interrupting the loading thread before
+     * {@link Progress#commit()} cancels the load and leaves the store as it was.
+     */
+    public static void load(InventoryStore store, File file, Progress progress) throws IOException {
+        try (InventoryMetrics.Timing timing = store.metrics().time(InventoryMetrics.Operation.LOAD)) {
+            List<InventoryItem> items = read(file, progress);
+            timing.items(items.size());
+            if (!progress.commit()) {
+                throw new InterruptedIOException("Load cancelled");
+            }
+            store.replaceAll(items);
+        }
+    }
+
+    public static void save(CompactInventory inventory, File file) throws IOException {
+        writeAtomically(inventory.snapshot(), file, Progress.NONE);
+    }
+
+    public static void load(CompactInventory inventory, File file) throws IOException {
+        inventory.replaceAll(read(file));
+    }
+
+    private static void writeAtomically(List<InventoryItem> items, File file, Progress progress) throws IOException {
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try {
+            write(items, temp, false, progress);
+            if (!progress.commit()) {
+                throw new InterruptedIOException("Save cancelled");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+    }
+
+    private static void checkCancelled(String operation) throws InterruptedIOException {
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException(operation + " cancelled");
+        }
+    }
+
+    /** Writes {@code items} to {@code file} in the v2 format, with their ids if {@code withIds}. */
+    static void write(List<InventoryItem> items, File file, boolean withIds) throws IOException {
+        write(items, file, withIds, Progress.NONE);
+    }
+
+    private static void write(List<InventoryItem> items, File file, boolean withIds, Progress progress) throws IOException {
+        int count = items.size();
+        byte[][] names = new byte[count][];
+        long nameBytes = 0;
+        for (int i = 0; i < count; i++) {
+            names[i] = items.get(i).getName().getBytes(StandardCharsets.UTF_8);
+            nameBytes += names[i].length;
+        }
+        if (nameBytes > Integer.MAX_VALUE) {
+            throw new IOException("Name table too large: " + nameBytes + " bytes");
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long columnBytes = (long) count * (Double.BYTES + 2 * Integer.BYTES + (withIds ? Long.BYTES : 0));
+            Output out = new Output(channel, HEADER_BYTES + columnBytes + nameBytes, progress);
+            ByteBuffer buffer = out.buffer;
+
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(withIds ? FLAG_IDS : 0).putLong(nameBytes);
+            if (withIds) {
+                for (InventoryItem item : items) {
+                    out.ensureRoom(Long.BYTES);
+                    buffer.putLong(item.id);
+                }
+            }
+            for (InventoryItem item : items) {
+                out.ensureRoom(Double.BYTES);
+                buffer.putDouble(item.getPrice());
+            }
+            for (InventoryItem item : items) {
+                out.ensureRoom(Integer.BYTES);
+                buffer.putInt(item.getQuantity());
+            }
+            int end = 0;
+            for (byte[] name : names) {
+                out.ensureRoom(Integer.BYTES);
+                end += name.length;
+                buffer.putInt(end);
+            }
+            for (byte[] name : names) {
+                int offset = 0;
+                while (offset < name.length) {
+                    out.ensureRoom(1);
+                    int chunk = Math.min(buffer.remaining(), name.length - offset);
+                    buffer.put(name, offset, chunk);
+                    offset += chunk;
+                }
+            }
+            out.drain();
+            channel.force(false);
+        }
+    }
+
+    // Buffers writes to a channel, reporting progress and checking for cancellation per buffer
+    private static final class Output {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        final long total;
+        final Progress progress;
+        long written;
+
+        Output(FileChannel channel, long total, Progress progress) {
+            this.channel = channel;
+            this.total = total;
+            this.progress = progress;
+        }
+
+        void ensureRoom(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        void drain() throws IOException {
+            checkCancelled("Save");
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+            progress.update(written, total);
+        }
+    }
+
+    /** Reads a v2 or legacy serialized file into fresh items. */
+    static List<InventoryItem> read(File file) throws IOException {
+        return read(file, Progress.NONE);
+    }
+
+    private static List<InventoryItem> read(File file, Progress progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4);
+            channel.read(head, 0);
+            head.flip();
+            if (head.remaining() >= 2 && head.getShort(0) == SERIALIZATION_MAGIC) {
+                return readLegacy(file);
+            }
+            return readColumns(channel, progress);
+        }
+    }
+
+    private static List<InventoryItem> readColumns(FileChannel channel, Progress progress) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_BYTES) {
+            throw new IOException("Not an inventory file (too short)");
+        }
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not an inventory file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported inventory file version " + version);
+        }
+        int count = header.getInt();
+        int flags = header.getInt();
+        long nameBytes = header.getLong();
+        boolean hasIds = (flags & FLAG_IDS) != 0;
+
+        long columnBytes = (long) count * (Double.BYTES + 2 * Integer.BYTES + (hasIds ? Long.BYTES : 0));
+        if (count < 0 || nameBytes < 0 || nameBytes > Integer.MAX_VALUE
+                || HEADER_BYTES + columnBytes + nameBytes != size) {
+            throw new IOException("Corrupt inventory file (section lengths do not match file size)");
+        }
+
+        long[] ids = new long[hasIds ? count : 0];
+        double[] prices = new double[count];
+        int[] quantities = new int[count];
+        int[] nameEnds = new int[count];
+        byte[] names = new byte[(int) nameBytes];
+
+        long position = HEADER_BYTES;
+        if (hasIds) {
+            mapRegion(channel, position, (long) count * Long.BYTES).asLongBuffer().get(ids);
+            position += (long) count * Long.BYTES;
+        }
+        mapRegion(channel, position, (long) count * Double.BYTES).asDoubleBuffer().get(prices);
+        position += (long) count * Double.BYTES;
+        mapRegion(channel, position, (long) count * Integer.BYTES).asIntBuffer().get(quantities);
+        position += (long) count * Integer.BYTES;
+        mapRegion(channel, position, (long) count * Integer.BYTES).asIntBuffer().get(nameEnds);
+        position += (long) count * Integer.BYTES;
+        mapRegion(channel, position, nameBytes).get(names);
+
+        int previous = 0;
+        for (int end : nameEnds) {
+            if (end < previous || end > nameBytes) {
+                throw new IOException("Corrupt inventory file (bad name offset)");
+            }
+            previous = end;
+        }
+
+        // Decoding names dominates load time, so build the items in parallel, a block at a time
+        // so progress and cancellation are seen between blocks
+        InventoryItem[] items = new InventoryItem[count];
+        AtomicInteger firstInvalid = new AtomicInteger(count);
+        for (int from = 0; from < count; from += DECODE_BLOCK) {
+            checkCancelled("Load");
+            IntStream.range(from, Math.min(count, from + DECODE_BLOCK)).parallel().forEach(i -> {
+                int start = nameStart(nameEnds, i);
+                String name = new String(names, start, nameEnds[i] - start, StandardCharsets.UTF_8);
+                long cents = validCents(name, quantities[i], prices[i]);
+                if (cents < 0) {
+                    firstInvalid.accumulateAndGet(i, Math::min);
+                    return;
+                }
+                items[i] = new InventoryItem(hasIds ? ids[i] : 0, name, InventoryItem.pack(quantities[i], cents));
+            });
+            int invalid = firstInvalid.get();
+            if (invalid < count) {
+                int start = nameStart(nameEnds, invalid);
+                throw invalidRow(invalid, new String(names, start, nameEnds[invalid] - start, StandardCharsets.UTF_8),
+                        quantities[invalid], prices[invalid]);
+            }
+            progress.update(Math.min(count, from + DECODE_BLOCK), count);
+        }
+        return Arrays.asList(items);
+    }
+
+    private static int nameStart(int[] nameEnds, int i) {
+        return i == 0 ? 0 : nameEnds[i - 1];
+    }
+
+    // Files are not trusted: a negative quantity or a price out of range would corrupt the
+    // item's packed state, so each row gets the checks of InventoryStore.validate. Returns
+    // the price in cents, or -1 if the row is invalid, so a valid price is rounded only once
+    private static long validCents(String name, int quantity, double price) {
+        if (name == null || name.trim().isEmpty() || quantity < 0
+                || !(price >= 0) || price > InventoryItem.MAX_PRICE_CENTS / 100.0) {
+            return -1;
+        }
+        long cents = InventoryItem.toCents(price);
+        return cents > InventoryItem.MAX_PRICE_CENTS ? -1 : cents;
+    }
+
+    private static IOException invalidRow(int row, String name, int quantity, double price) {
+        String reason = "Invalid values";
+        try {
+            InventoryStore.validate(name, quantity, price);
+        } catch (IllegalArgumentException e) {
+            reason = e.getMessage();
+        }
+        return new IOException("Invalid item in row " + (row + 1) + (name == null ? "" : " (" + name + ")") + ": " + reason);
+    }
+
+    private static ByteBuffer mapRegion(FileChannel channel, long position, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Inventory file section too large to map: " + length + " bytes");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<InventoryItem> readLegacy(File file) throws IOException {
+        List<InventoryManagementSystem.Item> items;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file));
+             ObjectInputStream ois = new ObjectInputStream(in)) {
+            items = (List<InventoryManagementSystem.Item>) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unrecognized inventory file: " + e.getMessage(), e);
+        }
+
+        List<InventoryItem> loaded = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            InventoryManagementSystem.Item item = items.get(i);
+            long cents = validCents(item.name, item.quantity, item.price);
+            if (cents < 0) {
+                throw invalidRow(i, item.name, item.quantity, item.price);
+            }
+            loaded.add(new InventoryItem(0, item.name, InventoryItem.pack(item.quantity, cents)));
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,200 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A single stock line held by {@link InventoryStore}. Instances are owned by the store:
+ * callers may keep references and read them, but all changes go through the store so it
+ * can keep its invariants.
+ *
+ * <p>Quantity and price are packed into one {@code long} and changed with compare-and-set,
+ * so stock movements never take a lock and every change moves the item from one consistent
+ * (quantity, price) pair to the next. That lets the store keep running totals that are
+ * exact: each change contributes precisely {@code value(new) - value(old)}.
+ *
+ * <pre>
+ * bit 63      retired flag
+ * bits 32-62  quantity (never negative)
+ * bits 0-31   unit price in cents (unsigned)
+ * </pre>
+ *
+ * When the store removes or renames an item it sets the retired flag, which makes any
+ * racing adjustment fail its CAS and retry against the store's current entry instead of
+ * updating a detached object.
+ */
+public final class InventoryItem {
+    /** Largest unit price that fits the packed representation, in cents. */
+    public static final long MAX_PRICE_CENTS = 0xFFFFFFFFL;
+
+    static final long RETIRED = Long.MIN_VALUE;
+
+    private static final AtomicLongFieldUpdater<InventoryItem> STATE =
+            AtomicLongFieldUpdater.newUpdater(InventoryItem.class, "state");
+
+    private final String name;
+    private volatile long state;
+    // Store-assigned identity, distinct for every item the store has ever created; 0 until adopted
+    long id;
+    // State this item is filed under in its store's StockIndex, or RETIRED if none; guarded by this
+    long indexed = RETIRED;
+    // 1 while queued for re-filing in that StockIndex
+    volatile int queued;
+
+    InventoryItem(String name, int quantity, double price) {
+        this(0, name, quantity, price);
+    }
+
+    InventoryItem(long id, String name, int quantity, double price) {
+        this(id, name, pack(quantity, toCents(price)));
+    }
+
+    InventoryItem(long id, String name, long state) {
+        this.id = id;
+        this.name = name;
+        this.state = state;
+    }
+
+    /** Rounds a price to whole cents, half up. */
+    public static long toCents(double price) {
+        return BigDecimal.valueOf(price).setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValueExact();
+    }
+
+    static long pack(int quantity, long priceCents) {
+        return ((long) quantity << 32) | priceCents;
+    }
+
+    static int quantityOf(long state) {
+        return (int) ((state >>> 32) & 0x7FFFFFFF);
+    }
+
+    static long priceCentsOf(long state) {
+        return state & MAX_PRICE_CENTS;
+    }
+
+    static long valueCentsOf(long state) {
+        return quantityOf(state) * priceCentsOf(state);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQuantity() {
+        return quantityOf(state);
+    }
+
+    public double getPrice() {
+        return priceCentsOf(state) / 100.0;
+    }
+
+    public long getPriceCents() {
+        return priceCentsOf(state);
+    }
+
+    /** Quantity times unit price, in cents, from one consistent read. */
+    public long getTotalValueCents() {
+        return valueCentsOf(state);
+    }
+
+    public double getTotalValue() {
+        return getTotalValueCents() / 100.0;
+    }
+
+    long state() {
+        return state & ~RETIRED;
+    }
+
+    /** The state from one read, or {@link #RETIRED} if the item has been retired. */
+    long liveState() {
+        long current = state;
+        return current < 0 ? RETIRED : current;
+    }
+
+    boolean isRetired() {
+        return state < 0;
+    }
+
+    /**
+     * Atomically adds {@code delta} to the quantity.
+     *
+     * @return the state before the change, or {@link #RETIRED} if the item has been retired
+     * @throws IllegalArgumentException if stock would go negative
+     */
+    long addQuantity(int delta) {
+        for (;;) {
+            long current = state;
+            if (current < 0) {
+                return RETIRED;
+            }
+            int updated = Math.addExact(quantityOf(current), delta);
+            if (updated < 0) {
+                throw new IllegalArgumentException("Quantity cannot be negative");
+            }
+            if (STATE.compareAndSet(this, current, pack(updated, priceCentsOf(current)))) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Atomically adds {@code delta} to the quantity (if {@code add}) or replaces it with
+     * {@code quantity}, and sets the price.
+     *
+     * @return the state before the change, or {@link #RETIRED} if the item has been retired
+     */
+    long update(boolean add, int quantity, long priceCents) {
+        for (;;) {
+            long current = state;
+            if (current < 0) {
+                return RETIRED;
+            }
+            int updated = add ? Math.addExact(quantityOf(current), quantity) : quantity;
+            if (STATE.compareAndSet(this, current, pack(updated, priceCents))) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Atomically applies {@code rule} if the item matches it; the new state follows from the
+     * returned one by {@link BulkUpdate#newQuantity} and {@link BulkUpdate#newPriceCents}.
+     *
+     * @return the state the rule was applied to or, if the item does not match, the current
+     *         state; {@link #RETIRED} if the item has been retired
+     */
+    long apply(BulkUpdate rule) {
+        for (;;) {
+            long current = state;
+            if (current < 0) {
+                return RETIRED;
+            }
+            int quantity = quantityOf(current);
+            long priceCents = priceCentsOf(current);
+            if (!rule.matches(quantity, priceCents)) {
+                return current;
+            }
+            long updated = pack(rule.newQuantity(quantity), rule.newPriceCents(priceCents));
+            if (updated == current || STATE.compareAndSet(this, current, updated)) {
+                return current;
+            }
+        }
+    }
+
+    /** Marks the item as no longer in the store and returns its final state. */
+    long retire() {
+        for (;;) {
+            long current = state;
+            if (current < 0) {
+                return current & ~RETIRED;
+            }
+            if (STATE.compareAndSet(this, current, current | RETIRED)) {
+                return current;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " x" + getQuantity() + " @ " + getPrice();
+    }
+}
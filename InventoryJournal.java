@@ -0,0 +1,616 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal for an {@link InventoryStore}.
+ *
+ * <p>Every store change is encoded as a small record and appended to an in-memory buffer,
+ * which a background thread writes and fsyncs every {@code commitIntervalMillis} (group
+ * commit): many edits share one fsync, and an edit costs O(1) no matter how large the
+ * inventory is. A crash loses at most the last commit interval; {@link #flush()} makes
+ * everything appended so far durable.
+ *
+ * <p>The directory holds numbered {@code journal-N.log} segments and
+ * {@code checkpoint-N.inv} snapshots, where checkpoint N is the state after every segment
+ * numbered below N. Recovery loads the newest checkpoint and replays the segments from N
+ * on. Once the segments since the last checkpoint pass {@code compactThresholdBytes}, the
+ * background thread seals the active segment and folds it into a new checkpoint. It
+ * replays files for this and never reads the live store, so writers are not paused. One
+ * journal at a time can have the directory (see {@link DirectoryLock}).
+ *
+ * <p>Records refer to items by their store id, not their name. A quantity or price change
+ * is recorded as the item's whole state, read while the record is appended, so an item's
+ * records carry ever later states and replay keeps the last one. Lock-free adjustments
+ * report in no particular order (see {@link StoreListener}), so replaying their
+ * differences would depend on the order they reached the journal, and a checkpoint cut
+ * between two of them could hold a quantity the store never had. A change reported after
+ * its item was renamed or deleted reads the retired state and records nothing; the rename
+ * record already carries the quantity it took over, so nothing is counted twice or lost.
+ */
+public class InventoryJournal implements StoreListener, Closeable {
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 10;
+    public static final long DEFAULT_COMPACT_THRESHOLD_BYTES = 64L << 20;
+
+    private static final byte CREATE = 1;
+    private static final byte DELTA = 2; // no longer written; replayed from older journals
+    private static final byte PRICE = 3; // no longer written; replayed from older journals
+    private static final byte DELETE = 4;
+    private static final byte RENAME = 5;
+    private static final byte STATE = 6;
+
+    private static final int RECORD_HEADER_BYTES = 8; // body length + CRC32 of body
+    private static final int MAX_PENDING_BYTES = 8 << 20;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".inv";
+    private static final String SIZE_GAUGE = "journal_bytes";
+
+    private final File directory;
+    private final DirectoryLock directoryLock;
+    private final InventoryStore store;
+    private final long compactThresholdBytes;
+    private final ScheduledExecutorService background;
+
+    // Appends go to 'pending' under appendLock; the flusher swaps it with 'spare'
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition drained = appendLock.newCondition();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = newBuffer(64 * 1024);
+    private ByteBuffer spare = newBuffer(64 * 1024);
+    private long lastStateId = -1; // the last STATE record, so its twin can be dropped; guarded by appendLock
+    private long lastState;
+
+    // Segment file state; guarded by ioLock, which also serializes flushes and rotations
+    private final Object ioLock = new Object();
+    private final Object compactionLock = new Object();
+    private FileChannel segment;
+    private long segmentSeq;
+    private long checkpointSeq;
+    private volatile long journalBytes; // bytes in segments since the last checkpoint
+    private volatile IOException failure;
+    private boolean closed;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    private InventoryJournal(File directory, DirectoryLock directoryLock, InventoryStore store,
+                             long commitIntervalMillis, long compactThresholdBytes) {
+        this.directory = directory;
+        this.directoryLock = directoryLock;
+        this.store = store;
+        this.compactThresholdBytes = compactThresholdBytes;
+        // One thread for group commits, one so a long compaction never delays them
+        this.background = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "inventory-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        background.scheduleWithFixedDelay(this::backgroundFlush, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Opens the journal in {@code directory} with default settings. */
+    public static InventoryJournal open(File directory, InventoryStore store) throws IOException {
+        return open(directory, store, DEFAULT_COMMIT_INTERVAL_MILLIS, DEFAULT_COMPACT_THRESHOLD_BYTES);
+    }
+
+    /**
+     * Recovers the last durable state from {@code directory} into {@code store} (replacing
+     * its contents), then records every further change to the store. Fails if another
+     * journal, in this process or another, has the directory open.
+     */
+    public static InventoryJournal open(File directory, InventoryStore store, long commitIntervalMillis,
+                                        long compactThresholdBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+        DirectoryLock lock = DirectoryLock.acquire(directory, "journal");
+        try {
+            return open(directory, lock, store, commitIntervalMillis, compactThresholdBytes);
+        } catch (IOException | RuntimeException e) {
+            lock.close();
+            throw e;
+        }
+    }
+
+    private static InventoryJournal open(File directory, DirectoryLock lock, InventoryStore store,
+                                         long commitIntervalMillis, long compactThresholdBytes) throws IOException {
+        TreeMap<Long, File> checkpoints = list(directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+        TreeMap<Long, File> segments = list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        long checkpointSeq = checkpoints.isEmpty() ? 0 : checkpoints.lastKey();
+        Map<Long, InventoryItem> state = replay(checkpoints.get(checkpointSeq), segments.tailMap(checkpointSeq, true));
+        store.restore(state.values());
+
+        InventoryJournal journal = new InventoryJournal(directory, lock, store, commitIntervalMillis, compactThresholdBytes);
+        synchronized (journal.ioLock) {
+            long bytes = 0;
+            for (File file : segments.tailMap(checkpointSeq, true).values()) {
+                bytes += file.length();
+            }
+            journal.journalBytes = bytes;
+            journal.checkpointSeq = checkpointSeq;
+            // Never append to a recovered segment; its tail may be torn
+            long last = segments.isEmpty() ? checkpointSeq : Math.max(checkpointSeq, segments.lastKey() + 1);
+            journal.openSegment(Math.max(last, 1));
+        }
+        store.addListener(journal);
+        store.metrics().gauge(SIZE_GAUGE, "Bytes journaled since the last checkpoint", journal::size);
+        return journal;
+    }
+
+    /** Default journal location, overridable with {@code -Dinventory.dataDir=...}. */
+    public static File defaultDirectory() {
+        String configured = System.getProperty("inventory.dataDir");
+        if (configured != null && !configured.isEmpty()) {
+            return new File(configured);
+        }
+        return new File(System.getProperty("user.home"), ".inventory-management" + File.separator + "journal");
+    }
+
+    /** Bytes in journal segments written since the last checkpoint. */
+    public long size() {
+        return journalBytes;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    // --- StoreListener: encode and buffer ---
+
+    @Override
+    public void itemCreated(InventoryItem item, int quantity, double price) {
+        byte[] name = item.getName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = beginRecord(CREATE, 8 + 4 + 8 + 4 + name.length);
+        if (b != null) {
+            b.putLong(item.id).putInt(quantity).putDouble(price).putInt(name.length).put(name);
+            endRecord();
+        }
+    }
+
+    @Override
+    public void quantityChanged(InventoryItem item, int oldQuantity, int newQuantity) {
+        stateChanged(item);
+    }
+
+    @Override
+    public void priceChanged(InventoryItem item, double oldPrice, double newPrice) {
+        stateChanged(item);
+    }
+
+    private void stateChanged(InventoryItem item) {
+        ByteBuffer b = beginRecord(STATE, 8 + 4 + 8);
+        if (b != null) {
+            // Read under appendLock, so the item's records carry ever later states
+            long state = item.liveState();
+            if (state == InventoryItem.RETIRED || (item.id == lastStateId && state == lastState)) {
+                // The rename or delete record carries its final state, or this is the other
+                // half of a quantity and price change
+                cancelRecord();
+                return;
+            }
+            b.putLong(item.id).putInt(InventoryItem.quantityOf(state)).putLong(InventoryItem.priceCentsOf(state));
+            lastStateId = item.id;
+            lastState = state;
+            endRecord();
+        }
+    }
+
+    @Override
+    public void itemRenamed(InventoryItem from, InventoryItem to, int quantity) {
+        byte[] name = to.getName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = beginRecord(RENAME, 8 + 8 + 4 + 8 + 4 + name.length);
+        if (b != null) {
+            b.putLong(from.id).putLong(to.id).putInt(quantity).putDouble(to.getPrice()).putInt(name.length).put(name);
+            endRecord();
+        }
+    }
+
+    @Override
+    public void itemDeleted(InventoryItem item, int finalQuantity) {
+        ByteBuffer b = beginRecord(DELETE, 8);
+        if (b != null) {
+            b.putLong(item.id);
+            endRecord();
+        }
+    }
+
+    /** A bulk replacement is stored as a fresh checkpoint instead of one record per item. */
+    @Override
+    public void storeReset(List<InventoryItem> items) {
+        synchronized (compactionLock) {
+            synchronized (ioLock) {
+                try {
+                    long sealed = segmentSeq;
+                    rotate();
+                    writeCheckpoint(items, segmentSeq);
+                    journalBytes = 0;
+                    appendLock.lock();
+                    try {
+                        lastStateId = -1; // the new items may reuse ids
+                    } finally {
+                        appendLock.unlock();
+                    }
+                    deleteUpTo(sealed);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+    }
+
+    private int recordStart;
+
+    // Returns the pending buffer positioned at the record body with appendLock held, or
+    // null (lock not held) if the journal has failed or been closed
+    private ByteBuffer beginRecord(byte type, int bodyBytes) {
+        appendLock.lock();
+        if (failure != null || closed) {
+            appendLock.unlock();
+            return null;
+        }
+        try {
+            while (pending.position() > MAX_PENDING_BYTES && failure == null && !closed) {
+                drained.awaitNanos(TimeUnit.MILLISECONDS.toNanos(100)); // let the flusher catch up
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int needed = RECORD_HEADER_BYTES + 1 + bodyBytes;
+        if (pending.remaining() < needed) {
+            ByteBuffer grown = newBuffer(Math.max(pending.capacity() * 2, pending.position() + needed));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        recordStart = pending.position();
+        pending.putInt(0).putInt(0).put(type);
+        return pending;
+    }
+
+    private void endRecord() {
+        try {
+            int bodyStart = recordStart + RECORD_HEADER_BYTES;
+            int bodyLength = pending.position() - bodyStart;
+            crc.reset();
+            crc.update(pending.array(), pending.arrayOffset() + bodyStart, bodyLength);
+            pending.putInt(recordStart, bodyLength);
+            pending.putInt(recordStart + 4, (int) crc.getValue());
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void cancelRecord() {
+        pending.position(recordStart);
+        appendLock.unlock();
+    }
+
+    // --- Flushing and compaction ---
+
+    /** Writes and fsyncs everything appended so far. */
+    public void flush() throws IOException {
+        synchronized (ioLock) {
+            flushLocked();
+        }
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private void backgroundFlush() {
+        try {
+            synchronized (ioLock) {
+                flushLocked();
+            }
+            // Once close() has begun the pool refuses new work; the next open compacts instead
+            if (journalBytes >= compactThresholdBytes && !background.isShutdown()
+                    && compactionScheduled.compareAndSet(false, true)) {
+                background.execute(this::backgroundCompact);
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (RejectedExecutionException e) {
+            compactionScheduled.set(false);
+        } catch (RuntimeException e) {
+            fail(new IOException("Journal background task failed", e));
+        }
+    }
+
+    private void backgroundCompact() {
+        try {
+            compact();
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            compactionScheduled.set(false);
+        }
+    }
+
+    // Caller holds ioLock
+    private void flushLocked() throws IOException {
+        if (segment == null || failure != null) {
+            return;
+        }
+        ByteBuffer batch;
+        appendLock.lock();
+        try {
+            batch = pending;
+            pending = spare;
+            spare = batch;
+            drained.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+        batch.flip();
+        if (batch.hasRemaining()) {
+            int written = batch.remaining();
+            while (batch.hasRemaining()) {
+                segment.write(batch);
+            }
+            segment.force(false);
+            journalBytes += written;
+        }
+        batch.clear();
+    }
+
+    /** Seals the active segment and folds everything up to it into a new checkpoint. */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            long sealed;
+            long base;
+            synchronized (ioLock) {
+                sealed = segmentSeq;
+                base = checkpointSeq;
+                rotate();
+            }
+
+            // Replaying files does not touch the live store; writers keep appending meanwhile
+            TreeMap<Long, File> segments = list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            Map<Long, InventoryItem> state = replay(checkpointFile(base), segments.subMap(base, true, sealed, true));
+            long folded = 0;
+            for (File file : segments.subMap(base, true, sealed, true).values()) {
+                folded += file.length();
+            }
+
+            synchronized (ioLock) {
+                writeCheckpoint(new ArrayList<>(state.values()), sealed + 1);
+                journalBytes = Math.max(0, journalBytes - folded);
+                deleteUpTo(sealed);
+            }
+        }
+    }
+
+    // Caller holds ioLock
+    private void rotate() throws IOException {
+        flushLocked();
+        openSegment(segmentSeq + 1);
+    }
+
+    // Caller holds ioLock
+    private void openSegment(long seq) throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        segment = FileChannel.open(segmentFile(seq).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSeq = seq;
+    }
+
+    // Caller holds ioLock
+    private void writeCheckpoint(List<InventoryItem> items, long seq) throws IOException {
+        File target = checkpointFile(seq);
+        File temp = new File(directory, target.getName() + ".tmp");
+        InventoryFiles.write(items, temp, true);
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        checkpointSeq = seq;
+    }
+
+    // Removes checkpoints older than the current one and segments numbered up to 'seq'
+    private void deleteUpTo(long seq) {
+        for (Map.Entry<Long, File> e : list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX).entrySet()) {
+            if (e.getKey() <= seq) {
+                e.getValue().delete();
+            }
+        }
+        for (Map.Entry<Long, File> e : list(directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX).entrySet()) {
+            if (e.getKey() < checkpointSeq) {
+                e.getValue().delete();
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+            System.err.println("Inventory journal stopped: " + e.getMessage());
+            e.printStackTrace();
+        }
+        appendLock.lock();
+        try {
+            drained.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /** Flushes outstanding records and stops recording. */
+    @Override
+    public void close() throws IOException {
+        store.removeListener(this);
+        store.metrics().removeGauge(SIZE_GAUGE);
+        background.shutdown();
+        try {
+            background.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (ioLock) {
+            try {
+                flushLocked();
+            } finally {
+                appendLock.lock();
+                try {
+                    closed = true;
+                } finally {
+                    appendLock.unlock();
+                }
+                try {
+                    if (segment != null) {
+                        segment.close();
+                        segment = null;
+                    }
+                } finally {
+                    directoryLock.close();
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // --- Recovery ---
+
+    private static Map<Long, InventoryItem> replay(File checkpoint, Map<Long, File> segments) throws IOException {
+        Map<Long, InventoryItem> state = new LinkedHashMap<>();
+        if (checkpoint != null && checkpoint.exists()) {
+            for (InventoryItem item : InventoryFiles.read(checkpoint)) {
+                state.put(item.id, item);
+            }
+        }
+        for (File file : segments.values()) {
+            replaySegment(file, state);
+        }
+        return state;
+    }
+
+    private static void replaySegment(File file, Map<Long, InventoryItem> state) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= RECORD_HEADER_BYTES) {
+            int start = data.position();
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                break; // torn write at the tail
+            }
+            crc.reset();
+            crc.update(data.array(), data.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("Journal " + file.getName() + ": bad checksum at offset " + start + ", ignoring the rest");
+                break;
+            }
+            ByteBuffer body = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+            body.limit(length);
+            data.position(data.position() + length);
+            apply(body, state);
+        }
+    }
+
+    private static void apply(ByteBuffer body, Map<Long, InventoryItem> state) {
+        byte type = body.get();
+        long id = body.getLong();
+        InventoryItem item;
+        switch (type) {
+            case CREATE: {
+                int quantity = body.getInt();
+                double price = body.getDouble();
+                state.put(id, new InventoryItem(id, readName(body), quantity, price));
+                break;
+            }
+            case STATE:
+                item = state.get(id);
+                if (item != null) {
+                    int quantity = body.getInt();
+                    item.update(false, quantity, body.getLong());
+                }
+                break;
+            case DELTA:
+                item = state.get(id);
+                if (item != null) {
+                    long quantity = (long) item.getQuantity() + body.getInt();
+                    item.update(false, (int) Math.max(0, Math.min(quantity, Integer.MAX_VALUE)), item.getPriceCents());
+                }
+                break;
+            case PRICE:
+                item = state.get(id);
+                if (item != null) {
+                    item.update(false, item.getQuantity(), InventoryItem.toCents(body.getDouble()));
+                }
+                break;
+            case DELETE:
+                state.remove(id);
+                break;
+            case RENAME: {
+                long newId = body.getLong();
+                int quantity = body.getInt();
+                double price = body.getDouble();
+                state.remove(id);
+                state.put(newId, new InventoryItem(newId, readName(body), quantity, price));
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private static String readName(ByteBuffer body) {
+        byte[] name = new byte[body.getInt()];
+        body.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    // --- Files ---
+
+    private File segmentFile(long seq) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%016d", seq) + SEGMENT_SUFFIX);
+    }
+
+    private File checkpointFile(long seq) {
+        return new File(directory, CHECKPOINT_PREFIX + String.format("%016d", seq) + CHECKPOINT_SUFFIX);
+    }
+
+    private static TreeMap<Long, File> list(File directory, String prefix, String suffix) {
+        TreeMap<Long, File> files = new TreeMap<>();
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return files;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                try {
+                    files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), child);
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+        return files;
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -1,28 +1,117 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableRowSorter;
 import java.awt.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.io.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
 import java.text.NumberFormat;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
 
 public class InventoryManagementSystem {
     private JFrame frame;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private InventoryTableModel tableModel;
+    private TableRowSorter<InventoryTableModel> sorter;
     private JTextField nameField, quantityField, priceField, searchField;
     private JLabel totalValueLabel;
-    private Map<String, Item> inventory;
+    private final InventoryStore store;
+    private final UndoHistory history;
+    private InventoryJournal journal;
+    private MovementLog movements; // null if it could not be opened
     private final NumberFormat currencyFormat = NumberFormat.getCurrencyInstance();
+    private static final int REPORT_PAGE_SIZE = 500;
+    // Demand-based low stock: average demand over this window, plus this many days of buffer
+    private static final int DEMAND_WINDOW_DAYS = 30;
+    private static final int SAFETY_DAYS = 3;
+
+    // Live search: keystrokes restart the timer, and only the newest query may publish
+    private static final int SEARCH_DELAY_MS = 150;
+    private Timer searchTimer;
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "inventory-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> pendingSearch;
+    private long searchGeneration; // EDT only
+    // What the search filter shows, with each item's value as last counted; null when unfiltered
+    private Map<InventoryItem, Long> searchMatches;
+    private long matchTotalCents;
+
+    // Store changes, batched onto the EDT for the table, the total and any open reports
+    private final ChangePublisher changes = new ChangePublisher(SwingUtilities::invokeLater);
 
     public InventoryManagementSystem() {
-        inventory = new HashMap<>();
+        store = new InventoryStore();
+        history = new UndoHistory(store);
         initializeUI();
-        updateTable(); // Just initialize with empty table instead of trying to load
+        openJournal();
+        store.addListener(history);
+        // Listen before the first read, so nothing can fall between the two
+        store.addListener(changes);
+        changes.subscribe(this::storeChanged);
+        updateTable();
+    }
+
+    // Recovers the previous session and records every edit from now on, so nothing is lost
+    // between explicit saves
+    private void openJournal() {
+        File directory = InventoryJournal.defaultDirectory();
+        try {
+            journal = InventoryJournal.open(directory, store);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::closeJournal, "inventory-journal-shutdown"));
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(frame, "Could not open the journal in " + directory.getAbsolutePath()
+                            + ": " + ex.getMessage() + "\nEdits will only be kept if you save them.",
+                    "Journal Error", JOptionPane.WARNING_MESSAGE);
+            ex.printStackTrace();
+        }
+        // Stock history for demand-based reports; the inventory works without it
+        try {
+            movements = MovementLog.open(new File(directory, "movements"), store);
+        } catch (IOException ex) {
+            System.err.println("Movement history is off: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    private void closeJournal() {
+        if (movements != null) {
+            try {
+                movements.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
     }
 
     private void initializeUI() {
@@ -40,6 +129,26 @@ public class InventoryManagementSystem {
         searchField = new JTextField(20);
         JButton searchButton = new JButton("Search");
         searchButton.addActionListener(e -> searchInventory());
+        searchField.addActionListener(e -> searchInventory());
+
+        searchTimer = new Timer(SEARCH_DELAY_MS, e -> searchInventory());
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+        });
 
         JPanel searchPanel = new JPanel();
         searchPanel.add(new JLabel("Search: "));
@@ -56,27 +165,14 @@ public class InventoryManagementSystem {
         frame.add(topPanel, BorderLayout.NORTH);
 
         // Table setup
-        tableModel = new DefaultTableModel(
-                new String[]{"Item Name", "Quantity", "Price", "Total Value"}, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; // Make table read-only
-            }
-
-            @Override
-            public Class<?> getColumnClass(int columnIndex) {
-                if (columnIndex == 1) return Integer.class;
-                if (columnIndex == 2 || columnIndex == 3) return Double.class;
-                return String.class;
-            }
-        };
+        tableModel = new InventoryTableModel();
 
         table = new JTable(tableModel);
         table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         table.setRowHeight(25);
 
         // Add row sorting capability
-        TableRowSorter<DefaultTableModel> sorter = new TableRowSorter<>(tableModel);
+        sorter = new TableRowSorter<>(tableModel);
         table.setRowSorter(sorter);
 
         JScrollPane scrollPane = new JScrollPane(table);
@@ -142,11 +238,17 @@ public class InventoryManagementSystem {
         JMenu fileMenu = new JMenu("File");
 
         JMenuItem saveMenuItem = new JMenuItem("Save Inventory");
-        saveMenuItem.addActionListener(e -> saveInventory());
+        saveMenuItem.addActionListener(e -> saveInventory(null));
 
         JMenuItem loadMenuItem = new JMenuItem("Load Inventory");
         loadMenuItem.addActionListener(e -> loadInventoryWithFileChooser());
 
+        JMenuItem importMenuItem = new JMenuItem("Import CSV...");
+        importMenuItem.addActionListener(e -> importCsv());
+
+        JMenuItem exportMenuItem = new JMenuItem("Export CSV...");
+        exportMenuItem.addActionListener(e -> exportCsv());
+
         JMenuItem exitMenuItem = new JMenuItem("Exit");
         exitMenuItem.addActionListener(e -> {
             int confirm = JOptionPane.showConfirmDialog(frame,
@@ -154,8 +256,7 @@ public class InventoryManagementSystem {
                     JOptionPane.YES_NO_CANCEL_OPTION);
 
             if (confirm == JOptionPane.YES_OPTION) {
-                saveInventory();
-                System.exit(0);
+                saveInventory(() -> System.exit(0)); // only once the save has succeeded
             } else if (confirm == JOptionPane.NO_OPTION) {
                 System.exit(0);
             }
@@ -164,8 +265,43 @@ public class InventoryManagementSystem {
         fileMenu.add(saveMenuItem);
         fileMenu.add(loadMenuItem);
         fileMenu.addSeparator();
+        fileMenu.add(importMenuItem);
+        fileMenu.add(exportMenuItem);
+        fileMenu.addSeparator();
         fileMenu.add(exitMenuItem);
 
+        // Edit menu; the labels name the step each would take back or repeat
+        JMenu editMenu = new JMenu("Edit");
+        JMenuItem undoMenuItem = new JMenuItem("Undo");
+        undoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+        undoMenuItem.addActionListener(e -> undoOrRedo(true));
+        JMenuItem redoMenuItem = new JMenuItem("Redo");
+        redoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+        redoMenuItem.addActionListener(e -> undoOrRedo(false));
+        JMenuItem bulkMenuItem = new JMenuItem("Bulk Update...");
+        bulkMenuItem.addActionListener(e -> bulkUpdate());
+        editMenu.add(undoMenuItem);
+        editMenu.add(redoMenuItem);
+        editMenu.addSeparator();
+        editMenu.add(bulkMenuItem);
+        editMenu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                String undoLabel = history.undoLabel();
+                String redoLabel = history.redoLabel();
+                undoMenuItem.setText(undoLabel == null ? "Undo" : "Undo " + undoLabel);
+                redoMenuItem.setText(redoLabel == null ? "Redo" : "Redo " + redoLabel);
+            }
+
+            @Override
+            public void menuDeselected(MenuEvent e) {
+            }
+
+            @Override
+            public void menuCanceled(MenuEvent e) {
+            }
+        });
+
         // Report menu
         JMenu reportMenu = new JMenu("Reports");
 
@@ -175,8 +311,17 @@ public class InventoryManagementSystem {
         JMenuItem lowStockMenuItem = new JMenuItem("Low Stock Report");
         lowStockMenuItem.addActionListener(e -> generateLowStockReport());
 
+        JMenuItem breakdownMenuItem = new JMenuItem("Breakdown by Price and Quantity");
+        breakdownMenuItem.addActionListener(e -> generateBreakdownReport());
+
         reportMenu.add(inventoryValueMenuItem);
         reportMenu.add(lowStockMenuItem);
+        JMenuItem locationsMenuItem = new JMenuItem("Stock by Location...");
+        locationsMenuItem.addActionListener(e -> openLocationsReport());
+
+        reportMenu.add(breakdownMenuItem);
+        reportMenu.addSeparator();
+        reportMenu.add(locationsMenuItem);
 
         // Help menu
         JMenu helpMenu = new JMenu("Help");
@@ -186,9 +331,14 @@ public class InventoryManagementSystem {
                 "Inventory Management System v1.0\n© 2025",
                 "About", JOptionPane.INFORMATION_MESSAGE));
 
+        JMenuItem diagnosticsMenuItem = new JMenuItem("Diagnostics");
+        diagnosticsMenuItem.addActionListener(e -> showDiagnostics());
+
+        helpMenu.add(diagnosticsMenuItem);
         helpMenu.add(aboutMenuItem);
 
         menuBar.add(fileMenu);
+        menuBar.add(editMenu);
         menuBar.add(reportMenu);
         menuBar.add(helpMenu);
 
@@ -200,58 +350,40 @@ public class InventoryManagementSystem {
         if (viewRow < 0) return;
 
         int modelRow = table.convertRowIndexToModel(viewRow);
-        String itemName = tableModel.getValueAt(modelRow, 0).toString();
-
-        if (inventory.containsKey(itemName)) {
-            Item item = inventory.get(itemName);
-            nameField.setText(item.name);
-            quantityField.setText(String.valueOf(item.quantity));
-            priceField.setText(String.valueOf(item.price));
-        }
+        InventoryItem item = tableModel.getItemAt(modelRow);
+        nameField.setText(item.getName());
+        quantityField.setText(String.valueOf(item.getQuantity()));
+        priceField.setText(String.valueOf(item.getPrice()));
     }
 
     private void addItem() {
         try {
             String name = nameField.getText().trim();
-            if (name.isEmpty()) {
-                JOptionPane.showMessageDialog(frame, "Item name cannot be empty", "Input Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-
             int quantity = Integer.parseInt(quantityField.getText().trim());
-            if (quantity < 0) {
-                JOptionPane.showMessageDialog(frame, "Quantity cannot be negative", "Input Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-
             double price = Double.parseDouble(priceField.getText().trim());
-            if (price < 0) {
-                JOptionPane.showMessageDialog(frame, "Price cannot be negative", "Input Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
+            InventoryStore.validate(name, quantity, price);
 
-            if (inventory.containsKey(name)) {
+            if (store.contains(name)) {
                 int confirm = JOptionPane.showConfirmDialog(frame,
                         "Item already exists. Update quantity and price?",
                         "Confirm Update", JOptionPane.YES_NO_OPTION);
 
                 if (confirm == JOptionPane.YES_OPTION) {
-                    Item existingItem = inventory.get(name);
-                    existingItem.quantity += quantity;
-                    existingItem.price = price;
+                    undoable("Update " + name, () -> store.addStock(name, quantity, price));
                     JOptionPane.showMessageDialog(frame, "Item updated successfully!");
                 }
             } else {
-                inventory.put(name, new Item(name, quantity, price));
+                undoable("Add " + name, () -> store.addStock(name, quantity, price));
                 JOptionPane.showMessageDialog(frame, "Item added successfully!");
             }
 
-            updateTable();
             clearFields();
 
         } catch (NumberFormatException e) {
             JOptionPane.showMessageDialog(frame, "Please enter valid numbers for quantity and price",
                     "Input Error", JOptionPane.ERROR_MESSAGE);
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            JOptionPane.showMessageDialog(frame, e.getMessage(), "Input Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
@@ -264,36 +396,30 @@ public class InventoryManagementSystem {
 
         try {
             int modelRow = table.convertRowIndexToModel(viewRow);
-            String itemName = tableModel.getValueAt(modelRow, 0).toString();
+            String itemName = tableModel.getItemAt(modelRow).getName();
 
             String name = nameField.getText().trim();
             int quantity = Integer.parseInt(quantityField.getText().trim());
             double price = Double.parseDouble(priceField.getText().trim());
+            InventoryStore.validate(name, quantity, price);
 
-            if (quantity < 0 || price < 0) {
-                JOptionPane.showMessageDialog(frame, "Quantity and price cannot be negative",
-                        "Input Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-
-            // If name changed, we need to remove old item and add new one
-            if (!itemName.equals(name)) {
-                inventory.remove(itemName);
-                inventory.put(name, new Item(name, quantity, price));
-            } else {
-                // Just update existing item
-                Item item = inventory.get(itemName);
-                item.quantity = quantity;
-                item.price = price;
-            }
+            // If name changed, move the item before applying the new values; renaming onto
+            // another item replaces it
+            undoable("Update " + itemName, () -> {
+                if (!itemName.equals(name)) {
+                    store.rename(itemName, name);
+                }
+                store.upsert(name, quantity, price);
+            });
 
-            updateTable();
             clearFields();
             JOptionPane.showMessageDialog(frame, "Item updated successfully!");
 
         } catch (NumberFormatException e) {
             JOptionPane.showMessageDialog(frame, "Please enter valid numbers for quantity and price",
                     "Input Error", JOptionPane.ERROR_MESSAGE);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(frame, e.getMessage(), "Input Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
@@ -305,44 +431,265 @@ public class InventoryManagementSystem {
         }
 
         int modelRow = table.convertRowIndexToModel(viewRow);
-        String itemName = tableModel.getValueAt(modelRow, 0).toString();
+        String itemName = tableModel.getItemAt(modelRow).getName();
 
         int confirm = JOptionPane.showConfirmDialog(frame,
                 "Are you sure you want to delete " + itemName + "?",
                 "Confirm Delete", JOptionPane.YES_NO_OPTION);
 
         if (confirm == JOptionPane.YES_OPTION) {
-            inventory.remove(itemName);
-            updateTable();
+            undoable("Delete " + itemName, () -> store.delete(itemName));
             clearFields();
             JOptionPane.showMessageDialog(frame, "Item deleted successfully!");
         }
     }
 
+    /**
+     * Runs the search box's query on the search thread and filters the table by the result.
+     * A newer call cancels the query in flight, and a result that is no longer the newest is
+     * dropped instead of being shown. New and renamed items rerun it too, so an active
+     * filter picks them up. Called on the EDT.
+     */
     private void searchInventory() {
-        String searchTerm = searchField.getText().trim().toLowerCase();
+        searchTimer.stop();
+        long generation = ++searchGeneration;
+        if (pendingSearch != null) {
+            pendingSearch.cancel(true);
+            pendingSearch = null;
+        }
+
+        String searchTerm = searchField.getText().trim();
         if (searchTerm.isEmpty()) {
-            updateTable(); // Reset to show all items
+            searchMatches = null;
+            sorter.setRowFilter(null); // Reset to show all items
+            updateTotalValue();
             return;
         }
 
-        tableModel.setRowCount(0);
-        double totalValue = 0;
+        pendingSearch = searchExecutor.submit(() -> {
+            long totalCents = 0;
+            Map<InventoryItem, Long> matches = new IdentityHashMap<>();
+
+            for (InventoryItem item : store.search(searchTerm)) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return; // superseded by a newer keystroke
+                }
+                long value = item.getTotalValueCents();
+                totalCents += value;
+                matches.put(item, value);
+            }
+
+            long total = totalCents;
+            SwingUtilities.invokeLater(() -> {
+                if (generation == searchGeneration) {
+                    pendingSearch = null;
+                    showMatches(matches, total);
+                }
+            });
+        });
+    }
+
+    // Filter the view by the indexed result instead of re-matching every row's name
+    private void showMatches(Map<InventoryItem, Long> matches, long totalCents) {
+        searchMatches = matches;
+        matchTotalCents = totalCents;
+        sorter.setRowFilter(new RowFilter<InventoryTableModel, Integer>() {
+            @Override
+            public boolean include(Entry<? extends InventoryTableModel, ? extends Integer> entry) {
+                return matches.containsKey(entry.getModel().getItemAt(entry.getIdentifier()));
+            }
+        });
+        totalValueLabel.setText("Total Inventory Value: " + currencyFormat.format(totalCents / 100.0));
+    }
 
-        for (Item item : inventory.values()) {
-            if (item.name.toLowerCase().contains(searchTerm)) {
-                double itemTotalValue = item.quantity * item.price;
-                tableModel.addRow(new Object[]{
-                        item.name,
-                        item.quantity,
-                        item.price,
-                        itemTotalValue
-                });
-                totalValue += itemTotalValue;
+    /**
+     * Applies a batch from the change stream to the table and the total in O(changes); only
+     * a reset rereads the store. Under a search filter, stock and price changes move the
+     * matches' total by their difference, while new names need the search rerun.
+     */
+    private void storeChanged(List<StoreChange> batch) {
+        try (InventoryMetrics.Timing timing = store.metrics().time(InventoryMetrics.Operation.UPDATE_TABLE)) {
+            if (ChangePublisher.isReset(batch)) {
+                tableModel.setItems(store.settledItems());
             }
+            tableModel.apply(batch);
+            timing.items(batch.size());
         }
 
-        totalValueLabel.setText("Total Inventory Value: " + currencyFormat.format(totalValue));
+        if (searchField.getText().trim().isEmpty()) {
+            updateTotalValue();
+            return;
+        }
+        for (StoreChange change : batch) {
+            if (change.kind == StoreChange.Kind.RESET || change.kind == StoreChange.Kind.ITEM_ADDED
+                    || change.kind == StoreChange.Kind.RENAMED) {
+                searchInventory();
+                return;
+            }
+        }
+        if (searchMatches == null || pendingSearch != null) {
+            return; // a newer result is on its way
+        }
+        for (StoreChange change : batch) {
+            Long shown = searchMatches.get(change.item);
+            if (shown == null) {
+                continue;
+            }
+            boolean deleted = change.kind == StoreChange.Kind.DELETED;
+            long now = deleted ? 0 : change.item.getTotalValueCents();
+            matchTotalCents += now - shown;
+            if (deleted) {
+                searchMatches.remove(change.item);
+            } else {
+                searchMatches.put(change.item, now);
+            }
+        }
+        totalValueLabel.setText("Total Inventory Value: " + currencyFormat.format(matchTotalCents / 100.0));
+    }
+
+    // Runs one user action as a single undoable step
+    private void undoable(String label, Runnable action) {
+        history.begin(label);
+        try {
+            action.run();
+        } finally {
+            history.end();
+        }
+    }
+
+    // Off the EDT, since undoing an import makes one store call per row; the table follows
+    // through the change stream
+    private void undoOrRedo(boolean undo) {
+        if (undo ? !history.canUndo() : !history.canRedo()) {
+            Toolkit.getDefaultToolkit().beep();
+            return;
+        }
+        new SwingWorker<UndoHistory.Result, Void>() {
+            @Override
+            protected UndoHistory.Result doInBackground() {
+                return undo ? history.undo() : history.redo();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    UndoHistory.Result result = get();
+                    if (result != null && result.skipped > 0) {
+                        JOptionPane.showMessageDialog(frame, (undo ? "Undo " : "Redo ") + result.label
+                                        + " was only partly applied: " + result.skipped
+                                        + " change(s) were skipped, as their items have changed since.",
+                                undo ? "Undo" : "Redo", JOptionPane.WARNING_MESSAGE);
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(frame, cause.getMessage(),
+                            undo ? "Undo" : "Redo", JOptionPane.WARNING_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    // Reprices or writes off every matching item in one pass, off the EDT and as one
+    // undoable step; empty fields are left out of the rule
+    private void bulkUpdate() {
+        JTextField priceFromField = new JTextField();
+        JTextField priceBelowField = new JTextField();
+        JTextField quantityFromField = new JTextField();
+        JTextField quantityBelowField = new JTextField();
+        JTextField percentField = new JTextField();
+        JTextField amountField = new JTextField();
+        JTextField writeOffPercentField = new JTextField();
+        JTextField writeOffField = new JTextField();
+
+        JPanel panel = new JPanel(new GridLayout(10, 2, 5, 5));
+        panel.add(new JLabel("Items priced from:"));
+        panel.add(priceFromField);
+        panel.add(new JLabel("Items priced below:"));
+        panel.add(priceBelowField);
+        panel.add(new JLabel("Items with at least (units):"));
+        panel.add(quantityFromField);
+        panel.add(new JLabel("Items with fewer than (units):"));
+        panel.add(quantityBelowField);
+        panel.add(new JLabel(" "));
+        panel.add(new JLabel(" "));
+        panel.add(new JLabel("Change price by (%):"));
+        panel.add(percentField);
+        panel.add(new JLabel("Then change price by (amount):"));
+        panel.add(amountField);
+        panel.add(new JLabel("Write off stock (%):"));
+        panel.add(writeOffPercentField);
+        panel.add(new JLabel("Then write off (units):"));
+        panel.add(writeOffField);
+
+        if (JOptionPane.showConfirmDialog(frame, panel, "Bulk Update", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+            return;
+        }
+        BulkUpdate rule = BulkUpdate.all();
+        try {
+            if (!priceFromField.getText().isBlank()) {
+                rule = rule.pricedFrom(Double.parseDouble(priceFromField.getText().trim()));
+            }
+            if (!priceBelowField.getText().isBlank()) {
+                rule = rule.pricedBelow(Double.parseDouble(priceBelowField.getText().trim()));
+            }
+            if (!quantityFromField.getText().isBlank()) {
+                rule = rule.quantityFrom(Integer.parseInt(quantityFromField.getText().trim()));
+            }
+            if (!quantityBelowField.getText().isBlank()) {
+                rule = rule.quantityBelow(Integer.parseInt(quantityBelowField.getText().trim()));
+            }
+            if (!percentField.getText().isBlank()) {
+                rule = rule.priceByPercent(Double.parseDouble(percentField.getText().trim()));
+            }
+            if (!amountField.getText().isBlank()) {
+                rule = rule.priceBy(Double.parseDouble(amountField.getText().trim()));
+            }
+            if (!writeOffPercentField.getText().isBlank()) {
+                rule = rule.writeOffPercent(Double.parseDouble(writeOffPercentField.getText().trim()));
+            }
+            if (!writeOffField.getText().isBlank()) {
+                rule = rule.writeOff(Integer.parseInt(writeOffField.getText().trim()));
+            }
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(frame, "Please enter valid numbers", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(frame, e.getMessage(), "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (!rule.changesPrice() && !rule.changesQuantity()) {
+            JOptionPane.showMessageDialog(frame, "Nothing to change.", "Bulk Update", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        BulkUpdate chosen = rule;
+        String label = chosen.describe(currencyFormat);
+        new SwingWorker<BulkUpdate.Result, Void>() {
+            @Override
+            protected BulkUpdate.Result doInBackground() {
+                history.begin(label);
+                try {
+                    return store.applyBulk(chosen);
+                } finally {
+                    history.end();
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    BulkUpdate.Result result = get();
+                    JOptionPane.showMessageDialog(frame, label + "\n\nMatched " + result.matched + " items, changed "
+                            + result.changed + ".\nUnits: " + (result.unitsDelta >= 0 ? "+" : "") + result.unitsDelta
+                            + "\nValue: " + (result.valueDeltaCents >= 0 ? "+" : "-")
+                            + currencyFormat.format(Math.abs(result.valueDeltaCents) / 100.0));
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(frame, cause.getMessage(), "Bulk Update", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
     }
 
     private void clearFields() {
@@ -353,44 +700,56 @@ public class InventoryManagementSystem {
     }
 
     private void updateTable() {
-        tableModel.setRowCount(0);
-        double totalValue = 0;
-
-        for (Item item : inventory.values()) {
-            double itemTotalValue = item.quantity * item.price;
-            tableModel.addRow(new Object[]{
-                    item.name,
-                    item.quantity,
-                    item.price,
-                    itemTotalValue
-            });
-            totalValue += itemTotalValue;
+        try (InventoryMetrics.Timing timing = store.metrics().time(InventoryMetrics.Operation.UPDATE_TABLE)) {
+            tableModel.setItems(store.items());
+            timing.items(tableModel.getRowCount());
         }
+        searchInventory();
+    }
 
-        totalValueLabel.setText("Total Inventory Value: " + currencyFormat.format(totalValue));
+    // Reads the store's running total, so this is O(1) however large the inventory is
+    private void updateTotalValue() {
+        totalValueLabel.setText("Total Inventory Value: " + currencyFormat.format(store.totalValue()));
     }
 
-    private void saveInventory() {
+    // Writes on a worker thread from a point-in-time snapshot, so editing can go on meanwhile;
+    // runs afterSave (if any) on the EDT once the file is safely in place
+    private void saveInventory(Runnable afterSave) {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Save Inventory");
 
         int userSelection = fileChooser.showSaveDialog(frame);
-        if (userSelection == JFileChooser.APPROVE_OPTION) {
-            File fileToSave = fileChooser.getSelectedFile();
-            if (!fileToSave.getName().toLowerCase().endsWith(".inv")) {
-                fileToSave = new File(fileToSave.getAbsolutePath() + ".inv");
+        if (userSelection != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File chosen = fileChooser.getSelectedFile();
+        File fileToSave = chosen.getName().toLowerCase().endsWith(".inv") ? chosen : new File(chosen.getAbsolutePath() + ".inv");
+
+        new ProgressWorker<Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                InventoryFiles.save(store, fileToSave, this);
+                return null;
             }
 
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(fileToSave))) {
-                ArrayList<Item> items = new ArrayList<>(inventory.values());
-                oos.writeObject(items);
-                JOptionPane.showMessageDialog(frame, "Inventory saved successfully to " + fileToSave.getAbsolutePath());
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(frame, "Error saving inventory: " + ex.getMessage(),
-                        "Save Error", JOptionPane.ERROR_MESSAGE);
-                ex.printStackTrace();
+            @Override
+            protected void finished() {
+                try {
+                    get();
+                    JOptionPane.showMessageDialog(frame, "Inventory saved successfully to " + fileToSave.getAbsolutePath());
+                    if (afterSave != null) {
+                        afterSave.run();
+                    }
+                } catch (CancellationException ex) {
+                    JOptionPane.showMessageDialog(frame, "Save cancelled; " + fileToSave.getAbsolutePath() + " was not changed.");
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(frame, "Error saving inventory: " + cause.getMessage(),
+                            "Save Error", JOptionPane.ERROR_MESSAGE);
+                    cause.printStackTrace();
+                }
             }
-        }
+        }.start("Saving " + fileToSave.getName(), false);
     }
 
     // Modified to always use file chooser instead of default location
@@ -411,7 +770,6 @@ public class InventoryManagementSystem {
         }
     }
 
-    @SuppressWarnings("unchecked")
     private void loadFromFile(File file) {
         if (!file.exists()) {
             JOptionPane.showMessageDialog(frame,
@@ -420,51 +778,199 @@ public class InventoryManagementSystem {
             return;
         }
 
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            ArrayList<Item> items = (ArrayList<Item>) ois.readObject();
-            inventory.clear();
+        new ProgressWorker<Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                InventoryFiles.load(store, file, this);
+                return null;
+            }
 
-            for (Item item : items) {
-                inventory.put(item.name, item);
+            @Override
+            protected void finished() {
+                try {
+                    get();
+                    JOptionPane.showMessageDialog(frame, "Inventory loaded successfully from " + file.getAbsolutePath());
+                } catch (CancellationException ex) {
+                    JOptionPane.showMessageDialog(frame, "Load cancelled; the inventory was not changed.");
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(frame, "Error loading inventory: " + cause.getMessage(),
+                            "Load Error", JOptionPane.ERROR_MESSAGE);
+                    cause.printStackTrace();
+                }
             }
+        }.start("Loading " + file.getName(), true); // modal: edits made meanwhile would be replaced
+    }
 
-            updateTable();
-            JOptionPane.showMessageDialog(frame, "Inventory loaded successfully from " + file.getAbsolutePath());
+    /**
+     * A save or load worker shown as a progress bar with a Cancel button, which closes before
+     * {@link #finished()} runs on the EDT. Cancel interrupts the worker thread unless the
+     * operation has already committed, so a cancelled worker really changed nothing.
+     */
+    private abstract class ProgressWorker<T> extends SwingWorker<T, Void> implements InventoryFiles.Progress {
+        private final AtomicBoolean settled = new AtomicBoolean(); // committed or cancelled
+        private JDialog dialog;
+
+        protected abstract void finished();
+
+        @Override
+        protected final void done() {
+            dialog.dispose();
+            finished();
+        }
 
-        } catch (IOException | ClassNotFoundException ex) {
-            JOptionPane.showMessageDialog(frame, "Error loading inventory: " + ex.getMessage(),
-                    "Load Error", JOptionPane.ERROR_MESSAGE);
-            ex.printStackTrace();
+        // A modal dialog blocks input to the frame, and then this call returns only once it closes
+        void start(String title, boolean modal) {
+            dialog = new JDialog(frame, title, modal ? Dialog.ModalityType.APPLICATION_MODAL : Dialog.ModalityType.MODELESS);
+            dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+
+            JProgressBar progressBar = new JProgressBar(0, 100);
+            progressBar.setStringPainted(true);
+            JButton cancelButton = new JButton("Cancel");
+            cancelButton.addActionListener(e -> {
+                cancelButton.setEnabled(false);
+                if (settled.compareAndSet(false, true)) {
+                    cancel(true);
+                }
+            });
+
+            JPanel panel = new JPanel(new BorderLayout(10, 10));
+            panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+            panel.add(progressBar, BorderLayout.CENTER);
+            panel.add(cancelButton, BorderLayout.EAST);
+            dialog.add(panel);
+            dialog.setSize(400, 90);
+            dialog.setLocationRelativeTo(frame);
+
+            addPropertyChangeListener(e -> {
+                if ("progress".equals(e.getPropertyName())) {
+                    progressBar.setValue((Integer) e.getNewValue());
+                }
+            });
+            execute();
+            dialog.setVisible(true);
+        }
+
+        @Override
+        public void update(long done, long total) {
+            setProgress(total <= 0 ? 100 : (int) Math.min(100, done * 100 / total));
+        }
+
+        @Override
+        public boolean commit() {
+            return settled.compareAndSet(false, true);
         }
     }
 
+    // Runs on a worker thread; the table follows along through the change stream, in batches
+    private void importCsv() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Import CSV");
+        if (fileChooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File csv = fileChooser.getSelectedFile();
+
+        new SwingWorker<InventoryCsv.Result, Void>() {
+            @Override
+            protected InventoryCsv.Result doInBackground() throws IOException {
+                // The whole import is one step; edits made meanwhile on other threads are steps of their own
+                history.begin("Import " + csv.getName());
+                try {
+                    return InventoryCsv.importCsv(store, csv, InventoryCsv.defaultRejectFile(csv));
+                } finally {
+                    history.end();
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    InventoryCsv.Result result = get();
+                    String message = "Imported " + result.imported + " rows from " + csv.getAbsolutePath();
+                    if (result.rejected > 0) {
+                        message += "\n" + result.rejected + " rows were rejected; see " + result.rejectFile.getAbsolutePath();
+                    }
+                    JOptionPane.showMessageDialog(frame, message);
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(frame, "Error importing " + csv.getAbsolutePath() + ": " + cause.getMessage(),
+                            "Import Error", JOptionPane.ERROR_MESSAGE);
+                    cause.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    private void exportCsv() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Export CSV");
+        if (fileChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File chosen = fileChooser.getSelectedFile();
+        File csv = chosen.getName().toLowerCase().endsWith(".csv") ? chosen : new File(chosen.getAbsolutePath() + ".csv");
+
+        new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() throws IOException {
+                return InventoryCsv.exportCsv(store, csv);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    JOptionPane.showMessageDialog(frame, "Exported " + get() + " items to " + csv.getAbsolutePath());
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(frame, "Error exporting inventory: " + cause.getMessage(),
+                            "Export Error", JOptionPane.ERROR_MESSAGE);
+                    cause.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    // Pages in the most valuable items first, and formats prices only for the rows on screen
     private void generateValueReport() {
         JFrame reportFrame = new JFrame("Inventory Value Report");
         reportFrame.setSize(500, 400);
         reportFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         reportFrame.setLayout(new BorderLayout());
 
-        DefaultTableModel reportModel = new DefaultTableModel(
-                new String[]{"Item Name", "Quantity", "Unit Price", "Total Value"}, 0);
+        InventoryTableModel reportModel = new InventoryTableModel() {
+            @Override
+            public String getColumnName(int column) {
+                return column == 2 ? "Unit Price" : super.getColumnName(column);
+            }
+
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 1 ? Integer.class : String.class;
+            }
+
+            @Override
+            public Object getValueAt(int rowIndex, int columnIndex) {
+                Object value = super.getValueAt(rowIndex, columnIndex);
+                return columnIndex >= 2 ? currencyFormat.format(value) : value;
+            }
+        };
 
         JTable reportTable = new JTable(reportModel);
         JScrollPane scrollPane = new JScrollPane(reportTable);
 
-        double grandTotal = 0;
-
-        for (Item item : inventory.values()) {
-            double totalValue = item.quantity * item.price;
-            reportModel.addRow(new Object[]{
-                    item.name,
-                    item.quantity,
-                    currencyFormat.format(item.price),
-                    currencyFormat.format(totalValue)
-            });
-            grandTotal += totalValue;
-        }
+        JLabel summaryLabel = new JLabel();
+        // The totals are O(1) reads, so they are simply reread after every batch
+        // Keyed by value negated, to walk and keep the most valuable first
+        PagedReport report = new PagedReport(reportModel, from -> store.iterateByValue(-Math.max(from, -Long.MAX_VALUE)),
+                item -> -InventoryItem.valueCentsOf(item.state()), InventoryMetrics.Operation.VALUE_REPORT, "Items",
+                () -> summaryLabel.setText("Grand Total: " + currencyFormat.format(store.totalValue())));
+        report.open(reportFrame);
 
         JPanel summaryPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
-        summaryPanel.add(new JLabel("Grand Total: " + currencyFormat.format(grandTotal)));
+        summaryPanel.add(report.countLabel);
+        summaryPanel.add(report.moreButton);
+        summaryPanel.add(summaryLabel);
 
         JButton printButton = new JButton("Print Report");
         printButton.addActionListener(e -> JOptionPane.showMessageDialog(reportFrame,
@@ -483,6 +989,19 @@ public class InventoryManagementSystem {
     }
 
     private void generateLowStockReport() {
+        if (movements != null) {
+            String[] modes = {"Below a Threshold", "By Demand", "Cancel"};
+            int mode = JOptionPane.showOptionDialog(frame,
+                    "List items below a fixed quantity, or items that will run out\n"
+                            + "before a reorder arrives at their recent rate of sale?",
+                    "Low Stock Report", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, modes, modes[0]);
+            if (mode == 1) {
+                generateReorderReport();
+                return;
+            } else if (mode != 0) {
+                return;
+            }
+        }
         int threshold = 10; // Default threshold
 
         String input = JOptionPane.showInputDialog(frame,
@@ -504,35 +1023,492 @@ public class InventoryManagementSystem {
         reportFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         reportFrame.setLayout(new BorderLayout());
 
-        DefaultTableModel reportModel = new DefaultTableModel(
-                new String[]{"Item Name", "Current Quantity", "Reorder Suggested"}, 0);
+        int limit = threshold;
+        InventoryTableModel reportModel = new InventoryTableModel() {
+            private final String[] columns = {"Item Name", "Current Quantity", "Reorder Suggested"};
+
+            @Override
+            protected boolean accepts(InventoryItem item) {
+                return item.getQuantity() < limit;
+            }
+
+            @Override
+            public int getColumnCount() {
+                return columns.length;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                return columns[column];
+            }
+
+            @Override
+            public Object getValueAt(int rowIndex, int columnIndex) {
+                return columnIndex == 2 ? "Yes" : super.getValueAt(rowIndex, columnIndex);
+            }
+        };
 
         JTable reportTable = new JTable(reportModel);
         JScrollPane scrollPane = new JScrollPane(reportTable);
 
-        int lowStockCount = 0;
+        // Items join and leave as their stock crosses the threshold
+        PagedReport report = new PagedReport(reportModel, from -> store.iterateLowStock((int) Math.max(from, 0), limit),
+                InventoryItem::getQuantity, InventoryMetrics.Operation.LOW_STOCK_REPORT, "Low Stock Items", () -> { });
+        report.open(reportFrame);
 
-        for (Item item : inventory.values()) {
-            if (item.quantity < threshold) {
-                reportModel.addRow(new Object[]{
-                        item.name,
-                        item.quantity,
-                        "Yes"
-                });
-                lowStockCount++;
+        JPanel summaryPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        summaryPanel.add(report.countLabel);
+        summaryPanel.add(report.moreButton);
+
+        reportFrame.add(scrollPane, BorderLayout.CENTER);
+        reportFrame.add(summaryPanel, BorderLayout.SOUTH);
+
+        reportFrame.setLocationRelativeTo(frame);
+        reportFrame.setVisible(true);
+    }
+
+    // Items at or below their reorder point given the last 30 days of demand, from the
+    // movement rollups off the EDT; only items with sales in the window are visited
+    private void generateReorderReport() {
+        int defaultLead = 7;
+        String input = JOptionPane.showInputDialog(frame, "Enter the lead time for a reorder, in days:", defaultLead);
+        if (input == null) {
+            return;
+        }
+        int leadTime;
+        try {
+            leadTime = Integer.parseInt(input.trim());
+            if (leadTime < 0) {
+                throw new NumberFormatException();
             }
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(frame, "Invalid input. Using a lead time of " + defaultLead + " days.");
+            leadTime = defaultLead;
         }
 
+        JFrame reportFrame = new JFrame("Low Stock by Demand (lead time " + leadTime + " days)");
+        reportFrame.setSize(640, 420);
+        reportFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        reportFrame.setLayout(new BorderLayout());
+
+        DefaultTableModel reportModel = new DefaultTableModel(new String[]{"Item Name", "Current Quantity",
+                "Sold per Day", "Days of Cover", "Reorder Point"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JLabel summaryLabel = new JLabel("Working...");
+        JButton refreshButton = new JButton("Refresh");
+
+        int lead = leadTime;
+        NumberFormat decimalFormat = NumberFormat.getNumberInstance();
+        decimalFormat.setMaximumFractionDigits(1);
+        Runnable refresh = () -> {
+            refreshButton.setEnabled(false);
+            new SwingWorker<List<MovementLog.Reorder>, Void>() {
+                @Override
+                protected List<MovementLog.Reorder> doInBackground() {
+                    return movements.belowReorderPoint(lead, SAFETY_DAYS, DEMAND_WINDOW_DAYS);
+                }
+
+                @Override
+                protected void done() {
+                    refreshButton.setEnabled(true);
+                    List<MovementLog.Reorder> due;
+                    try {
+                        due = get();
+                    } catch (InterruptedException | ExecutionException ex) {
+                        Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                        summaryLabel.setText("Could not read the stock history: " + cause.getMessage());
+                        cause.printStackTrace();
+                        return;
+                    }
+                    reportModel.setRowCount(0);
+                    for (MovementLog.Reorder reorder : due) {
+                        reportModel.addRow(new Object[]{reorder.item.getName(), reorder.quantity,
+                                decimalFormat.format(reorder.perDay), decimalFormat.format(reorder.daysOfCover()),
+                                reorder.reorderPoint});
+                    }
+                    summaryLabel.setText("Items to Reorder: " + due.size() + "    (demand over the last "
+                            + DEMAND_WINDOW_DAYS + " days, " + SAFETY_DAYS + " days of safety stock)");
+                }
+            }.execute();
+        };
+        refreshButton.addActionListener(e -> refresh.run());
+        refresh.run();
+
         JPanel summaryPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        summaryPanel.add(new JLabel("Total Low Stock Items: " + lowStockCount));
+        summaryPanel.add(summaryLabel);
+        summaryPanel.add(refreshButton);
 
-        reportFrame.add(scrollPane, BorderLayout.CENTER);
+        reportFrame.add(new JScrollPane(new JTable(reportModel)), BorderLayout.CENTER);
+        reportFrame.add(summaryPanel, BorderLayout.SOUTH);
+
+        reportFrame.setLocationRelativeTo(frame);
+        reportFrame.setVisible(true);
+    }
+
+    /**
+     * A report window's rows: walked in from a store index a page at a time rather than
+     * collected up front, and kept live through the change stream while the window is open.
+     * {@code walk} walks the items from a given {@code key} on, in ascending key order, and
+     * each page starts a new walk where the last page stopped, so items that moved since are
+     * met at their new place. The rows stay in key order, and a changed item joins only if
+     * the model {@code accepts} it and its key is within the pages walked so far; a reset
+     * starts the walk again. EDT only.
+     */
+    private final class PagedReport {
+        final JLabel countLabel = new JLabel();
+        final JButton moreButton = new JButton("Show More");
+        private final InventoryTableModel model;
+        private final LongFunction<Iterator<InventoryItem>> walk;
+        private final ToLongFunction<InventoryItem> key;
+        private final InventoryMetrics.Operation operation;
+        private final String noun;
+        private final Runnable refreshed;
+        private final Consumer<List<StoreChange>> follow = this::follow;
+        private long walkedKey;
+        private boolean more;
+
+        PagedReport(InventoryTableModel model, LongFunction<Iterator<InventoryItem>> walk, ToLongFunction<InventoryItem> key,
+                    InventoryMetrics.Operation operation, String noun, Runnable refreshed) {
+            this.model = model;
+            this.walk = walk;
+            this.key = key;
+            this.operation = operation;
+            this.noun = noun;
+            this.refreshed = refreshed;
+            moreButton.addActionListener(e -> nextPage());
+        }
+
+        void open(Window window) {
+            model.setSortKey(key);
+            changes.subscribe(follow);
+            unsubscribeOnClose(window, follow);
+            restart();
+        }
+
+        private void restart() {
+            walkedKey = Long.MIN_VALUE;
+            nextPage();
+        }
+
+        private void nextPage() {
+            try (InventoryMetrics.Timing timing = store.metrics().time(operation)) {
+                Iterator<InventoryItem> page = walk.apply(walkedKey);
+                int shown = 0;
+                InventoryItem item;
+                // One item past the page tells whether there is another
+                while ((item = unshown(page)) != null && shown < REPORT_PAGE_SIZE) {
+                    walkedKey = Math.max(walkedKey, key.applyAsLong(item));
+                    model.itemAdded(item);
+                    shown++;
+                }
+                more = item != null;
+                timing.items(shown);
+            }
+            model.setLastKey(more ? walkedKey : Long.MAX_VALUE);
+            model.restoreOrder();
+            refresh();
+        }
+
+        // Items that changed while the report was open may be shown already
+        private InventoryItem unshown(Iterator<InventoryItem> page) {
+            while (page.hasNext()) {
+                InventoryItem item = page.next();
+                if (!item.isRetired() && model.accepts(item) && !model.contains(item)) {
+                    return item;
+                }
+            }
+            return null;
+        }
+
+        private void follow(List<StoreChange> batch) {
+            if (ChangePublisher.isReset(batch)) {
+                model.setItems(Collections.emptyList());
+                restart();
+            }
+            model.apply(batch);
+            refresh();
+        }
+
+        private void refresh() {
+            moreButton.setVisible(more);
+            countLabel.setText(noun + (more ? " Shown: " : ": ") + model.getRowCount());
+            refreshed.run();
+        }
+    }
+
+    // Value by price band and a quantity histogram, from one parallel pass off the EDT
+    private void generateBreakdownReport() {
+        JFrame reportFrame = new JFrame("Inventory Breakdown");
+        reportFrame.setSize(560, 420);
+        reportFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        reportFrame.setLayout(new BorderLayout());
+
+        DefaultTableModel bandModel = new DefaultTableModel(
+                new String[]{"Unit Price", "Items", "Units", "Total Value"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        DefaultTableModel bucketModel = new DefaultTableModel(
+                new String[]{"Quantity", "Items", "Units"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JLabel summaryLabel = new JLabel("Counting...");
+        JButton refreshButton = new JButton("Refresh");
+
+        NumberFormat numberFormat = NumberFormat.getIntegerInstance();
+        Runnable refresh = () -> {
+            refreshButton.setEnabled(false);
+            new SwingWorker<InventoryReports.Breakdown, Void>() {
+                @Override
+                protected InventoryReports.Breakdown doInBackground() {
+                    return InventoryReports.breakdown(store);
+                }
+
+                @Override
+                protected void done() {
+                    refreshButton.setEnabled(true);
+                    InventoryReports.Breakdown breakdown;
+                    try {
+                        breakdown = get();
+                    } catch (InterruptedException | ExecutionException ex) {
+                        Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                        summaryLabel.setText("Could not count the inventory: " + cause.getMessage());
+                        cause.printStackTrace();
+                        return;
+                    }
+                    bandModel.setRowCount(0);
+                    for (int band = 0; band < breakdown.bandItems.length; band++) {
+                        bandModel.addRow(new Object[]{
+                                InventoryReports.priceBandLabel(band, currencyFormat),
+                                numberFormat.format(breakdown.bandItems[band]),
+                                numberFormat.format(breakdown.bandUnits[band]),
+                                currencyFormat.format(breakdown.bandValueCents[band] / 100.0)
+                        });
+                    }
+                    bucketModel.setRowCount(0);
+                    for (int bucket = 0; bucket < breakdown.bucketItems.length; bucket++) {
+                        bucketModel.addRow(new Object[]{
+                                InventoryReports.quantityBucketLabel(bucket, numberFormat),
+                                numberFormat.format(breakdown.bucketItems[bucket]),
+                                numberFormat.format(breakdown.bucketUnits[bucket])
+                        });
+                    }
+                    summaryLabel.setText("Items: " + numberFormat.format(breakdown.items)
+                            + "    Units: " + numberFormat.format(breakdown.units)
+                            + "    Grand Total: " + currencyFormat.format(breakdown.valueCents / 100.0));
+                }
+            }.execute();
+        };
+        refreshButton.addActionListener(e -> refresh.run());
+        refresh.run();
+
+        JPanel tables = new JPanel(new GridLayout(2, 1, 5, 5));
+        tables.add(new JScrollPane(new JTable(bandModel)));
+        tables.add(new JScrollPane(new JTable(bucketModel)));
+
+        JPanel summaryPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        summaryPanel.add(summaryLabel);
+        summaryPanel.add(refreshButton);
+
+        reportFrame.add(tables, BorderLayout.CENTER);
         reportFrame.add(summaryPanel, BorderLayout.SOUTH);
 
         reportFrame.setLocationRelativeTo(frame);
         reportFrame.setVisible(true);
     }
 
+    // Per-site stock from a directory of .inv files, one per location (see Warehouses); read-only,
+    // as the locations are not part of the journaled main inventory
+    private void openLocationsReport() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Open Locations Directory");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File directory = chooser.getSelectedFile();
+        new SwingWorker<Warehouses, Void>() {
+            @Override
+            protected Warehouses doInBackground() throws IOException {
+                Warehouses sites = new Warehouses();
+                sites.load(directory);
+                return sites;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    showLocations(directory, get());
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(frame, "Error loading locations: " + cause.getMessage(),
+                            "Load Error", JOptionPane.ERROR_MESSAGE);
+                    cause.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * One row per location from its store's running totals, then the items of the selected
+     * location only, so neither the summary nor the filter visits the other sites. Selecting
+     * an item shows its stock across every location from the rollups.
+     */
+    private void showLocations(File directory, Warehouses sites) {
+        JFrame reportFrame = new JFrame("Stock by Location - " + directory.getName());
+        reportFrame.setSize(700, 550);
+        reportFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        reportFrame.setLayout(new BorderLayout(5, 5));
+
+        DefaultTableModel summaryModel = new DefaultTableModel(
+                new String[]{"Location", "Items", "Units", "Value"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        NumberFormat numberFormat = NumberFormat.getIntegerInstance();
+        long items = 0;
+        for (String location : sites.locations()) {
+            InventoryStore site = sites.find(location);
+            items += site.size();
+            summaryModel.addRow(new Object[]{location, numberFormat.format(site.size()),
+                    numberFormat.format(site.totalUnits()), currencyFormat.format(site.totalValue())});
+        }
+        summaryModel.addRow(new Object[]{"All locations", numberFormat.format(items),
+                numberFormat.format(sites.totalUnits()), currencyFormat.format(sites.totalValueCents() / 100.0)});
+
+        InventoryTableModel itemModel = new InventoryTableModel();
+        JTable itemTable = new JTable(itemModel);
+        itemTable.setAutoCreateRowSorter(true);
+        JComboBox<String> locationBox = new JComboBox<>(sites.locations().toArray(new String[0]));
+        locationBox.addActionListener(e -> {
+            String location = (String) locationBox.getSelectedItem();
+            itemModel.setItems(location == null ? Collections.emptyList() : sites.find(location).items());
+        });
+        if (locationBox.getItemCount() > 0) {
+            locationBox.setSelectedIndex(0);
+        }
+
+        JLabel acrossLabel = new JLabel("Select an item to see its stock at every location");
+        itemTable.getSelectionModel().addListSelectionListener(e -> {
+            int row = itemTable.getSelectedRow();
+            if (e.getValueIsAdjusting() || row < 0) {
+                return;
+            }
+            String name = itemModel.getItemAt(itemTable.convertRowIndexToModel(row)).getName();
+            StringJoiner perLocation = new StringJoiner(", ", " (", ")");
+            sites.stockOf(name).forEach((location, quantity) -> perLocation.add(location + " " + numberFormat.format(quantity)));
+            acrossLabel.setText(name + ": " + numberFormat.format(sites.unitsOf(name)) + " units at "
+                    + sites.locationCount(name) + " location(s)" + perLocation);
+        });
+
+        JPanel locationPanel = new JPanel(new BorderLayout());
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("Location:"));
+        filterPanel.add(locationBox);
+        locationPanel.add(filterPanel, BorderLayout.NORTH);
+        locationPanel.add(new JScrollPane(itemTable), BorderLayout.CENTER);
+        locationPanel.add(acrossLabel, BorderLayout.SOUTH);
+
+        JScrollPane summaryPane = new JScrollPane(new JTable(summaryModel));
+        summaryPane.setPreferredSize(new Dimension(700, 150));
+        reportFrame.add(summaryPane, BorderLayout.NORTH);
+        reportFrame.add(locationPanel, BorderLayout.CENTER);
+
+        reportFrame.setLocationRelativeTo(frame);
+        reportFrame.setVisible(true);
+    }
+
+    private void unsubscribeOnClose(Window window, Consumer<List<StoreChange>> subscriber) {
+        window.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                changes.unsubscribe(subscriber);
+            }
+        });
+    }
+
+    // Operation timings, counters and gauges from store.metrics(), refreshed every second while open
+    private void showDiagnostics() {
+        JDialog dialog = new JDialog(frame, "Diagnostics", false);
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+        dialog.setSize(760, 520);
+        dialog.setLayout(new BorderLayout());
+
+        DefaultTableModel operationModel = new DefaultTableModel(
+                new String[]{"Operation", "Count", "Mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "Max ms"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        DefaultTableModel valueModel = new DefaultTableModel(new String[]{"Metric", "Value"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        InventoryMetrics metrics = store.metrics();
+        Runnable refresh = () -> {
+            operationModel.setRowCount(0);
+            for (InventoryMetrics.OperationStats s : metrics.operations()) {
+                operationModel.addRow(new Object[]{s.operation, s.count, millis(s.mean), millis(s.p50),
+                        millis(s.p90), millis(s.p99), millis(s.p999), millis(s.max)});
+            }
+            valueModel.setRowCount(0);
+            metrics.counters().forEach((name, value) -> valueModel.addRow(new Object[]{name, value}));
+            metrics.gauges().forEach((name, value) -> valueModel.addRow(new Object[]{name, value}));
+        };
+        refresh.run();
+
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT,
+                new JScrollPane(new JTable(operationModel)), new JScrollPane(new JTable(valueModel)));
+        split.setResizeWeight(0.6);
+
+        JButton copyJsonButton = new JButton("Copy as JSON");
+        copyJsonButton.addActionListener(e -> copyToClipboard(metrics.toJson()));
+        JButton copyPrometheusButton = new JButton("Copy as Prometheus");
+        copyPrometheusButton.addActionListener(e -> copyToClipboard(metrics.toPrometheus()));
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(copyJsonButton);
+        buttonPanel.add(copyPrometheusButton);
+
+        dialog.add(split, BorderLayout.CENTER);
+        dialog.add(buttonPanel, BorderLayout.SOUTH);
+
+        Timer refreshTimer = new Timer(1000, e -> refresh.run());
+        refreshTimer.start();
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                refreshTimer.stop();
+            }
+        });
+
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
+    private static String millis(double nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    private static void copyToClipboard(String text) {
+        Toolkit.getDefaultToolkit().getSystemClipboard()
+                .setContents(new StringSelection(text), null);
+    }
+
+    // Serialized form of an item in .inv files; the store itself works with InventoryItem
     static class Item implements Serializable {
         private static final long serialVersionUID = 1L;
         String name;
@@ -547,6 +1523,11 @@ public class InventoryManagementSystem {
     }
 
     public static void main(String[] args) {
+        if (GraphicsEnvironment.isHeadless() || (args.length > 0 && (args[0].equals("--headless") || args[0].equals("--serve")))) {
+            InventoryCli.main(args);
+            return;
+        }
+
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception e) {
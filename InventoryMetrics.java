@@ -0,0 +1,351 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Timings, change counters and gauges for one {@link InventoryStore}, shown in the GUI's
+ * Help &gt; Diagnostics window and dumped by the headless {@code metrics} command.
+ *
+ * <p>Store, file and report operations are timed into a {@link LatencyHistogram} each:
+ * <pre>
+ * try (InventoryMetrics.Timing timing = store.metrics().time(Operation.SEARCH)) {
+ *     ...
+ * }
+ * </pre>
+ * Each timing is also a JFR event ({@code inventory.Operation}), so a flight recording
+ * shows which operations ran when and on which thread. Quantity adjustments are too cheap
+ * to time without slowing them down; they are counted, and emit an
+ * {@code inventory.QuantityAdjusted} event only when a recording turns it on.
+ *
+ * <p>The store counts its changes here directly rather than through a {@link StoreListener}:
+ * with no other listener registered, dispatching to one would cost quantity adjustments
+ * about a tenth of their throughput. Gauges are read when a dump is taken; anything may
+ * register one, as the journal does for its size.
+ */
+public final class InventoryMetrics {
+
+    /** What is timed. The label names the operation in dumps and JFR events. */
+    public enum Operation {
+        WRITE("write"),
+        BATCH_ADD("batch_add"),
+        BULK_UPDATE("bulk_update"),
+        RENAME("rename"),
+        DELETE("delete"),
+        SEARCH("search"),
+        RANGE_QUERY("range_query"),
+        REPLACE_ALL("replace_all"),
+        SNAPSHOT("snapshot"), // the writer pause of InventoryStore.consistentSnapshot()
+        SAVE("save"),
+        LOAD("load"),
+        IMPORT_CSV("import_csv"),
+        EXPORT_CSV("export_csv"),
+        UPDATE_TABLE("update_table"),
+        VALUE_REPORT("value_report"),
+        LOW_STOCK_REPORT("low_stock_report"),
+        BREAKDOWN_REPORT("breakdown_report"),
+        DEMAND_REPORT("demand_report");
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+    }
+
+    @Name("inventory.Operation")
+    @Label("Inventory Operation")
+    @Category("Inventory")
+    @Description("A timed store, file or report operation")
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Items")
+        @Description("Items read, written or matched; -1 if the operation does not say")
+        long items;
+    }
+
+    @Name("inventory.QuantityAdjusted")
+    @Label("Quantity Adjusted")
+    @Category("Inventory")
+    @Description("One lock-free quantity adjustment; off by default because there can be millions per second")
+    @Enabled(false)
+    static final class AdjustEvent extends Event {
+        @Label("Item")
+        String item;
+
+        @Label("Delta")
+        int delta;
+
+        @Label("Quantity")
+        int quantity;
+    }
+
+    /** Times one operation, from creation to {@link #close()}. */
+    public static final class Timing implements AutoCloseable {
+        private final LatencyHistogram histogram;
+        private final Operation operation;
+        private final OperationEvent event = new OperationEvent();
+        private final long start;
+        private long items = -1;
+
+        private Timing(LatencyHistogram histogram, Operation operation) {
+            this.histogram = histogram;
+            this.operation = operation;
+            event.begin();
+            start = System.nanoTime();
+        }
+
+        /** Notes how many items the operation handled, for the JFR event. */
+        public void items(long items) {
+            this.items = items;
+        }
+
+        @Override
+        public void close() {
+            histogram.record(System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation.label;
+                event.items = items;
+                event.commit();
+            }
+        }
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+
+    private final Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+    private final LongAdder adds = new LongAdder();
+    private final LongAdder quantityUpdates = new LongAdder();
+    private final LongAdder priceUpdates = new LongAdder();
+    private final LongAdder renames = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    // Name -> help text and reader; guarded by itself, and only touched when gauges come and go or a dump is taken
+    private final Map<String, Gauge> gauges = new LinkedHashMap<>();
+
+    private static final class Gauge {
+        final String help;
+        final LongSupplier value;
+
+        Gauge(String help, LongSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    InventoryMetrics(InventoryStore store) {
+        for (Operation operation : Operation.values()) {
+            histograms.put(operation, new LatencyHistogram());
+        }
+        gauge("items", "Items in the inventory", store::size);
+        gauge("units", "Units in stock across all items", store::totalUnits);
+        gauge("value_cents", "Total inventory value in cents", store::totalValueCents);
+        gauge("heap_used_bytes", "Java heap in use, garbage included",
+                () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        gauge("heap_bytes_per_item", "Java heap in use divided by the item count; a rough upper bound",
+                () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / Math.max(1, store.size()));
+    }
+
+    public Timing time(Operation operation) {
+        return new Timing(histograms.get(operation), operation);
+    }
+
+    /** Adds or replaces a gauge, read each time a dump is taken. The name must be a plain identifier. */
+    public void gauge(String name, String help, LongSupplier value) {
+        synchronized (gauges) {
+            gauges.put(name, new Gauge(help, value));
+        }
+    }
+
+    public void removeGauge(String name) {
+        synchronized (gauges) {
+            gauges.remove(name);
+        }
+    }
+
+    // --- Change counters, fed by the store ---
+
+    void added() {
+        adds.increment();
+    }
+
+    void changed(boolean quantity, boolean price) {
+        if (quantity) {
+            quantityUpdates.increment();
+        }
+        if (price) {
+            priceUpdates.increment();
+        }
+    }
+
+    void renamed() {
+        renames.increment();
+    }
+
+    void deleted() {
+        deletes.increment();
+    }
+
+    void reset() {
+        resets.increment();
+    }
+
+    // Every counter only grows, so neither does the sum, even though it is not read atomically
+    long changes() {
+        return adds.sum() + quantityUpdates.sum() + priceUpdates.sum() + renames.sum() + deletes.sum() + resets.sum();
+    }
+
+    // --- Reading ---
+
+    /** One operation's figures, in nanoseconds. */
+    public static final class OperationStats {
+        public final String operation;
+        public final long count;
+        public final double mean;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long p999;
+        public final long max;
+        final long sum;
+
+        OperationStats(String operation, LatencyHistogram.Snapshot s) {
+            this.operation = operation;
+            this.count = s.count;
+            this.sum = s.sum;
+            this.mean = s.mean();
+            this.p50 = s.percentile(PERCENTILES[0]);
+            this.p90 = s.percentile(PERCENTILES[1]);
+            this.p99 = s.percentile(PERCENTILES[2]);
+            this.p999 = s.percentile(PERCENTILES[3]);
+            this.max = s.max;
+        }
+
+        long[] percentiles() {
+            return new long[]{p50, p90, p99, p999};
+        }
+    }
+
+    /** Timings of every operation, in {@link Operation} order. */
+    public List<OperationStats> operations() {
+        List<OperationStats> stats = new ArrayList<>();
+        for (Map.Entry<Operation, LatencyHistogram> entry : histograms.entrySet()) {
+            stats.add(new OperationStats(entry.getKey().label, entry.getValue().snapshot()));
+        }
+        return stats;
+    }
+
+    /** Change counts since the store was created, plus the number of searches. */
+    public Map<String, Long> counters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("adds", adds.sum());
+        counters.put("quantity_updates", quantityUpdates.sum());
+        counters.put("price_updates", priceUpdates.sum());
+        counters.put("renames", renames.sum());
+        counters.put("deletes", deletes.sum());
+        counters.put("resets", resets.sum());
+        counters.put("searches", histograms.get(Operation.SEARCH).snapshot().count);
+        return counters;
+    }
+
+    /** Every gauge's current value. */
+    public Map<String, Long> gauges() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        synchronized (gauges) {
+            gauges.forEach((name, gauge) -> values.put(name, gauge.value.getAsLong()));
+        }
+        return values;
+    }
+
+    /** Everything, in the Prometheus text exposition format. */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        String duration = "inventory_operation_duration_seconds";
+        out.append("# HELP ").append(duration).append(" Time taken by store, file and report operations.\n");
+        out.append("# TYPE ").append(duration).append(" summary\n");
+        List<OperationStats> operations = operations();
+        for (OperationStats s : operations) {
+            long[] values = s.percentiles();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                out.append(duration).append("{operation=\"").append(s.operation).append("\",quantile=\"")
+                        .append(QUANTILE_LABELS[i]).append("\"} ").append(seconds(values[i])).append('\n');
+            }
+            out.append(duration).append("_sum{operation=\"").append(s.operation).append("\"} ")
+                    .append(seconds(s.sum)).append('\n');
+            out.append(duration).append("_count{operation=\"").append(s.operation).append("\"} ")
+                    .append(s.count).append('\n');
+        }
+        String maximum = "inventory_operation_duration_max_seconds";
+        out.append("# HELP ").append(maximum).append(" Longest single operation so far.\n");
+        out.append("# TYPE ").append(maximum).append(" gauge\n");
+        for (OperationStats s : operations) {
+            out.append(maximum).append("{operation=\"").append(s.operation).append("\"} ")
+                    .append(seconds(s.max)).append('\n');
+        }
+
+        out.append("# HELP inventory_events_total Store changes and searches by kind.\n");
+        out.append("# TYPE inventory_events_total counter\n");
+        counters().forEach((kind, count) ->
+                out.append("inventory_events_total{kind=\"").append(kind).append("\"} ").append(count).append('\n'));
+
+        Map<String, Gauge> registered;
+        synchronized (gauges) {
+            registered = new LinkedHashMap<>(gauges);
+        }
+        registered.forEach((name, gauge) -> {
+            out.append("# HELP inventory_").append(name).append(' ').append(gauge.help).append(".\n");
+            out.append("# TYPE inventory_").append(name).append(" gauge\n");
+            out.append("inventory_").append(name).append(' ').append(gauge.value.getAsLong()).append('\n');
+        });
+        return out.toString();
+    }
+
+    /** Everything as one JSON object; durations in nanoseconds. */
+    public String toJson() {
+        StringBuilder out = new StringBuilder("{\n  \"operations\": {");
+        String separator = "\n";
+        for (OperationStats s : operations()) {
+            out.append(separator).append(String.format(Locale.ROOT,
+                    "    \"%s\": {\"count\": %d, \"meanNanos\": %.1f, \"p50Nanos\": %d, \"p90Nanos\": %d, "
+                            + "\"p99Nanos\": %d, \"p999Nanos\": %d, \"maxNanos\": %d}",
+                    s.operation, s.count, s.mean, s.p50, s.p90, s.p99, s.p999, s.max));
+            separator = ",\n";
+        }
+        out.append("\n  },\n  \"counters\": ");
+        appendJson(out, counters());
+        out.append(",\n  \"gauges\": ");
+        appendJson(out, gauges());
+        return out.append("\n}\n").toString();
+    }
+
+    // Keys are fixed identifiers, so they need no escaping
+    private static void appendJson(StringBuilder out, Map<String, Long> values) {
+        out.append('{');
+        String separator = "";
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            out.append(separator).append('"').append(entry.getKey()).append("\": ").append(entry.getValue());
+            separator = ", ";
+        }
+        out.append('}');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
@@ -0,0 +1,381 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a local {@link InventoryStore} in step with a {@link ReplicationPrimary}, so it can
+ * answer searches and reports for the primary's inventory. The store should be treated as
+ * read-only: local writes are not sent anywhere, and the next change from the primary or
+ * the next snapshot overwrites them.
+ *
+ * <p>A background thread connects to the primary, loads a snapshot unless it can resume
+ * where it left off, and then applies each batch of changes as it arrives, through the
+ * store's ordinary operations, so the store's own listeners (a journal, the table of a
+ * window showing it) see them as usual. If the connection drops it reconnects every
+ * second and catches up.
+ *
+ * <p>Lag is reported two ways: {@link #lagRecords()} counts changes the primary has
+ * announced that are not applied here yet, and {@link #lagMillis()} is how far behind the
+ * primary's clock this copy is known to be current. While connected and caught up the
+ * latter stays under about 50 ms, the primary's heartbeat interval. It compares clocks
+ * across processes, so it assumes both run on the same host or have synchronized clocks.
+ */
+public final class InventoryReplica implements Closeable {
+    private static final long RETRY_MILLIS = 1000;
+    private static final String LAG_RECORDS_GAUGE = "replication_lag_records";
+    private static final String LAG_MILLIS_GAUGE = "replication_lag_ms";
+
+    private final InventoryStore store;
+    private final InetSocketAddress primary;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile SocketChannel channel;
+
+    // Applier thread only: the primary's item ids, and the names they go by here
+    private final Map<Long, String> names = new HashMap<>();
+    private final Map<String, Long> ids = new HashMap<>();
+    private ByteBuffer frame = ReplicationPrimary.newBuffer(64 * 1024);
+    private List<InventoryItem> loading;  // snapshot being received
+    private long[] loadingIds;
+    private long loadingEpoch;
+    private long loadingSeq;
+    private long loadingMillis;
+
+    private volatile boolean connected;
+    private volatile long epoch;          // the primary run the applied records come from
+    private volatile long appliedSeq;
+    private volatile long primarySeq;     // the latest record the primary has announced
+    private volatile long currentAsOf;    // primary clock time this copy was known to be current at
+    private volatile int snapshotRemaining;
+    private volatile String lastError;
+    private final Object progress = new Object();
+
+    private InventoryReplica(InventoryStore store, InetSocketAddress primary) {
+        this.store = store;
+        this.primary = primary;
+        this.thread = new Thread(this::run, "inventory-replica");
+        thread.setDaemon(true);
+    }
+
+    /** Starts following the primary at {@code primary} into {@code store}, replacing its contents. */
+    public static InventoryReplica start(InventoryStore store, InetSocketAddress primary) {
+        InventoryReplica replica = new InventoryReplica(store, primary);
+        store.metrics().gauge(LAG_RECORDS_GAUGE, "Changes from the primary not applied yet", replica::lagRecords);
+        store.metrics().gauge(LAG_MILLIS_GAUGE, "How long ago this replica was known to be current", replica::lagMillis);
+        replica.thread.start();
+        return replica;
+    }
+
+    public InetSocketAddress getPrimary() {
+        return primary;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /** Changes applied from the current primary run; see {@link ReplicationPrimary#sequence()}. */
+    public long appliedSequence() {
+        return appliedSeq;
+    }
+
+    /** Changes announced by the primary and not applied yet; while a snapshot loads, the items still to come. */
+    public long lagRecords() {
+        int remaining = snapshotRemaining;
+        return remaining > 0 ? remaining : Math.max(0, primarySeq - appliedSeq);
+    }
+
+    /**
+     * Milliseconds since the primary's state was last known to be fully applied here; until
+     * the first snapshot has loaded, since this replica started.
+     */
+    public long lagMillis() {
+        return Math.max(0, System.currentTimeMillis() - currentAsOf);
+    }
+
+    /** Why the last connection attempt or connection failed, or null. */
+    public String lastError() {
+        return lastError;
+    }
+
+    /**
+     * Waits until the changes numbered up to {@code seq} of primary run {@code epoch} are
+     * applied, e.g. {@code awaitSequence(primary.epoch(), primary.sequence(), 5000)}.
+     *
+     * @return false if that took longer than {@code timeoutMillis}
+     */
+    public boolean awaitSequence(long epoch, long seq, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (progress) {
+            while (this.epoch != epoch || appliedSeq < seq) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                progress.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    private void run() {
+        currentAsOf = System.currentTimeMillis();
+        while (running) {
+            try (SocketChannel opened = SocketChannel.open()) {
+                channel = opened;
+                if (!running) {
+                    break;
+                }
+                opened.connect(primary);
+                opened.socket().setTcpNoDelay(true);
+                send(opened, ReplicationPrimary.HELLO, epoch, appliedSeq);
+                connected = true;
+                lastError = null;
+                for (;;) {
+                    receive(opened);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (e instanceof RuntimeException) {
+                    epoch = 0; // a garbled frame; start again from a snapshot
+                }
+                if (running) {
+                    lastError = e.getMessage() != null ? e.getMessage() : e.toString();
+                }
+            } finally {
+                connected = false;
+                channel = null;
+                loading = null;
+                loadingIds = null;
+                snapshotRemaining = 0;
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                break; // close()
+            }
+        }
+    }
+
+    private void receive(SocketChannel channel) throws IOException {
+        frame.clear().limit(4);
+        readFully(channel, frame);
+        int length = frame.getInt(0);
+        if (length < 1 || length > ReplicationPrimary.MAX_FRAME_BYTES) {
+            throw new IOException("Bad frame from the primary");
+        }
+        if (frame.capacity() < length) {
+            frame = ReplicationPrimary.newBuffer(Math.max(length, frame.capacity() * 2));
+        }
+        frame.clear().limit(length);
+        readFully(channel, frame);
+        frame.flip();
+
+        byte type = frame.get();
+        switch (type) {
+            case ReplicationPrimary.SNAPSHOT:
+                loadingEpoch = frame.getLong();
+                loadingSeq = frame.getLong();
+                loadingMillis = frame.getLong();
+                int count = frame.getInt();
+                loading = new ArrayList<>(count);
+                loadingIds = new long[count];
+                snapshotRemaining = count;
+                primarySeq = loadingSeq;
+                if (count == 0) {
+                    loaded();
+                }
+                break;
+            case ReplicationPrimary.ITEMS:
+                if (loading == null) {
+                    throw new IOException("Snapshot items without a snapshot");
+                }
+                for (int n = frame.getInt(); n > 0; n--) {
+                    long id = frame.getLong();
+                    int quantity = frame.getInt();
+                    long priceCents = frame.getLong();
+                    loadingIds[loading.size()] = id;
+                    loading.add(new InventoryItem(id, readName(frame), InventoryItem.pack(quantity, priceCents)));
+                }
+                snapshotRemaining = loadingIds.length - loading.size();
+                if (snapshotRemaining == 0) {
+                    loaded();
+                }
+                break;
+            case ReplicationPrimary.RESUME:
+                if (frame.getLong() != epoch || frame.getLong() != appliedSeq) {
+                    throw new IOException("The primary resumed from the wrong place");
+                }
+                break;
+            case ReplicationPrimary.BATCH: {
+                long first = frame.getLong();
+                int n = frame.getInt();
+                long sealedMillis = frame.getLong();
+                long last = first + n - 1;
+                if (last > appliedSeq) {
+                    applyAll(frame, n);
+                }
+                advance(last, sealedMillis);
+                send(channel, ReplicationPrimary.ACK, last);
+                break;
+            }
+            case ReplicationPrimary.HEARTBEAT: {
+                long seq = frame.getLong();
+                long millis = frame.getLong();
+                primarySeq = Math.max(primarySeq, seq);
+                if (appliedSeq >= seq) {
+                    currentAsOf = Math.max(currentAsOf, millis);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown frame type " + type + " from the primary");
+        }
+    }
+
+    private void loaded() {
+        names.clear();
+        ids.clear();
+        for (int i = 0; i < loadingIds.length; i++) {
+            String name = loading.get(i).getName();
+            names.put(loadingIds[i], name);
+            ids.put(name, loadingIds[i]);
+        }
+        store.replaceAll(loading);
+        loading = null;
+        loadingIds = null;
+        snapshotRemaining = 0;
+        synchronized (progress) {
+            epoch = loadingEpoch;
+            appliedSeq = loadingSeq;
+            primarySeq = loadingSeq;
+            currentAsOf = loadingMillis;
+            progress.notifyAll();
+        }
+    }
+
+    private void advance(long seq, long currentMillis) {
+        synchronized (progress) {
+            appliedSeq = Math.max(appliedSeq, seq);
+            primarySeq = Math.max(primarySeq, appliedSeq);
+            currentAsOf = Math.max(currentAsOf, currentMillis);
+            progress.notifyAll();
+        }
+    }
+
+    // A batch replayed after a snapshot may start with records the snapshot already holds;
+    // each record sets a whole state, so applying them again changes nothing for long
+    private void applyAll(ByteBuffer records, int count) throws IOException {
+        try {
+            for (int i = 0; i < count; i++) {
+                apply(records);
+            }
+        } catch (RuntimeException e) {
+            epoch = 0; // start again from a snapshot
+            throw new IOException("Could not apply a change from the primary: " + e.getMessage(), e);
+        }
+    }
+
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        long id = record.getLong();
+        switch (type) {
+            case ReplicationPrimary.CREATE: {
+                int quantity = record.getInt();
+                long priceCents = record.getLong();
+                put(id, readName(record), quantity, priceCents);
+                break;
+            }
+            case ReplicationPrimary.STATE: {
+                int quantity = record.getInt();
+                long priceCents = record.getLong();
+                String name = names.get(id);
+                if (name != null) {
+                    store.upsert(name, quantity, priceCents / 100.0);
+                }
+                break;
+            }
+            case ReplicationPrimary.RENAME: {
+                long toId = record.getLong();
+                int quantity = record.getInt();
+                long priceCents = record.getLong();
+                String newName = readName(record);
+                String oldName = names.remove(id);
+                if (oldName != null && ids.remove(oldName, id) && store.contains(oldName)) {
+                    store.rename(oldName, newName);
+                }
+                put(toId, newName, quantity, priceCents);
+                break;
+            }
+            case ReplicationPrimary.DELETE: {
+                String name = names.remove(id);
+                if (name != null && ids.remove(name, id)) {
+                    store.delete(name);
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown change type " + type);
+        }
+    }
+
+    private void put(long id, String name, int quantity, long priceCents) {
+        Long previous = ids.put(name, id);
+        if (previous != null && previous != id) {
+            names.remove(previous);
+        }
+        names.put(id, name);
+        store.upsert(name, quantity, priceCents / 100.0);
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        byte[] name = new byte[buffer.getInt()];
+        buffer.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static void send(SocketChannel channel, byte type, long... values) throws IOException {
+        ByteBuffer out = ReplicationPrimary.newBuffer(4 + 1 + 8 * values.length);
+        out.putInt(1 + 8 * values.length).put(type);
+        for (long value : values) {
+            out.putLong(value);
+        }
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("The primary closed the connection");
+            }
+        }
+    }
+
+    /** Stops following the primary; the store keeps what it has. */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        store.metrics().removeGauge(LAG_RECORDS_GAUGE);
+        store.metrics().removeGauge(LAG_MILLIS_GAUGE);
+        SocketChannel open = channel;
+        if (open != null) {
+            open.close(); // unblocks the read
+        }
+        thread.interrupt();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
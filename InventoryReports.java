@@ -0,0 +1,136 @@
+import java.text.NumberFormat;
+
+/**
+ * Grouped reports over the whole inventory, computed in one parallel pass over
+ * {@link InventoryStore#stream()}: items, units and value by unit-price band, and items and
+ * units by quantity bucket. Each item is read once, atomically, so its quantity and price
+ * always agree, but the pass is not a snapshot: changes made while it runs may or may not
+ * be counted.
+ *
+ * <p>The result is plain numbers. Formatting is left to the caller, on the caller's thread,
+ * since {@link NumberFormat} is not thread-safe.
+ */
+public final class InventoryReports {
+    /** Exclusive upper bounds of the price bands, in cents; the last band is open-ended. */
+    static final long[] PRICE_BANDS_CENTS = {100, 1_000, 10_000, 100_000};
+    /** Exclusive upper bounds of the quantity buckets; the last bucket is open-ended. */
+    static final int[] QUANTITY_BUCKETS = {1, 10, 100, 1_000, 10_000};
+
+    private InventoryReports() {
+    }
+
+    /** What one pass found. Arrays are indexed by band or bucket, lowest first. */
+    public static final class Breakdown {
+        public final long items;
+        public final long units;
+        public final long valueCents;
+        public final long[] bandItems;
+        public final long[] bandUnits;
+        public final long[] bandValueCents;
+        public final long[] bucketItems;
+        public final long[] bucketUnits;
+
+        private Breakdown(Tally tally) {
+            long items = 0;
+            long units = 0;
+            long value = 0;
+            for (int band = 0; band < tally.bandItems.length; band++) {
+                items += tally.bandItems[band];
+                units += tally.bandUnits[band];
+                value += tally.bandValueCents[band];
+            }
+            this.items = items;
+            this.units = units;
+            this.valueCents = value;
+            this.bandItems = tally.bandItems;
+            this.bandUnits = tally.bandUnits;
+            this.bandValueCents = tally.bandValueCents;
+            this.bucketItems = tally.bucketItems;
+            this.bucketUnits = tally.bucketUnits;
+        }
+    }
+
+    // One worker's share of the pass; merged pairwise as the parallel stream joins
+    private static final class Tally {
+        final long[] bandItems = new long[PRICE_BANDS_CENTS.length + 1];
+        final long[] bandUnits = new long[PRICE_BANDS_CENTS.length + 1];
+        final long[] bandValueCents = new long[PRICE_BANDS_CENTS.length + 1];
+        final long[] bucketItems = new long[QUANTITY_BUCKETS.length + 1];
+        final long[] bucketUnits = new long[QUANTITY_BUCKETS.length + 1];
+
+        void add(InventoryItem item) {
+            long state = item.liveState();
+            if (state == InventoryItem.RETIRED) {
+                return; // removed while the pass was under way
+            }
+            int quantity = InventoryItem.quantityOf(state);
+            int band = priceBand(InventoryItem.priceCentsOf(state));
+            bandItems[band]++;
+            bandUnits[band] += quantity;
+            bandValueCents[band] += InventoryItem.valueCentsOf(state);
+            int bucket = quantityBucket(quantity);
+            bucketItems[bucket]++;
+            bucketUnits[bucket] += quantity;
+        }
+
+        void merge(Tally other) {
+            for (int band = 0; band < bandItems.length; band++) {
+                bandItems[band] += other.bandItems[band];
+                bandUnits[band] += other.bandUnits[band];
+                bandValueCents[band] += other.bandValueCents[band];
+            }
+            for (int bucket = 0; bucket < bucketItems.length; bucket++) {
+                bucketItems[bucket] += other.bucketItems[bucket];
+                bucketUnits[bucket] += other.bucketUnits[bucket];
+            }
+        }
+    }
+
+    /** Both groupings in one parallel pass over the store. */
+    public static Breakdown breakdown(InventoryStore store) {
+        try (InventoryMetrics.Timing timing = store.metrics().time(InventoryMetrics.Operation.BREAKDOWN_REPORT)) {
+            Tally tally = store.stream().parallel().collect(Tally::new, Tally::add, Tally::merge);
+            Breakdown breakdown = new Breakdown(tally);
+            timing.items(breakdown.items);
+            return breakdown;
+        }
+    }
+
+    static int priceBand(long priceCents) {
+        int band = 0;
+        while (band < PRICE_BANDS_CENTS.length && priceCents >= PRICE_BANDS_CENTS[band]) {
+            band++;
+        }
+        return band;
+    }
+
+    static int quantityBucket(int quantity) {
+        int bucket = 0;
+        while (bucket < QUANTITY_BUCKETS.length && quantity >= QUANTITY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /** E.g. "Under $1.00", "$1.00 to $10.00", "$1,000.00 and up"; each band excludes its upper bound. */
+    public static String priceBandLabel(int band, NumberFormat currency) {
+        if (band == 0) {
+            return "Under " + currency.format(PRICE_BANDS_CENTS[0] / 100.0);
+        }
+        String from = currency.format(PRICE_BANDS_CENTS[band - 1] / 100.0);
+        if (band == PRICE_BANDS_CENTS.length) {
+            return from + " and up";
+        }
+        return from + " to " + currency.format(PRICE_BANDS_CENTS[band] / 100.0);
+    }
+
+    /** E.g. "0", "1-9", "10,000+". */
+    public static String quantityBucketLabel(int bucket, NumberFormat number) {
+        long from = bucket == 0 ? 0 : QUANTITY_BUCKETS[bucket - 1];
+        if (bucket == QUANTITY_BUCKETS.length) {
+            return number.format(from) + "+";
+        }
+        long to = QUANTITY_BUCKETS[bucket] - 1;
+        return from == to ? number.format(from) : number.format(from) + "-" + number.format(to);
+    }
+}
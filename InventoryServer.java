@@ -0,0 +1,510 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * HTTP/JSON front end for {@link InventoryStore}, so warehouse scanners and the order
+ * system can query and move stock at the same time as each other and the desktop.
+ *
+ * <pre>
+ * GET  /items/{name}                      one item                                  (ETag)
+ * GET  /items?search=term[&amp;limit=n]       items whose name contains term            (ETag)
+ * POST /items                             upsert [{"name", "quantity", "price"}, ...]
+ * POST /adjust                            {"name", "delta"}, or an array of them
+ * GET  /low-stock?threshold=n[&amp;limit=n]   items below threshold, lowest first       (ETag)
+ * GET  /value                             item count, units and total value         (ETag)
+ * POST /batch                             [{"op": "get", "name": ...}, ...]; see below
+ * </pre>
+ *
+ * Items are written as {@code {"name", "quantity", "price", "totalValue"}}. A failed request
+ * gets {@code {"error": message}} with 400 (bad request), 403 (a write to a read-only
+ * replica), 404 (no such item), 405 (wrong method) or 413 (body too large).
+ *
+ * <p>{@code /batch} takes many operations in one round trip. Each entry names an
+ * {@code op} ({@code get}, {@code search}, {@code adjust}, {@code upsert},
+ * {@code low-stock} or {@code value}) plus that operation's fields or query parameters,
+ * e.g. {@code {"op": "search", "search": "bolt", "limit": 20}} or
+ * {@code {"op": "upsert", "items": [...]}}, and gets back {@code {"status", "body"}} in
+ * the same position. Entries run in order and independently: one failing does not stop
+ * the rest.
+ *
+ * <p>Reads carry an ETag. An item's tag changes whenever the item does; the others follow
+ * {@link InventoryStore#version()}. A GET whose If-None-Match matches gets an empty 304, so
+ * read-heavy clients that poll only pay for what changed.
+ *
+ * <p>Each request runs on its own virtual thread where the JDK has them (21 and later). On
+ * older JDKs a fixed pool stands in; handlers wait on nothing but the store's stripe locks,
+ * so a few threads per core keep up.
+ */
+public final class InventoryServer {
+    private static final int MAX_BODY_BYTES = 16 << 20;
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int MAX_LIMIT = 100_000;
+
+    static {
+        // The built-in server writes headers and body separately, so without TCP_NODELAY a
+        // small response can sit out the client's delayed ACK: about 40 ms per request
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /** A response before it is written: status, JSON body (null for none) and ETag (null for none). */
+    static final class Response {
+        final int status;
+        final String body;
+        final String etag;
+
+        Response(int status, String body, String etag) {
+            this.status = status;
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+
+    // Thrown by handlers to answer with an error status
+    private static final class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final InventoryStore store;
+    private final boolean readOnly;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /** Binds {@code address} (port 0 picks a free one); call {@link #start()} to begin serving. */
+    public InventoryServer(InventoryStore store, InetSocketAddress address) throws IOException {
+        this(store, address, false);
+    }
+
+    /** As above; if {@code readOnly}, as on an {@link InventoryReplica}, upserts and adjustments get 403. */
+    public InventoryServer(InventoryStore store, InetSocketAddress address, boolean readOnly) throws IOException {
+        this.store = store;
+        this.readOnly = readOnly;
+        this.server = HttpServer.create(address, 1024);
+        this.executor = requestExecutor();
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    // A virtual thread per request where the JDK offers it; looked up reflectively so the
+    // code still builds and runs on JDK 17
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            int threads = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "inventory-http-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /** Stops accepting requests, gives those in progress up to {@code delaySeconds} to finish, then stops. */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    // --- Dispatch ---
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Response response;
+        try {
+            response = route(exchange);
+        } catch (HttpError e) {
+            response = error(e.status, e.getMessage());
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            response = error(400, e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            response = error(500, "Internal error: " + e);
+        }
+        send(exchange, response);
+    }
+
+    private Response route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath(); // percent-escapes already decoded
+        Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+
+        if (path.startsWith("/items/") && path.length() > "/items/".length()) {
+            requireMethod(method, "GET");
+            return conditional(getItem(path.substring("/items/".length())), ifNoneMatch);
+        }
+        switch (path) {
+            case "/items":
+                if (method.equals("POST")) {
+                    return upsert(readBody(exchange));
+                }
+                requireMethod(method, "GET");
+                return conditionalOnVersion(ifNoneMatch, () -> search(query));
+            case "/adjust":
+                requireMethod(method, "POST");
+                return adjust(readBody(exchange));
+            case "/low-stock":
+                requireMethod(method, "GET");
+                return conditionalOnVersion(ifNoneMatch, () -> lowStock(query));
+            case "/value":
+                requireMethod(method, "GET");
+                return conditionalOnVersion(ifNoneMatch, this::value);
+            case "/batch":
+                requireMethod(method, "POST");
+                return batch(readBody(exchange));
+            default:
+                throw new HttpError(404, "No such resource: " + path);
+        }
+    }
+
+    private void requireWritable() {
+        if (readOnly) {
+            throw new HttpError(403, "This server is a read-only replica; send changes to the primary");
+        }
+    }
+
+    private static void requireMethod(String method, String expected) {
+        if (!method.equals(expected)) {
+            throw new HttpError(405, method + " is not supported here; use " + expected);
+        }
+    }
+
+    // --- Operations; each returns the response body ---
+
+    private Response getItem(String name) {
+        InventoryItem item = store.get(name);
+        if (item == null) {
+            throw new HttpError(404, "No such item: " + name);
+        }
+        // One read, so the tag and the body describe the same state
+        long state = item.state();
+        String etag = "\"" + Long.toHexString(item.id) + "-" + Long.toHexString(state) + "\"";
+        return new Response(200, item(new StringBuilder(), item.getName(), state).toString(), etag);
+    }
+
+    private String search(Map<String, String> query) {
+        String term = query.get("search");
+        if (term == null) {
+            throw new IllegalArgumentException("Missing search parameter");
+        }
+        return items(store.search(term).iterator(), limit(query));
+    }
+
+    private String lowStock(Map<String, String> query) {
+        return items(store.iterateLowStock(intParameter(query, "threshold", 10)), limit(query));
+    }
+
+    private String value() {
+        StringBuilder out = new StringBuilder();
+        out.append("{\"items\": ").append(store.size());
+        out.append(", \"units\": ").append(store.totalUnits());
+        out.append(", \"totalValue\": ");
+        return Json.cents(out, store.totalValueCents()).append('}').toString();
+    }
+
+    private Response upsert(Object body) {
+        requireWritable();
+        if (!(body instanceof List)) {
+            throw new IllegalArgumentException("Expected an array of items");
+        }
+        List<?> rows = (List<?>) body;
+        // Check every row before applying any, so a bad row leaves the store untouched
+        String[] names = new String[rows.size()];
+        int[] quantities = new int[rows.size()];
+        double[] prices = new double[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            Map<?, ?> row = object(rows.get(i), "item " + i);
+            names[i] = stringField(row, "name");
+            quantities[i] = intField(row, "quantity");
+            prices[i] = doubleField(row, "price");
+            try {
+                InventoryStore.validate(names[i], quantities[i], prices[i]);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Item " + i + ": " + e.getMessage());
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            store.upsert(names[i], quantities[i], prices[i]);
+        }
+        return ok("{\"upserted\": " + names.length + "}");
+    }
+
+    private Response adjust(Object body) {
+        if (!(body instanceof List)) {
+            return ok(adjustOne(object(body, "request")));
+        }
+        // Independent moves: each one's result or error comes back in its position
+        StringBuilder out = new StringBuilder("[");
+        List<?> moves = (List<?>) body;
+        for (int i = 0; i < moves.size(); i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            try {
+                out.append(adjustOne(object(moves.get(i), "move " + i)));
+            } catch (IllegalArgumentException | ArithmeticException | HttpError e) {
+                Json.quote(out.append("{\"error\": "), String.valueOf(e.getMessage())).append('}');
+            }
+        }
+        return ok(out.append(']').toString());
+    }
+
+    private String adjustOne(Map<?, ?> move) {
+        requireWritable();
+        String name = stringField(move, "name");
+        int delta = intField(move, "delta");
+        if (!store.contains(name)) {
+            throw new HttpError(404, "No such item: " + name);
+        }
+        int quantity = store.adjustQuantity(name, delta);
+        StringBuilder out = new StringBuilder("{\"name\": ");
+        Json.quote(out, name).append(", \"quantity\": ").append(quantity).append('}');
+        return out.toString();
+    }
+
+    private Response batch(Object body) {
+        if (!(body instanceof List)) {
+            throw new IllegalArgumentException("Expected an array of operations");
+        }
+        List<?> operations = (List<?>) body;
+        StringBuilder out = new StringBuilder("[");
+        for (int i = 0; i < operations.size(); i++) {
+            if (i > 0) {
+                out.append(",\n");
+            }
+            Response result;
+            try {
+                result = batchOne(object(operations.get(i), "operation " + i));
+            } catch (HttpError e) {
+                result = error(e.status, e.getMessage());
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                result = error(400, e.getMessage());
+            }
+            out.append("{\"status\": ").append(result.status).append(", \"body\": ").append(result.body).append('}');
+        }
+        return ok(out.append(']').toString());
+    }
+
+    private Response batchOne(Map<?, ?> operation) {
+        String op = stringField(operation, "op");
+        Map<String, String> parameters = new HashMap<>();
+        operation.forEach((key, value) -> parameters.put(String.valueOf(key), String.valueOf(value)));
+        switch (op) {
+            case "get":
+                return getItem(stringField(operation, "name"));
+            case "search":
+                return ok(search(parameters));
+            case "adjust":
+                return ok(adjustOne(operation));
+            case "upsert":
+                return upsert(operation.get("items"));
+            case "low-stock":
+                return ok(lowStock(parameters));
+            case "value":
+                return ok(value());
+            default:
+                throw new IllegalArgumentException("Unknown op '" + op + "'");
+        }
+    }
+
+    // --- Conditional GETs ---
+
+    // The version is read before the body, so the body is at least as new as its tag
+    private Response conditionalOnVersion(String ifNoneMatch, Supplier<String> body) {
+        String etag = "\"v" + Long.toHexString(store.version()) + "\"";
+        if (matches(ifNoneMatch, etag)) {
+            return new Response(304, null, etag);
+        }
+        return new Response(200, body.get(), etag);
+    }
+
+    private static Response conditional(Response response, String ifNoneMatch) {
+        if (response.status == 200 && matches(ifNoneMatch, response.etag)) {
+            return new Response(304, null, response.etag);
+        }
+        return response;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // --- JSON helpers ---
+
+    private static StringBuilder item(StringBuilder out, String name, long state) {
+        int quantity = InventoryItem.quantityOf(state);
+        long cents = InventoryItem.priceCentsOf(state);
+        Json.quote(out.append("{\"name\": "), name);
+        out.append(", \"quantity\": ").append(quantity).append(", \"price\": ");
+        Json.cents(out, cents).append(", \"totalValue\": ");
+        return Json.cents(out, InventoryItem.valueCentsOf(state)).append('}');
+    }
+
+    private static String items(Iterator<InventoryItem> items, int limit) {
+        StringBuilder out = new StringBuilder("[");
+        for (int count = 0; count < limit && items.hasNext(); count++) {
+            InventoryItem item = items.next();
+            if (count > 0) {
+                out.append(",\n");
+            }
+            item(out, item.getName(), item.state());
+        }
+        return out.append(']').toString();
+    }
+
+    private static Map<?, ?> object(Object value, String what) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected " + what + " to be an object");
+        }
+        return (Map<?, ?>) value;
+    }
+
+    private static String stringField(Map<?, ?> object, String field) {
+        Object value = object.get(field);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("Field '" + field + "' must be a string");
+        }
+        return (String) value;
+    }
+
+    private static int intField(Map<?, ?> object, String field) {
+        Object value = object.get(field);
+        if (!(value instanceof Long) || (Long) value != ((Long) value).intValue()) {
+            throw new IllegalArgumentException("Field '" + field + "' must be a whole number");
+        }
+        return ((Long) value).intValue();
+    }
+
+    private static double doubleField(Map<?, ?> object, String field) {
+        Object value = object.get(field);
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Field '" + field + "' must be a number");
+        }
+        return ((Number) value).doubleValue();
+    }
+
+    private static int limit(Map<String, String> query) {
+        int limit = intParameter(query, "limit", DEFAULT_LIMIT);
+        if (limit < 0 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be from 0 to " + MAX_LIMIT);
+        }
+        return limit;
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int defaultValue) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter '" + name + "' must be a whole number");
+        }
+    }
+
+    // --- Wire ---
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            parameters.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static Object readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (bytes.size() + read > MAX_BODY_BYTES) {
+                    throw new HttpError(413, "Request body over " + MAX_BODY_BYTES + " bytes");
+                }
+                bytes.write(buffer, 0, read);
+            }
+        }
+        return Json.parse(bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    private static Response ok(String body) {
+        return new Response(200, body, null);
+    }
+
+    private static Response error(int status, String message) {
+        StringBuilder out = new StringBuilder("{\"error\": ");
+        return new Response(status, Json.quote(out, String.valueOf(message)).append('}').toString(), null);
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        try {
+            if (response.etag != null) {
+                exchange.getResponseHeaders().set("ETag", response.etag);
+            }
+            if (response.body == null) {
+                exchange.sendResponseHeaders(response.status, -1);
+                return;
+            }
+            byte[] bytes = (response.body + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(response.status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,813 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Headless inventory engine. Holds all items and enforces the validation rules that used
+ * to live in the Swing frame, so the same logic serves the GUI, batch imports and tests.
+ * All operations are thread-safe.
+ *
+ * <p>Items live in a {@link ConcurrentHashMap}. Quantity adjustments are lock-free CAS
+ * updates on the item itself, so receivers on many threads scale with cores. Operations
+ * that create, remove or re-key an item, or change its price, take one of a fixed set of
+ * striped locks chosen by name hash; writers to different names rarely share a stripe.
+ *
+ * <p>Names are also kept in a {@link NameIndex}, so substring search does not have to
+ * scan the whole catalog, and filed by quantity, price and value in a {@link StockIndex},
+ * so range reports only visit the items in range.
+ *
+ * <p>{@link #consistentSnapshot()} briefly holds off every writer, lock-free ones included,
+ * to copy the inventory as of one instant.
+ *
+ * <p>The total inventory value and unit count are kept as running sums in whole cents and
+ * updated by every change, so reading them is O(1) and they never drift.
+ *
+ * <p>Every change is reported to the registered {@link StoreListener}s, and operations are
+ * timed and counted in the store's {@link #metrics()}.
+ */
+public class InventoryStore {
+    private static final int STRIPES = 64; // power of two
+    private static final int COUNTER_SPACING = 16; // ints between stripe counters, so they never share a cache line
+    private static final int PARALLEL_BATCH = 4096;
+    // Set on a pool thread while it applies part of a batch: the thread that called the batch
+    private static final ThreadLocal<Thread> BATCH_CALLER = new ThreadLocal<>();
+
+    /**
+     * The item map together with the running totals that describe it. Replacing the whole
+     * inventory swaps in a new table, so a late update to an item of the old one can only
+     * touch the old totals.
+     */
+    private static final class Table {
+        final ConcurrentHashMap<String, InventoryItem> items;
+        // Replaced wholesale when it fills up with removed names; see reindexIfStale()
+        volatile NameIndex names;
+        final LongAdder valueCents = new LongAdder();
+        final LongAdder units = new LongAdder();
+        final StockIndex stock = new StockIndex();
+
+        Table(int capacity) {
+            items = new ConcurrentHashMap<>(Math.max(16, capacity * 4 / 3 + 1));
+            names = new NameIndex(capacity);
+        }
+
+        void added(long state) {
+            valueCents.add(InventoryItem.valueCentsOf(state));
+            units.add(InventoryItem.quantityOf(state));
+        }
+
+        void removed(long state) {
+            valueCents.add(-InventoryItem.valueCentsOf(state));
+            units.add(-InventoryItem.quantityOf(state));
+        }
+
+        void changed(long oldState, long newState) {
+            long value = InventoryItem.valueCentsOf(newState) - InventoryItem.valueCentsOf(oldState);
+            if (value != 0) {
+                valueCents.add(value);
+            }
+            int quantity = InventoryItem.quantityOf(newState) - InventoryItem.quantityOf(oldState);
+            if (quantity != 0) {
+                units.add(quantity);
+            }
+        }
+    }
+
+    private volatile Table table = new Table(0);
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final List<StoreListener> listeners = new CopyOnWriteArrayList<>();
+    // Lock-free adjustments in progress, one counter per stripe
+    private final AtomicIntegerArray adjusting = new AtomicIntegerArray(STRIPES * COUNTER_SPACING);
+    private volatile boolean frozen; // set by consistentSnapshot() while it holds every stripe
+    private final InventoryMetrics metrics = new InventoryMetrics(this);
+
+    public InventoryStore() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public InventoryMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * A number that grows with every change, for cheap "has anything changed?" checks such
+     * as HTTP ETags. A change is counted only once it is visible, so anything read after
+     * this returned {@code v} is at least as new as {@code v}; equal versions mean nothing
+     * changed in between.
+     */
+    public long version() {
+        return metrics.changes();
+    }
+
+    /** Throws {@link IllegalArgumentException} with a user-facing message if the values are invalid. */
+    public static void validate(String name, int quantity, double price) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Item name cannot be empty");
+        }
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Quantity cannot be negative");
+        }
+        if (Double.isNaN(price) || Double.isInfinite(price)) {
+            throw new IllegalArgumentException("Price is not a number");
+        }
+        if (price < 0) {
+            throw new IllegalArgumentException("Price cannot be negative");
+        }
+        if (price > InventoryItem.MAX_PRICE_CENTS / 100.0 || InventoryItem.toCents(price) > InventoryItem.MAX_PRICE_CENTS) {
+            throw new IllegalArgumentException("Price is too large");
+        }
+    }
+
+    private static int stripeIndex(String name) {
+        int h = name.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    private ReentrantLock stripe(String name) {
+        return stripes[stripeIndex(name)];
+    }
+
+    public void addListener(StoreListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(StoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Caller holds the name's stripe lock
+    private InventoryItem create(Table t, String name, int quantity, double price) {
+        InventoryItem item = new InventoryItem(nextId.getAndIncrement(), name, quantity, price);
+        // Notify before publishing: once the item is in the map a lock-free adjustment can
+        // report a change to it, and that must never reach a listener ahead of the creation
+        for (StoreListener listener : listeners) {
+            listener.itemCreated(item, quantity, item.getPrice());
+        }
+        t.items.put(name, item);
+        t.names.add(name);
+        t.added(item.state());
+        t.stock.changed(item);
+        metrics.added();
+        return item;
+    }
+
+    // 'overwrite' when the quantity was set outright rather than moved by a delta
+    private void changed(Table t, InventoryItem item, long oldState, long newState, boolean overwrite) {
+        t.changed(oldState, newState);
+        t.stock.changed(item);
+        int oldQuantity = InventoryItem.quantityOf(oldState);
+        int newQuantity = InventoryItem.quantityOf(newState);
+        long oldPrice = InventoryItem.priceCentsOf(oldState);
+        long newPrice = InventoryItem.priceCentsOf(newState);
+        metrics.changed(oldQuantity != newQuantity, oldPrice != newPrice);
+        for (StoreListener listener : listeners) {
+            if (oldQuantity != newQuantity && overwrite) {
+                listener.quantitySet(item, oldQuantity, newQuantity);
+            } else if (oldQuantity != newQuantity) {
+                listener.quantityChanged(item, oldQuantity, newQuantity);
+            }
+            if (oldPrice != newPrice) {
+                listener.priceChanged(item, oldPrice / 100.0, newPrice / 100.0);
+            }
+        }
+    }
+
+    // Caller holds the item's stripe lock
+    private void retired(Table t, InventoryItem item) {
+        long last = item.retire();
+        t.removed(last);
+        t.stock.changed(item);
+        for (StoreListener listener : listeners) {
+            listener.itemDeleted(item, InventoryItem.quantityOf(last));
+        }
+        metrics.deleted();
+    }
+
+    /** Creates the item or overwrites its quantity and price. */
+    public InventoryItem upsert(String name, int quantity, double price) {
+        return write(name, false, false, quantity, price);
+    }
+
+    /**
+     * Receives stock: creates the item, or adds {@code quantity} to the existing stock and
+     * takes the new price.
+     */
+    public InventoryItem addStock(String name, int quantity, double price) {
+        return write(name, true, false, quantity, price);
+    }
+
+    /**
+     * Receives stock at the item's current price: adds {@code quantity} to the existing
+     * stock, or creates the item at {@code priceIfNew} if there is none.
+     */
+    public InventoryItem addStockKeepingPrice(String name, int quantity, double priceIfNew) {
+        return write(name, true, true, quantity, priceIfNew);
+    }
+
+    private InventoryItem write(String name, boolean add, boolean keepPrice, int quantity, double price) {
+        validate(name, quantity, price);
+        ReentrantLock lock = stripe(name);
+        try (InventoryMetrics.Timing timing = metrics.time(InventoryMetrics.Operation.WRITE)) {
+            timing.items(1);
+            lock.lock();
+            try {
+                Table t = table;
+                InventoryItem item = t.items.get(name);
+                if (item == null) {
+                    return create(t, name, quantity, price);
+                }
+                // Prices only change under the stripe lock, so the one read here stays current
+                long cents = keepPrice ? item.getPriceCents() : InventoryItem.toCents(price);
+                long old = item.update(add, quantity, cents);
+                changed(t, item, old, updated(old, add, quantity, cents), !add);
+                return item;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // The state InventoryItem.update set, from the one it replaced; re-reading the item could
+    // also pick up a lock-free adjustment made since, and count it twice
+    private static long updated(long old, boolean add, int quantity, long priceCents) {
+        return InventoryItem.pack(add ? InventoryItem.quantityOf(old) + quantity : quantity, priceCents);
+    }
+
+    /**
+     * Receives stock for many items at once, as {@link #addStock} would one by one and in
+     * the same order for any one name. Rows are grouped by stripe so each stripe lock is
+     * taken once per batch rather than once per row, and large batches work on several
+     * stripes at once. The rows are only read. They should
+     * already be valid (see {@link #validate}); an invalid row throws and leaves the batch
+     * partly applied. A row that would take an item's stock past {@link Integer#MAX_VALUE}
+     * is left out and the rest of the batch still applied.
+     *
+     * @return the rows left out, in no particular order
+     */
+    public List<InventoryItem> addStockAll(List<InventoryItem> rows) {
+        try (InventoryMetrics.Timing timing = metrics.time(InventoryMetrics.Operation.BATCH_ADD)) {
+            Queue<InventoryItem> overflowed = new ConcurrentLinkedQueue<>();
+            addStockGrouped(rows, overflowed);
+            timing.items(rows.size() - overflowed.size());
+            return new ArrayList<>(overflowed);
+        }
+    }
+
+    private void addStockGrouped(List<InventoryItem> rows, Queue<InventoryItem> overflowed) {
+        forEachByStripe(rows, (t, row) -> {
+            validate(row.getName(), row.getQuantity(), row.getPrice());
+            InventoryItem item = t.items.get(row.getName());
+            if (item == null) {
+                create(t, row.getName(), row.getQuantity(), row.getPrice());
+                return;
+            }
+            long old;
+            try {
+                old = item.update(true, row.getQuantity(), row.getPriceCents());
+            } catch (ArithmeticException e) {
+                overflowed.add(row); // nothing was changed
+                return;
+            }
+            changed(t, item, old, updated(old, true, row.getQuantity(), row.getPriceCents()), false);
+        });
+    }
+
+    /**
+     * Applies {@code rule} to every matching item, with one change event per item changed,
+     * as if each had been set by {@link #upsert}. Items are visited a stripe at a time under
+     * its lock, several stripes at once for large catalogs; each item is updated with one
+     * compare-and-set, so lock-free adjustments made meanwhile are kept.
+     */
+    public BulkUpdate.Result applyBulk(BulkUpdate rule) {
+        try (InventoryMetrics.Timing timing = metrics.time(InventoryMetrics.Operation.BULK_UPDATE)) {
+            LongAdder matched = new LongAdder();
+            LongAdder changed = new LongAdder();
+            LongAdder valueDelta = new LongAdder();
+            LongAdder unitsDelta = new LongAdder();
+            forEachByStripe(items(), (t, item) -> {
+                if (t.items.get(item.getName()) != item) {
+                    return; // removed or replaced since the list was taken
+                }
+                long old = item.apply(rule);
+                if (old == InventoryItem.RETIRED
+                        || !rule.matches(InventoryItem.quantityOf(old), InventoryItem.priceCentsOf(old))) {
+                    return;
+                }
+                matched.increment();
+                long updated = InventoryItem.pack(rule.newQuantity(InventoryItem.quantityOf(old)),
+                        rule.newPriceCents(InventoryItem.priceCentsOf(old)));
+                if (updated != old) {
+                    changed.increment();
+                    valueDelta.add(InventoryItem.valueCentsOf(updated) - InventoryItem.valueCentsOf(old));
+                    unitsDelta.add(InventoryItem.quantityOf(updated) - InventoryItem.quantityOf(old));
+                    changed(t, item, old, updated, true);
+                }
+            });
+            timing.items(matched.intValue());
+            return new BulkUpdate.Result(matched.sum(), changed.sum(), valueDelta.sum(), unitsDelta.sum());
+        }
+    }
+
+    // Runs 'action' on each row under its name's stripe lock, taking each lock once
+    private void forEachByStripe(List<InventoryItem> rows, BiConsumer<Table, InventoryItem> action) {
+        int[] counts = new int[STRIPES + 1];
+        for (InventoryItem row : rows) {
+            counts[stripeIndex(row.getName()) + 1]++;
+        }
+        for (int i = 1; i <= STRIPES; i++) {
+            counts[i] += counts[i - 1];
+        }
+        // Counting sort by stripe keeps each name's rows in their original order
+        InventoryItem[] grouped = new InventoryItem[rows.size()];
+        int[] next = counts.clone();
+        for (InventoryItem row : rows) {
+            grouped[next[stripeIndex(row.getName())]++] = row;
+        }
+
+        // Stripes share nothing, so a large batch applies them in parallel
+        IntStream stripeRange = IntStream.range(0, STRIPES);
+        if (rows.size() >= PARALLEL_BATCH) {
+            stripeRange = stripeRange.parallel();
+        }
+        Thread caller = Thread.currentThread();
+        stripeRange.filter(stripe -> counts[stripe] != counts[stripe + 1]).forEach(stripe -> {
+            Thread previous = BATCH_CALLER.get();
+            BATCH_CALLER.set(caller);
+            ReentrantLock lock = stripes[stripe];
+            lock.lock();
+            try {
+                Table t = table;
+                for (int i = counts[stripe]; i < counts[stripe + 1]; i++) {
+                    action.accept(t, grouped[i]);
+                }
+            } finally {
+                lock.unlock();
+                BATCH_CALLER.set(previous);
+            }
+        });
+    }
+
+    /**
+     * The thread a change is being made for, for listeners that tell callers apart: the
+     * current thread, unless it is a pool thread applying part of a large batch, in which
+     * case the thread that called the batch method.
+     */
+    static Thread changingThread() {
+        Thread caller = BATCH_CALLER.get();
+        return caller != null ? caller : Thread.currentThread();
+    }
+
+    /**
+     * Adds {@code delta} (which may be negative) to the item's quantity without locking.
+     *
+     * @return the new quantity
+     * @throws IllegalArgumentException if the item does not exist or stock would go negative
+     */
+    public int adjustQuantity(String name, int delta) {
+        InventoryMetrics.AdjustEvent event = new InventoryMetrics.AdjustEvent();
+        event.begin();
+        int updated = adjust(name, delta);
+        if (event.shouldCommit()) {
+            event.item = name;
+            event.delta = delta;
+            event.quantity = updated;
+            event.commit();
+        }
+        return updated;
+    }
+
+    private int adjust(String name, int delta) {
+        int stripe = stripeIndex(name);
+        for (;;) {
+            // Announce the adjustment before checking for a snapshot, so a snapshot that
+            // starts now either waits for it or is seen by it (see consistentSnapshot())
+            adjusting.incrementAndGet(stripe * COUNTER_SPACING);
+            try {
+                if (!frozen) {
+                    Table t = table;
+                    InventoryItem item = t.items.get(name);
+                    if (item == null) {
+                        throw new IllegalArgumentException("No such item: " + name);
+                    }
+                    long old = item.addQuantity(delta);
+                    if (old != InventoryItem.RETIRED) {
+                        int updated = InventoryItem.quantityOf(old) + delta;
+                        changed(t, item, old, InventoryItem.pack(updated, InventoryItem.priceCentsOf(old)), false);
+                        return updated;
+                    }
+                }
+            } finally {
+                adjusting.decrementAndGet(stripe * COUNTER_SPACING);
+            }
+            if (frozen) {
+                // The snapshot holds every stripe until it is done
+                stripes[stripe].lock();
+                stripes[stripe].unlock();
+            } else {
+                // Retired by a concurrent rename/delete that has not left the map yet
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Atomically moves an item to a new name, keeping its quantity and price. An item already
+     * stored under {@code newName} is replaced. Stock adjusted concurrently under the old name
+     * is either carried over or rejected, never lost.
+     *
+     * @return the item under its new name
+     * @throws IllegalArgumentException if {@code oldName} does not exist
+     */
+    public InventoryItem rename(String oldName, String newName) {
+        validate(newName, 0, 0);
+        try (InventoryMetrics.Timing timing = metrics.time(InventoryMetrics.Operation.RENAME)) {
+            timing.items(1);
+            int a = stripeIndex(oldName);
+            int b = stripeIndex(newName);
+            // Always lock the lower stripe first so two crossing renames cannot deadlock
+            ReentrantLock first = stripes[Math.min(a, b)];
+            ReentrantLock second = stripes[Math.max(a, b)];
+            first.lock();
+            second.lock();
+            try {
+                Table t = table;
+                InventoryItem old = t.items.get(oldName);
+                if (old == null) {
+                    throw new IllegalArgumentException("No such item: " + oldName);
+                }
+                if (oldName.equals(newName)) {
+                    return old;
+                }
+                InventoryItem replaced = t.items.get(newName);
+                if (replaced != null) {
+                    t.items.remove(newName);
+                    retired(t, replaced);
+                    t.names.remove(newName);
+                }
+                // The value moves with the stock, so the totals are unchanged
+                long state = old.retire();
+                t.stock.changed(old);
+                InventoryItem renamed = new InventoryItem(nextId.getAndIncrement(), newName, state);
+                // As in create(), listeners hear of the new item before anyone can adjust it
+                for (StoreListener listener : listeners) {
+                    listener.itemRenamed(old, renamed, InventoryItem.quantityOf(state));
+                }
+                t.items.put(newName, renamed);
+                t.names.add(newName);
+                t.stock.changed(renamed);
+                t.items.remove(oldName);
+                t.names.remove(oldName);
+                metrics.renamed();
+                return renamed;
+            } finally {
+                second.unlock();
+                first.unlock();
+                reindexIfStale();
+            }
+        }
+    }
+
+    /** @return the removed item, or null if there was none */
+    public InventoryItem delete(String name) {
+        try (InventoryMetrics.Timing timing = metrics.time(InventoryMetrics.Operation.DELETE)) {
+            ReentrantLock lock = stripe(name);
+            lock.lock();
+            try {
+                Table t = table;
+                InventoryItem removed = t.items.remove(name);
+                timing.items(removed != null ? 1 : 0);
+                if (removed != null) {
+                    retired(t, removed);
+                    t.names.remove(name);
+                }
+                return removed;
+            } finally {
+                lock.unlock();
+                reindexIfStale();
+            }
+        }
+    }
+
+    /**
+     * Replaces the whole inventory, e.g. after loading a file. The store takes ownership of
+     * the given items, which must be fresh (from {@link #snapshot()} or a file reader) and not
+     * held by another store.
+     */
+    public void replaceAll(Collection<InventoryItem> newItems) {
+        try (InventoryMetrics.Timing timing = metrics.time(InventoryMetrics.Operation.REPLACE_ALL)) {
+            timing.items(newItems.size());
+            Table loaded = new Table(newItems.size());
+            for (InventoryItem item : newItems) {
+                validate(item.getName(), item.getQuantity(), item.getPrice());
+                item.id = nextId.getAndIncrement();
+                put(loaded, item);
+            }
+            indexLoaded(loaded);
+            swap(loaded, true);
+        }
+    }
+
+    /**
+     * Installs items recovered from durable storage, keeping their ids and without notifying
+     * listeners, since the changes are already recorded wherever they came from.
+     */
+    void restore(Collection<InventoryItem> recovered) {
+        Table loaded = new Table(recovered.size());
+        long maxId = 0;
+        for (InventoryItem item : recovered) {
+            put(loaded, item);
+            maxId = Math.max(maxId, item.id);
+        }
+        nextId.accumulateAndGet(maxId + 1, Math::max);
+        indexLoaded(loaded);
+        swap(loaded, false);
+    }
+
+    private static void put(Table t, InventoryItem item) {
+        InventoryItem previous = t.items.put(item.getName(), item);
+        if (previous != null) {
+            t.removed(previous.state()); // later duplicates win
+        }
+        t.added(item.state());
+    }
+
+    private static void indexLoaded(Table t) {
+        index(t);
+        t.items.values().parallelStream().forEach(t.stock::sync);
+    }
+
+    // Folding and splitting names is the bulk of a load's index work, so spread it out
+    private static void index(Table t) {
+        NameIndex names = new NameIndex(t.items.size());
+        t.items.keySet().parallelStream().forEach(names::add);
+        t.names = names;
+    }
+
+    // Called without any stripe held, after a removal may have left the index mostly empty slots
+    private void reindexIfStale() {
+        if (!table.names.isStale()) {
+            return;
+        }
+        lockAll();
+        try {
+            Table t = table;
+            if (t.names.isStale()) {
+                index(t);
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    private void lockAll() {
+        for (ReentrantLock lock : stripes) {
+            lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+
+    // Caller holds every stripe. Holds off lock-free adjustments, which wait on their stripe
+    // until it is released, and waits out those already under way; clear frozen to undo
+    private void freeze() {
+        frozen = true;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            while (adjusting.get(stripe * COUNTER_SPACING) != 0) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    // Adjustments are held off too, so listeners see the outgoing items at their final
+    // state, and an adjustment racing the reload applies to the new items rather than being lost
+    private void swap(Table loaded, boolean notify) {
+        lockAll();
+        try {
+            freeze();
+            if (notify) {
+                List<InventoryItem> view = new ArrayList<>(loaded.items.values());
+                for (StoreListener listener : listeners) {
+                    listener.storeReset(view);
+                }
+            }
+            Table previous = table;
+            table = loaded;
+            metrics.reset();
+            // Adjusters still holding old items fail their CAS and retry against the new table
+            for (InventoryItem item : previous.items.values()) {
+                item.retire();
+            }
+        } finally {
+            frozen = false;
+            unlockAll();
+        }
+    }
+
+    public InventoryItem get(String name) {
+        return table.items.get(name);
+    }
+
+    public boolean contains(String name) {
+        return table.items.containsKey(name);
+    }
+
+    public int size() {
+        return table.items.size();
+    }
+
+    /**
+     * Case-insensitive substring match on the item name. Terms of three or more characters
+     * are answered from the trigram index; shorter ones scan the pre-folded names.
+     */
+    public List<InventoryItem> search(String term) {
+        try (InventoryMetrics.Timing timing = metrics.time(InventoryMetrics.Operation.SEARCH)) {
+            String needle = NameIndex.fold(term.trim());
+            Table t = table;
+            List<InventoryItem> result = new ArrayList<>();
+            t.names.search(needle, name -> {
+                InventoryItem item = t.items.get(name);
+                if (item != null) {
+                    result.add(item);
+                }
+            });
+            timing.items(result.size());
+            return result;
+        }
+    }
+
+    /** Items whose quantity is strictly below {@code threshold}, lowest first. */
+    public List<InventoryItem> lowStock(int threshold) {
+        try (InventoryMetrics.Timing timing = metrics.time(InventoryMetrics.Operation.RANGE_QUERY)) {
+            return collect(iterateLowStock(threshold), Integer.MAX_VALUE, timing);
+        }
+    }
+
+    /**
+     * Walks the items whose quantity is strictly below {@code threshold}, lowest first,
+     * without collecting them, so a report can take one page at a time. The walk is weakly
+     * consistent, like {@link #forEach}.
+     */
+    public Iterator<InventoryItem> iterateLowStock(int threshold) {
+        return iterateLowStock(0, threshold);
+    }
+
+    /**
+     * Walks the items with a quantity from {@code from} up to but not including
+     * {@code threshold}, lowest first, e.g. to pick up a paged walk where it stopped.
+     */
+    public Iterator<InventoryItem> iterateLowStock(int from, int threshold) {
+        return table.stock.quantityBetween(from, threshold);
+    }
+
+    /** Walks every item, highest total value first, without collecting them; weakly consistent. */
+    public Iterator<InventoryItem> iterateByValue() {
+        return iterateByValue(Long.MAX_VALUE);
+    }
+
+    /** Walks the items with a total value of at most {@code maxCents}, highest first. */
+    public Iterator<InventoryItem> iterateByValue(long maxCents) {
+        return table.stock.byValueDescending(maxCents);
+    }
+
+    /** Items with a unit price from {@code min} to {@code max} inclusive, cheapest first. */
+    public List<InventoryItem> priceBetween(double min, double max) {
+        long maxCents = Math.min(InventoryItem.toCents(max), InventoryItem.MAX_PRICE_CENTS);
+        try (InventoryMetrics.Timing timing = metrics.time(InventoryMetrics.Operation.RANGE_QUERY)) {
+            return collect(table.stock.priceBetween(InventoryItem.toCents(min), maxCents), Integer.MAX_VALUE, timing);
+        }
+    }
+
+    /** The {@code n} items with the highest total value, highest first. */
+    public List<InventoryItem> topByValue(int n) {
+        try (InventoryMetrics.Timing timing = metrics.time(InventoryMetrics.Operation.RANGE_QUERY)) {
+            return collect(table.stock.byValueDescending(Long.MAX_VALUE), n, timing);
+        }
+    }
+
+    private static List<InventoryItem> collect(Iterator<InventoryItem> items, int limit, InventoryMetrics.Timing timing) {
+        List<InventoryItem> result = new ArrayList<>();
+        while (result.size() < limit && items.hasNext()) {
+            result.add(items.next());
+        }
+        timing.items(result.size());
+        return result;
+    }
+
+    /** Sum of quantity * price over all items, in cents. O(1). */
+    public long totalValueCents() {
+        return table.valueCents.sum();
+    }
+
+    /** Sum of quantity * price over all items. O(1). */
+    public double totalValue() {
+        return totalValueCents() / 100.0;
+    }
+
+    /** Sum of all quantities. O(1). */
+    public long totalUnits() {
+        return table.units.sum();
+    }
+
+    /** Visits every item. Concurrent writes may or may not be seen, as with {@link ConcurrentHashMap}. */
+    public void forEach(Consumer<InventoryItem> action) {
+        table.items.values().forEach(action);
+    }
+
+    /**
+     * The live items as a stream, which splits well for parallel work. Concurrent writes may
+     * or may not be seen, as with {@link #forEach}.
+     */
+    public Stream<InventoryItem> stream() {
+        return table.items.values().stream();
+    }
+
+    /** The live items, collected into a new list. */
+    public List<InventoryItem> items() {
+        return new ArrayList<>(table.items.values());
+    }
+
+    /**
+     * The live items, collected while every stripe is held, so that no create, rename, delete
+     * or reload is half done: an item a {@link StoreListener} has heard of is in the list
+     * unless it has since been removed. Lock-free quantity adjustments carry on meanwhile.
+     */
+    public List<InventoryItem> settledItems() {
+        lockAll();
+        try {
+            return items();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Copy of the whole inventory as it was at one instant. All writers are held off while
+     * the names and states are copied, which is a quick pass over the map; the copies
+     * themselves are made after the writers have been released.
+     */
+    public List<InventoryItem> consistentSnapshot() {
+        InventoryMetrics.Timing timing = metrics.time(InventoryMetrics.Operation.SNAPSHOT);
+        String[] names;
+        long[] ids;
+        long[] states;
+        int count = 0;
+        lockAll();
+        try {
+            freeze();
+            Collection<InventoryItem> live = table.items.values();
+            int size = live.size();
+            names = new String[size];
+            ids = new long[size];
+            states = new long[size];
+            for (InventoryItem item : live) {
+                if (count == size) {
+                    break; // the map cannot change while every writer is held off
+                }
+                names[count] = item.getName();
+                ids[count] = item.id;
+                states[count] = item.state();
+                count++;
+            }
+        } finally {
+            frozen = false;
+            unlockAll();
+            // Only the pause is timed: it is what writers wait for
+            timing.items(count);
+            timing.close();
+        }
+        List<InventoryItem> copy = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            copy.add(new InventoryItem(ids[i], names[i], states[i]));
+        }
+        return copy;
+    }
+
+    /** Copy of all items, each read atomically. */
+    public List<InventoryItem> snapshot() {
+        Collection<InventoryItem> live = table.items.values();
+        List<InventoryItem> copy = new ArrayList<>(live.size());
+        for (InventoryItem item : live) {
+            copy.add(new InventoryItem(item.id, item.getName(), item.state()));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,292 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Table model that reads rows straight from the inventory items instead of copying them
+ * into per-row Object[] arrays. Each mutation fires a single-row event, so an edit costs
+ * O(1) UI work regardless of catalog size.
+ *
+ * <p>{@link #apply} keeps the rows in step with a {@link ChangePublisher}. Subclasses can
+ * show a subset of the inventory by overriding {@link #accepts}. A model given a
+ * {@link #setSortKey sort key} keeps its rows in key order and, for a report that pages
+ * its rows in along that order, can be limited to the keys paged in so far
+ * ({@link #setLastKey}).
+ */
+public class InventoryTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    /** Batches larger than this are applied as one whole-table change. */
+    public static final int BULK_BATCH = 256;
+
+    private static final String[] COLUMN_NAMES = {"Item Name", "Quantity", "Price", "Total Value"};
+
+    private final List<InventoryItem> rows = new ArrayList<>();
+    private final Map<String, Integer> rowIndex = new HashMap<>();
+    // Off while apply() works through a large batch, which then fires one event for all of it
+    private boolean firing = true;
+    private ToLongFunction<InventoryItem> sortKey;
+    private long lastKey = Long.MAX_VALUE;
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        if (columnIndex == 1) return Integer.class;
+        if (columnIndex == 2 || columnIndex == 3) return Double.class;
+        return String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false; // Make table read-only
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        InventoryItem item = rows.get(rowIndex);
+        switch (columnIndex) {
+            case 0:
+                return item.getName();
+            case 1:
+                return item.getQuantity();
+            case 2:
+                return item.getPrice();
+            case 3:
+                return item.getTotalValue();
+            default:
+                return null;
+        }
+    }
+
+    public InventoryItem getItemAt(int row) {
+        return rows.get(row);
+    }
+
+    /** Replaces every row, e.g. after loading a file. */
+    public void setItems(Collection<InventoryItem> items) {
+        rows.clear();
+        rowIndex.clear();
+        for (InventoryItem item : items) {
+            rowIndex.put(item.getName(), rows.size());
+            rows.add(item);
+        }
+        fireTableDataChanged();
+    }
+
+    public boolean contains(InventoryItem item) {
+        Integer row = rowIndex.get(item.getName());
+        return row != null && rows.get(row) == item;
+    }
+
+    /** Whether an item belongs in this table; everything does unless a subclass says otherwise. */
+    protected boolean accepts(InventoryItem item) {
+        return true;
+    }
+
+    /**
+     * Keeps the rows in ascending order of {@code key}: rows added or changed are moved into
+     * place after each {@link #apply} batch, and by {@link #restoreOrder} after rows are added
+     * directly. Equal keys keep their current order.
+     */
+    public void setSortKey(ToLongFunction<InventoryItem> key) {
+        sortKey = key;
+        restoreOrder();
+    }
+
+    /**
+     * With a sort key, shows changed items only if their key is at most {@code lastKey},
+     * e.g. the key of the last row a paged report has walked in, so that items further
+     * along stay out until their page is. Rows already shown that move past it are removed
+     * by the next change to them.
+     */
+    public void setLastKey(long lastKey) {
+        this.lastKey = lastKey;
+    }
+
+    private boolean shows(InventoryItem item) {
+        return accepts(item) && (sortKey == null || sortKey.applyAsLong(item) <= lastKey);
+    }
+
+    /**
+     * Puts the rows back in sort key order, if there is a sort key, and fires one update for
+     * the rows that moved. Each key is read once, so items changing meanwhile do no harm;
+     * they are moved again with the batch that reports their change.
+     */
+    public void restoreOrder() {
+        int count = rows.size();
+        if (sortKey == null || count < 2) {
+            return;
+        }
+        long[] keys = new long[count];
+        boolean sorted = true;
+        for (int i = 0; i < count; i++) {
+            keys[i] = sortKey.applyAsLong(rows.get(i));
+            sorted &= i == 0 || keys[i - 1] <= keys[i];
+        }
+        if (sorted) {
+            return;
+        }
+        Integer[] order = new Integer[count];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+        InventoryItem[] before = rows.toArray(new InventoryItem[0]);
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            if (order[i] != i) {
+                InventoryItem item = before[order[i]];
+                rows.set(i, item);
+                rowIndex.put(item.getName(), i);
+                first = first < 0 ? i : first;
+                last = i;
+            }
+        }
+        if (firing && first >= 0) {
+            fireTableRowsUpdated(first, last);
+        }
+    }
+
+    /**
+     * Applies a batch of changes in O(changes). A batch larger than {@link #BULK_BATCH}
+     * fires one whole-table event instead of one per row, since a row sorter re-files every
+     * inserted row separately. A leading {@link StoreChange.Kind#RESET} is skipped: reread
+     * the store with {@link #setItems} first. Each change is safe to apply twice, and changes
+     * to items that have since been retired are ignored, so a batch may overlap a reread.
+     */
+    public void apply(List<StoreChange> batch) {
+        boolean bulk = batch.size() > BULK_BATCH;
+        firing = !bulk;
+        try {
+            for (StoreChange change : batch) {
+                switch (change.kind) {
+                    case ITEM_ADDED:
+                    case QUANTITY_CHANGED:
+                    case PRICE_CHANGED:
+                        if (change.item.isRetired()) {
+                            break;
+                        }
+                        if (contains(change.item)) {
+                            if (shows(change.item)) {
+                                itemChanged(change.item.getName());
+                            } else {
+                                itemRemoved(change.item.getName());
+                            }
+                        } else if (shows(change.item)) {
+                            itemAdded(change.item);
+                        }
+                        break;
+                    case RENAMED: {
+                        boolean shown = !change.item.isRetired() && shows(change.item);
+                        if (contains(change.from)) {
+                            if (shown) {
+                                itemReplaced(change.from.getName(), change.item);
+                            } else {
+                                itemRemoved(change.from.getName());
+                            }
+                        } else if (shown) {
+                            itemAdded(change.item);
+                        }
+                        break;
+                    }
+                    case DELETED:
+                        if (contains(change.item)) {
+                            itemRemoved(change.item.getName());
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            restoreOrder();
+        } finally {
+            firing = true;
+        }
+        if (bulk) {
+            fireTableDataChanged();
+        }
+    }
+
+    /** Adds the item, or points the row already showing its name at it. */
+    public void itemAdded(InventoryItem item) {
+        Integer existing = rowIndex.get(item.getName());
+        if (existing != null) {
+            rows.set(existing, item);
+            rowsUpdated(existing);
+            return;
+        }
+        int row = rows.size();
+        rowIndex.put(item.getName(), row);
+        rows.add(item);
+        if (firing) {
+            fireTableRowsInserted(row, row);
+        }
+    }
+
+    public void itemChanged(String name) {
+        Integer row = rowIndex.get(name);
+        if (row != null) {
+            rowsUpdated(row);
+        }
+    }
+
+    /** Points the row that showed {@code oldName} at {@code item}, keeping its position. */
+    public void itemReplaced(String oldName, InventoryItem item) {
+        Integer row = rowIndex.get(oldName);
+        if (row == null) {
+            itemAdded(item);
+            return;
+        }
+        if (!oldName.equals(item.getName())) {
+            itemRemoved(item.getName()); // a row still showing what the rename replaced
+            row = rowIndex.remove(oldName); // the removal may have moved it
+        }
+        rows.set(row, item);
+        rowIndex.put(item.getName(), row);
+        rowsUpdated(row);
+    }
+
+    public void itemRemoved(String name) {
+        Integer row = rowIndex.remove(name);
+        if (row == null) return;
+
+        // Swap the last row into the hole so removal never shifts the backing list
+        int last = rows.size() - 1;
+        InventoryItem moved = rows.remove(last);
+        if (row != last) {
+            rows.set(row, moved);
+            rowIndex.put(moved.getName(), row);
+        }
+        if (firing) {
+            fireTableRowsDeleted(last, last);
+        }
+        if (row != last) {
+            rowsUpdated(row);
+        }
+    }
+
+    private void rowsUpdated(int row) {
+        if (firing) {
+            fireTableRowsUpdated(row, row);
+        }
+    }
+}
@@ -0,0 +1,825 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Append-only history of stock movements for an {@link InventoryStore}, for questions the
+ * current quantity cannot answer: how fast an item sells, how many days the stock on hand
+ * will last, and when to reorder.
+ *
+ * <p>Every change to a quantity is appended as a record of timestamp, item, delta and
+ * {@link Reason} to numbered {@code movements-N.seg} segments, which are memory-mapped and
+ * written in place. Records are compact: timestamps are varint deltas from the previous
+ * record, and each name is written once per segment and referred to by number after that,
+ * so a movement usually takes 4 to 6 bytes.
+ *
+ * <p>A background thread reads the new records back out of the mapped segments every
+ * second and folds them into hourly and daily rollups per item, kept in memory: issued and
+ * received units per bucket, daily for {@code retentionDays} and hourly for two weeks.
+ * Velocity, days-of-cover and reorder-point queries read only the rollups, so a year of
+ * history answers in microseconds per item. Opening the log folds the segments already on
+ * disk; segments older than the retention are deleted.
+ *
+ * <p>The reason is inferred from the change: receipts and adjustments up are
+ * {@link Reason#RECEIVED}, adjustments down {@link Reason#ISSUED}, and a quantity
+ * overwritten outright, as by a stock count or an edit, {@link Reason#COUNTED}. Demand is
+ * the issued units. A rename carries the item's history over to its new name; a deletion
+ * is logged but is not demand. Reloading the whole inventory is not a movement and is not
+ * logged.
+ */
+public final class MovementLog implements StoreListener, Closeable {
+    public static final int DEFAULT_RETENTION_DAYS = 400;
+    static final int HOURLY_RETENTION_HOURS = 14 * 24;
+    static final long DOWNSAMPLE_INTERVAL_MILLIS = 1000;
+
+    private static final long HOUR_MILLIS = 3_600_000L;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    private static final int SEGMENT_BYTES = 8 << 20;
+    private static final int MAGIC = 0x494D4F56; // "IMOV"
+    private static final int HEADER_BYTES = 12; // magic, then the segment's start time in millis
+    // Type, time, two new names and a delta all fit in this with room to spare
+    private static final int MAX_FIXED_RECORD_BYTES = 48;
+    private static final String SEGMENT_PREFIX = "movements-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /** Why a quantity moved; record types are the ordinal plus one, so zero marks the end of a segment. */
+    public enum Reason {
+        RECEIVED,
+        ISSUED,
+        /** The quantity was overwritten, as by a stock count; not demand. */
+        COUNTED,
+        CREATED,
+        DELETED,
+        /** Delta is the quantity carried over to the new name. */
+        RENAMED
+    }
+
+    /** One logged movement. */
+    public static final class Movement {
+        public final long timeMillis;
+        public final String item;
+        public final int delta;
+        public final Reason reason;
+
+        Movement(long timeMillis, String item, int delta, Reason reason) {
+            this.timeMillis = timeMillis;
+            this.item = item;
+            this.delta = delta;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return timeMillis + " " + reason + " " + item + " " + delta;
+        }
+    }
+
+    /** An item at or below its reorder point, as found by {@link #belowReorderPoint}. */
+    public static final class Reorder {
+        public final InventoryItem item;
+        public final int quantity;
+        public final double perDay;
+        public final long reorderPoint;
+
+        Reorder(InventoryItem item, int quantity, double perDay, long reorderPoint) {
+            this.item = item;
+            this.quantity = quantity;
+            this.perDay = perDay;
+            this.reorderPoint = reorderPoint;
+        }
+
+        /** How many days the stock on hand lasts at the current rate. */
+        public double daysOfCover() {
+            return quantity / perDay;
+        }
+    }
+
+    private static final class Segment {
+        final long seq;
+        final File file;
+        final MappedByteBuffer buffer;
+        final long startMillis;
+        volatile int written; // end of the last complete record
+
+        Segment(long seq, File file, MappedByteBuffer buffer, long startMillis, int written) {
+            this.seq = seq;
+            this.file = file;
+            this.buffer = buffer;
+            this.startMillis = startMillis;
+            this.written = written;
+        }
+    }
+
+    private final File directory;
+    private final DirectoryLock directoryLock;
+    private final InventoryStore store;
+    private final LongSupplier clock;
+    private final int retentionDays;
+    private final ScheduledExecutorService background;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // Writer state; guarded by appendLock
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private Segment tail;
+    private final Map<String, Integer> tailNames = new HashMap<>();
+    private long tailMillis;
+    private volatile IOException failure;
+    private boolean closed;
+
+    // Reader state and rollups; guarded by this
+    private Segment reading;
+    private final Cursor cursor = new Cursor();
+    private final Map<String, Series> series = new HashMap<>();
+
+    private MovementLog(File directory, DirectoryLock directoryLock, InventoryStore store, LongSupplier clock,
+                        int retentionDays) {
+        this.directory = directory;
+        this.directoryLock = directoryLock;
+        this.store = store;
+        this.clock = clock;
+        this.retentionDays = retentionDays;
+        this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "inventory-movements");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Opens the log in {@code directory} with default settings. */
+    public static MovementLog open(File directory, InventoryStore store) throws IOException {
+        return open(directory, store, System::currentTimeMillis, DEFAULT_RETENTION_DAYS);
+    }
+
+    /**
+     * Folds the history already in {@code directory} into rollups, then logs every further
+     * movement in {@code store}. {@code clock} stamps movements and anchors queries. Fails if
+     * another log, in this process or another, has the directory open.
+     */
+    static MovementLog open(File directory, InventoryStore store, LongSupplier clock, int retentionDays) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create movement log directory " + directory);
+        }
+        DirectoryLock lock = DirectoryLock.acquire(directory, "movement log");
+        try {
+            return open(directory, lock, store, clock, retentionDays);
+        } catch (IOException | RuntimeException e) {
+            lock.close();
+            throw e;
+        }
+    }
+
+    private static MovementLog open(File directory, DirectoryLock lock, InventoryStore store, LongSupplier clock,
+                                    int retentionDays) throws IOException {
+        MovementLog log = new MovementLog(directory, lock, store, clock, retentionDays);
+        TreeMap<Long, File> files = list(directory);
+        Cursor scan = new Cursor();
+        Segment last = null;
+        for (Map.Entry<Long, File> file : files.entrySet()) {
+            last = mapExisting(file.getKey(), file.getValue(), file.getKey().equals(files.lastKey()), scan);
+            if (last != null) {
+                log.segments.put(last.seq, last);
+            }
+        }
+        log.appendLock.lock();
+        try {
+            // Carry on in the last segment if it has room and ends cleanly, so restarts do
+            // not leave a trail of nearly empty files
+            if (last != null && last.buffer.capacity() == SEGMENT_BYTES && !last.buffer.isReadOnly()
+                    && SEGMENT_BYTES - last.written >= MAX_FIXED_RECORD_BYTES && last.buffer.get(last.written) == 0) {
+                log.tail = last;
+                for (String name : scan.names) {
+                    log.tailNames.put(name, log.tailNames.size());
+                }
+                log.tailMillis = scan.millis;
+            } else {
+                log.startSegment(files.isEmpty() ? 1 : files.lastKey() + 1);
+            }
+        } finally {
+            log.appendLock.unlock();
+        }
+        log.catchUp();
+        store.addListener(log);
+        log.background.scheduleWithFixedDelay(log::backgroundFold,
+                DOWNSAMPLE_INTERVAL_MILLIS, DOWNSAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        return log;
+    }
+
+    // --- StoreListener: appends on the writer thread ---
+
+    @Override
+    public void itemCreated(InventoryItem item, int quantity, double price) {
+        append(Reason.CREATED, item.getName(), null, quantity);
+    }
+
+    @Override
+    public void quantityChanged(InventoryItem item, int oldQuantity, int newQuantity) {
+        long delta = (long) newQuantity - oldQuantity;
+        append(delta > 0 ? Reason.RECEIVED : Reason.ISSUED, item.getName(), null, delta);
+    }
+
+    @Override
+    public void quantitySet(InventoryItem item, int oldQuantity, int newQuantity) {
+        append(Reason.COUNTED, item.getName(), null, (long) newQuantity - oldQuantity);
+    }
+
+    @Override
+    public void priceChanged(InventoryItem item, double oldPrice, double newPrice) {
+    }
+
+    @Override
+    public void itemRenamed(InventoryItem from, InventoryItem to, int quantity) {
+        append(Reason.RENAMED, from.getName(), to.getName(), quantity);
+    }
+
+    @Override
+    public void itemDeleted(InventoryItem item, int finalQuantity) {
+        append(Reason.DELETED, item.getName(), null, -(long) finalQuantity);
+    }
+
+    @Override
+    public void storeReset(List<InventoryItem> items) {
+    }
+
+    private void append(Reason reason, String name, String target, long delta) {
+        appendLock.lock();
+        try {
+            if (closed || failure != null) {
+                return;
+            }
+            int worst = MAX_FIXED_RECORD_BYTES + 3 * name.length() + (target == null ? 0 : 3 * target.length());
+            if (tail.buffer.capacity() - tail.written < worst) {
+                startSegment(tail.seq + 1);
+            }
+            ByteBuffer out = tail.buffer;
+            out.position(tail.written);
+            // Never backwards, so deltas stay small and positive even if the wall clock is set back
+            long now = Math.max(clock.getAsLong(), tailMillis);
+            out.put((byte) (reason.ordinal() + 1));
+            putVarLong(out, now - tailMillis);
+            tailMillis = now;
+            putName(out, name);
+            if (target != null) {
+                putName(out, target);
+            }
+            putVarLong(out, zigZag(delta));
+            tail.written = out.position();
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void putName(ByteBuffer out, String name) {
+        Integer ref = tailNames.get(name);
+        if (ref != null) {
+            putVarLong(out, ref);
+            return;
+        }
+        int next = tailNames.size();
+        tailNames.put(name, next);
+        putVarLong(out, next);
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        putVarLong(out, bytes.length);
+        out.put(bytes);
+    }
+
+    // Caller holds appendLock. The reader moves on from a segment once a later one exists,
+    // so the old tail's last record is published before the new one is added
+    private void startSegment(long seq) throws IOException {
+        File file = new File(directory, SEGMENT_PREFIX + seq + SEGMENT_SUFFIX);
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        }
+        long start = Math.max(clock.getAsLong(), tailMillis);
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(4, start);
+        if (tail != null) {
+            tail.buffer.force();
+        }
+        tail = new Segment(seq, file, buffer, start, HEADER_BYTES);
+        tailNames.clear();
+        tailMillis = start;
+        segments.put(seq, tail);
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+            System.err.println("Movement log stopped: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // --- Downsampling ---
+
+    private void backgroundFold() {
+        try {
+            catchUp();
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // keep folding later records
+        }
+    }
+
+    /** Folds every record appended so far into the rollups; queries call this first. */
+    synchronized void catchUp() {
+        if (reading == null) {
+            Map.Entry<Long, Segment> first = segments.firstEntry();
+            if (first == null) {
+                return;
+            }
+            openReader(first.getValue());
+        }
+        for (;;) {
+            ByteBuffer in = reading.buffer.duplicate();
+            in.position(cursor.position);
+            // Read the end before asking for a later segment: once one exists, this is final
+            Map.Entry<Long, Segment> next = segments.higherEntry(reading.seq);
+            int end = reading.written;
+            while (in.position() < end) {
+                cursor.next(in);
+                fold(cursor);
+            }
+            cursor.position = end;
+            if (next == null) {
+                break;
+            }
+            openReader(next.getValue());
+        }
+        dropExpired();
+    }
+
+    private void openReader(Segment segment) {
+        reading = segment;
+        cursor.reset(segment.startMillis);
+    }
+
+    private void fold(Cursor record) {
+        int hour = (int) (record.millis / HOUR_MILLIS);
+        int day = (int) (record.millis / DAY_MILLIS);
+        switch (record.reason) {
+            case RECEIVED:
+            case CREATED:
+                series(record.name).add(hour, day, 0, record.delta, this);
+                break;
+            case ISSUED:
+                series(record.name).add(hour, day, -record.delta, 0, this);
+                break;
+            case RENAMED: {
+                Series moved = series.remove(record.name);
+                if (moved != null) {
+                    Series existing = series.putIfAbsent(record.target, moved);
+                    if (existing != null) {
+                        existing.merge(moved, this);
+                    }
+                }
+                break;
+            }
+            default:
+                break; // counts and deletions change the stock but are not demand
+        }
+    }
+
+    private Series series(String name) {
+        return series.computeIfAbsent(name, n -> new Series());
+    }
+
+    int oldestHour() {
+        return (int) (clock.getAsLong() / HOUR_MILLIS) - HOURLY_RETENTION_HOURS;
+    }
+
+    int oldestDay() {
+        return (int) (clock.getAsLong() / DAY_MILLIS) - retentionDays;
+    }
+
+    // Deletes folded segments whose last record is older than the retention: a segment
+    // ends where the next one starts
+    private void dropExpired() {
+        long cutoff = clock.getAsLong() - retentionDays * DAY_MILLIS;
+        Map.Entry<Long, Segment> first;
+        while ((first = segments.firstEntry()) != null && first.getKey() < reading.seq
+                && segments.higherEntry(first.getKey()).getValue().startMillis < cutoff) {
+            segments.remove(first.getKey());
+            if (!first.getValue().file.delete()) {
+                System.err.println("Could not delete expired movement segment " + first.getValue().file);
+            }
+        }
+    }
+
+    // --- Queries; all read the rollups as of the last fold plus everything appended since ---
+
+    /** Units issued per day on average over the last {@code days} days, today included. */
+    public synchronized double velocity(String item, int days) {
+        checkWindow(days);
+        catchUp();
+        Series s = series.get(item);
+        return s == null ? 0 : s.issuedSince(today() - days + 1, today()) / (double) days;
+    }
+
+    /** Units issued on each of the last {@code days} days, oldest first. */
+    public synchronized long[] issuedPerDay(String item, int days) {
+        checkWindow(days);
+        catchUp();
+        long[] issued = new long[days];
+        Series s = series.get(item);
+        if (s != null) {
+            s.days.issued(today() - days + 1, issued);
+        }
+        return issued;
+    }
+
+    /** Units issued in each of the last {@code hours} hours (two weeks at most), oldest first. */
+    public synchronized long[] issuedPerHour(String item, int hours) {
+        if (hours < 1 || hours > HOURLY_RETENTION_HOURS) {
+            throw new IllegalArgumentException("Hours must be from 1 to " + HOURLY_RETENTION_HOURS);
+        }
+        catchUp();
+        long[] issued = new long[hours];
+        Series s = series.get(item);
+        if (s != null) {
+            s.hours.issued((int) (clock.getAsLong() / HOUR_MILLIS) - hours + 1, issued);
+        }
+        return issued;
+    }
+
+    /**
+     * How many days the current stock lasts at the average demand of the last
+     * {@code windowDays} days; infinite if there was none.
+     */
+    public double daysOfCover(String item, int windowDays) {
+        double perDay = velocity(item, windowDays);
+        InventoryItem current = store.get(item);
+        int quantity = current == null ? 0 : current.getQuantity();
+        return perDay == 0 ? Double.POSITIVE_INFINITY : quantity / perDay;
+    }
+
+    /**
+     * The stock level at which to reorder so it arrives before running out: the average
+     * daily demand of the last {@code windowDays} days times the lead time plus
+     * {@code safetyDays} of buffer, rounded up.
+     */
+    public long reorderPoint(String item, int leadTimeDays, int safetyDays, int windowDays) {
+        return reorderPoint(velocity(item, windowDays), leadTimeDays, safetyDays);
+    }
+
+    private static long reorderPoint(double perDay, int leadTimeDays, int safetyDays) {
+        if (leadTimeDays < 0 || safetyDays < 0) {
+            throw new IllegalArgumentException("Lead time and safety days cannot be negative");
+        }
+        return (long) Math.ceil(perDay * (leadTimeDays + safetyDays));
+    }
+
+    /**
+     * Items with demand in the last {@code windowDays} days whose stock is at or below their
+     * reorder point, fewest days of cover first. Only items with history are visited.
+     */
+    public List<Reorder> belowReorderPoint(int leadTimeDays, int safetyDays, int windowDays) {
+        checkWindow(windowDays);
+        reorderPoint(0, leadTimeDays, safetyDays); // validates
+        try (InventoryMetrics.Timing timing = store.metrics().time(InventoryMetrics.Operation.DEMAND_REPORT)) {
+            List<Reorder> due = new ArrayList<>();
+            synchronized (this) {
+                catchUp();
+                int from = today() - windowDays + 1;
+                int to = today();
+                for (Map.Entry<String, Series> entry : series.entrySet()) {
+                    long issued = entry.getValue().issuedSince(from, to);
+                    if (issued == 0) {
+                        continue;
+                    }
+                    InventoryItem item = store.get(entry.getKey());
+                    if (item == null) {
+                        continue;
+                    }
+                    double perDay = issued / (double) windowDays;
+                    long point = reorderPoint(perDay, leadTimeDays, safetyDays);
+                    int quantity = item.getQuantity();
+                    if (quantity <= point) {
+                        due.add(new Reorder(item, quantity, perDay, point));
+                    }
+                }
+            }
+            due.sort(Comparator.comparingDouble(Reorder::daysOfCover));
+            timing.items(due.size());
+            return due;
+        }
+    }
+
+    /**
+     * The raw movements of {@code item} from {@code fromMillis} (inclusive) to
+     * {@code toMillis} (exclusive), oldest first. Scans the segments that overlap the range.
+     */
+    public List<Movement> movements(String item, long fromMillis, long toMillis) {
+        List<Movement> found = new ArrayList<>();
+        forEachMovement(fromMillis, toMillis, movement -> {
+            if (movement.item.equals(item)) {
+                found.add(movement);
+            }
+        });
+        return found;
+    }
+
+    private void forEachMovement(long fromMillis, long toMillis, Consumer<Movement> action) {
+        Cursor scan = new Cursor();
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            Segment segment = entry.getValue();
+            Map.Entry<Long, Segment> next = segments.higherEntry(entry.getKey());
+            if (segment.startMillis >= toMillis) {
+                break;
+            }
+            if (next != null && next.getValue().startMillis < fromMillis) {
+                continue;
+            }
+            ByteBuffer in = segment.buffer.duplicate();
+            in.position(HEADER_BYTES);
+            scan.reset(segment.startMillis);
+            int end = segment.written;
+            while (in.position() < end) {
+                scan.next(in);
+                if (scan.millis >= fromMillis && scan.millis < toMillis) {
+                    action.accept(new Movement(scan.millis, scan.name, (int) scan.delta, scan.reason));
+                }
+            }
+        }
+    }
+
+    private int today() {
+        return (int) (clock.getAsLong() / DAY_MILLIS);
+    }
+
+    private void checkWindow(int days) {
+        if (days < 1 || days > retentionDays) {
+            throw new IllegalArgumentException("Days must be from 1 to " + retentionDays);
+        }
+    }
+
+    /** Stops logging, folds what is left and forces the last segment to disk. */
+    @Override
+    public void close() throws IOException {
+        store.removeListener(this);
+        background.shutdown();
+        try {
+            background.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        appendLock.lock();
+        try {
+            closed = true;
+            tail.buffer.force();
+        } finally {
+            appendLock.unlock();
+            directoryLock.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // --- Encoding ---
+
+    /** Decodes records one at a time, tracking the segment's time base and name table. */
+    private static final class Cursor {
+        int position;
+        long millis;
+        final List<String> names = new ArrayList<>();
+        Reason reason;
+        String name;
+        String target;
+        long delta;
+
+        void reset(long startMillis) {
+            position = HEADER_BYTES;
+            millis = startMillis;
+            names.clear();
+        }
+
+        // Throws IllegalStateException or BufferUnderflowException on a damaged record
+        void next(ByteBuffer in) {
+            int type = in.get();
+            if (type < 1 || type > Reason.values().length) {
+                throw new IllegalStateException("Bad movement record type " + type);
+            }
+            reason = Reason.values()[type - 1];
+            millis += getVarLong(in);
+            name = getName(in);
+            target = reason == Reason.RENAMED ? getName(in) : null;
+            delta = unZigZag(getVarLong(in));
+        }
+
+        private String getName(ByteBuffer in) {
+            long ref = getVarLong(in);
+            if (ref < names.size()) {
+                return names.get((int) ref);
+            }
+            if (ref != names.size()) {
+                throw new IllegalStateException("Bad movement name reference " + ref);
+            }
+            int length = (int) getVarLong(in);
+            if (length < 0 || length > in.remaining()) {
+                throw new IllegalStateException("Bad movement name length " + length);
+            }
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            String name = new String(bytes, StandardCharsets.UTF_8);
+            names.add(name);
+            return name;
+        }
+    }
+
+    // Maps a segment left by an earlier run and finds where its records end: at the first
+    // zero byte, where nothing was written, or at a record cut short by a crash. Leaves the
+    // time and names as of the last record in 'scan'
+    private static Segment mapExisting(long seq, File file, boolean writable, Cursor scan) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = writable
+                ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file.toPath())) {
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a movement segment");
+        }
+        long start = buffer.getLong(4);
+        scan.reset(start);
+        ByteBuffer in = buffer.duplicate();
+        in.position(HEADER_BYTES);
+        int end = HEADER_BYTES;
+        try {
+            while (in.hasRemaining() && in.get(in.position()) != 0) {
+                scan.next(in);
+                end = in.position();
+            }
+        } catch (RuntimeException e) {
+            // torn last record; everything before it stands
+        }
+        return new Segment(seq, file, buffer, start, end);
+    }
+
+    private static TreeMap<Long, File> list(File directory) {
+        TreeMap<Long, File> files = new TreeMap<>();
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return files;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    files.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), child);
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+        return files;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Bad varint");
+    }
+
+    // --- Rollups ---
+
+    /** One item's demand and receipts, hourly and daily. */
+    private static final class Series {
+        final Buckets hours = new Buckets();
+        final Buckets days = new Buckets();
+
+        void add(int hour, int day, long issued, long received, MovementLog log) {
+            hours.add(hour, issued, received, log.oldestHour());
+            days.add(day, issued, received, log.oldestDay());
+        }
+
+        long issuedSince(int fromDay, int toDay) {
+            return days.issuedBetween(fromDay, toDay);
+        }
+
+        void merge(Series other, MovementLog log) {
+            for (int i = 0; i < other.hours.size; i++) {
+                hours.add(other.hours.keys[i], other.hours.issued[i], other.hours.received[i], log.oldestHour());
+            }
+            for (int i = 0; i < other.days.size; i++) {
+                days.add(other.days.keys[i], other.days.issued[i], other.days.received[i], log.oldestDay());
+            }
+        }
+    }
+
+    /**
+     * Sparse buckets in key order: only hours or days with movements take space. Records
+     * arrive almost in time order, so an add nearly always lands on or after the last key.
+     */
+    private static final class Buckets {
+        int[] keys = new int[2];
+        long[] issued = new long[2];
+        long[] received = new long[2];
+        int size;
+
+        void add(int key, long issuedUnits, long receivedUnits, int oldestKept) {
+            if (key < oldestKept) {
+                return;
+            }
+            int i = size > 0 && keys[size - 1] == key ? size - 1 : Arrays.binarySearch(keys, 0, size, key);
+            if (i < 0) {
+                i = -i - 1;
+                if (size == keys.length) {
+                    i -= dropBefore(oldestKept);
+                    if (size == keys.length) {
+                        keys = Arrays.copyOf(keys, size * 2);
+                        issued = Arrays.copyOf(issued, size * 2);
+                        received = Arrays.copyOf(received, size * 2);
+                    }
+                }
+                System.arraycopy(keys, i, keys, i + 1, size - i);
+                System.arraycopy(issued, i, issued, i + 1, size - i);
+                System.arraycopy(received, i, received, i + 1, size - i);
+                keys[i] = key;
+                issued[i] = 0;
+                received[i] = 0;
+                size++;
+            }
+            issued[i] += issuedUnits;
+            received[i] += receivedUnits;
+        }
+
+        // Drops buckets older than the retention; returns how many
+        private int dropBefore(int oldestKept) {
+            int drop = 0;
+            while (drop < size && keys[drop] < oldestKept) {
+                drop++;
+            }
+            if (drop > 0) {
+                size -= drop;
+                System.arraycopy(keys, drop, keys, 0, size);
+                System.arraycopy(issued, drop, issued, 0, size);
+                System.arraycopy(received, drop, received, 0, size);
+            }
+            return drop;
+        }
+
+        long issuedBetween(int from, int to) {
+            int i = Arrays.binarySearch(keys, 0, size, from);
+            long sum = 0;
+            for (i = i < 0 ? -i - 1 : i; i < size && keys[i] <= to; i++) {
+                sum += issued[i];
+            }
+            return sum;
+        }
+
+        // Issued per key from 'from' on, into consecutive slots of 'out'
+        void issued(int from, long[] out) {
+            int i = Arrays.binarySearch(keys, 0, size, from);
+            for (i = i < 0 ? -i - 1 : i; i < size && keys[i] - from < out.length; i++) {
+                out[keys[i] - from] += issued[i];
+            }
+        }
+    }
+}
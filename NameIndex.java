@@ -0,0 +1,185 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Case-insensitive substring index over item names, used by {@link InventoryStore#search}.
+ *
+ * <p>Each name is case-folded once and given an int slot. Every three-character window of
+ * the folded name (a trigram) has a posting list of the slots whose names contain it, so a
+ * query of three or more characters only visits the slots in the shortest posting list of
+ * its trigrams, confirming each candidate against the folded name. Shorter queries have no
+ * trigram to look up and fall back to scanning the folded names.
+ *
+ * <p>Posting lists are append-only int arrays. Removing a name only clears its slot; the
+ * stale postings are skipped by searches and dropped when the store rebuilds the index
+ * (see {@link #isStale()}).
+ *
+ * <p>Safe for concurrent use: adds and removes may come from any number of threads, and
+ * searches never block them for longer than it takes to read a list's length.
+ */
+final class NameIndex {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final long TRIGRAM_SCRAMBLE = 0x9E3779B97F4A7C15L;
+
+    /** Append-only list of slots. Entries below {@code size} never change once written. */
+    private static final class Postings {
+        private int[] slots = new int[2];
+        private int size;
+
+        synchronized void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        // The array may be longer than size(); read the length first, under the same lock
+        synchronized int[] slots() {
+            return slots;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Integer> slotOf;
+    private final ConcurrentHashMap<Long, Postings> postings;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicInteger dead = new AtomicInteger();
+    // Folded name and original name per slot, in fixed-size chunks so growing never copies
+    private volatile String[][] folded = new String[0][];
+    private volatile String[][] names = new String[0][];
+
+    NameIndex(int capacity) {
+        slotOf = new ConcurrentHashMap<>(Math.max(16, capacity * 4 / 3 + 1));
+        postings = new ConcurrentHashMap<>(Math.max(16, capacity));
+    }
+
+    static String fold(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    void add(String name) {
+        int slot = nextSlot.getAndIncrement();
+        if (slotOf.putIfAbsent(name, slot) != null) {
+            dead.incrementAndGet(); // already indexed; the slot stays empty
+            return;
+        }
+        String key = fold(name);
+        ensureChunk(slot >>> CHUNK_BITS);
+        folded[slot >>> CHUNK_BITS][slot & (CHUNK_SIZE - 1)] = key;
+        names[slot >>> CHUNK_BITS][slot & (CHUNK_SIZE - 1)] = name;
+        // Appending under the list's lock publishes the slot's strings to later searches
+        for (long trigram : trigrams(key)) {
+            postings.computeIfAbsent(trigram, k -> new Postings()).add(slot);
+        }
+    }
+
+    void remove(String name) {
+        Integer slot = slotOf.remove(name);
+        if (slot != null) {
+            folded[slot >>> CHUNK_BITS][slot & (CHUNK_SIZE - 1)] = null;
+            names[slot >>> CHUNK_BITS][slot & (CHUNK_SIZE - 1)] = null;
+            dead.incrementAndGet();
+        }
+    }
+
+    /** True once more slots are empty than in use, so a rebuild would at least halve the index. */
+    boolean isStale() {
+        int deadSlots = dead.get();
+        return deadSlots > CHUNK_SIZE && deadSlots > nextSlot.get() - deadSlots;
+    }
+
+    private synchronized void ensureChunk(int chunk) {
+        if (chunk < folded.length) {
+            return;
+        }
+        String[][] f = Arrays.copyOf(folded, chunk + 1);
+        String[][] n = Arrays.copyOf(names, chunk + 1);
+        for (int i = folded.length; i <= chunk; i++) {
+            f[i] = new String[CHUNK_SIZE];
+            n[i] = new String[CHUNK_SIZE];
+        }
+        names = n;
+        folded = f;
+    }
+
+    /**
+     * Passes every indexed name containing {@code needle} (already folded) to {@code action}.
+     * Names added or removed while the search runs may or may not be reported.
+     */
+    void search(String needle, Consumer<String> action) {
+        String[][] f = folded;
+        String[][] n = names;
+        if (needle.length() < 3) {
+            for (int chunk = 0; chunk < f.length; chunk++) {
+                for (int i = 0; i < CHUNK_SIZE; i++) {
+                    String key = f[chunk][i];
+                    if (key != null && key.contains(needle)) {
+                        report(n[chunk][i], action);
+                    }
+                }
+            }
+            return;
+        }
+
+        Postings shortest = null;
+        int shortestSize = Integer.MAX_VALUE;
+        for (long trigram : trigrams(needle)) {
+            Postings list = postings.get(trigram);
+            if (list == null) {
+                return; // some trigram occurs in no name
+            }
+            int size = list.size();
+            if (size < shortestSize) {
+                shortest = list;
+                shortestSize = size;
+            }
+        }
+
+        int[] slots = shortest.slots();
+        f = folded; // at least as new as the list we just read
+        n = names;
+        for (int i = 0; i < shortestSize; i++) {
+            int slot = slots[i];
+            String key = f[slot >>> CHUNK_BITS][slot & (CHUNK_SIZE - 1)];
+            if (key != null && key.contains(needle)) {
+                report(n[slot >>> CHUNK_BITS][slot & (CHUNK_SIZE - 1)], action);
+            }
+        }
+    }
+
+    private static void report(String name, Consumer<String> action) {
+        if (name != null) {
+            action.accept(name);
+        }
+    }
+
+    // Distinct trigrams of s. Each packs three 16-bit chars, then is scrambled by an odd
+    // multiplier: a packed key's Long.hashCode() keeps only a few bits of the first and last
+    // char, which piled the postings map into a few hundred tree bins. The multiply is a
+    // bijection, so distinct trigrams keep distinct keys.
+    private static long[] trigrams(String s) {
+        int n = s.length() - 2;
+        if (n <= 0) {
+            return new long[0];
+        }
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2)) * TRIGRAM_SCRAMBLE;
+        }
+        Arrays.sort(keys);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+        return distinct == n ? keys : Arrays.copyOf(keys, distinct);
+    }
+}
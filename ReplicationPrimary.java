@@ -0,0 +1,592 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ships every change to an {@link InventoryStore} to read-only {@link InventoryReplica}s
+ * over TCP, so that other processes, or other stores in this one, can serve searches and
+ * reports while this store takes the writes.
+ *
+ * <p>As a listener it encodes each change into a sequenced log as it happens: creates,
+ * renames and deletes as such, and quantity and price changes as the item's whole state,
+ * read when the record is appended. Appends are serialized, so an item's later records
+ * always carry a later state even when lock-free adjustments report out of order, and a
+ * replica that applies the records in sequence ends up where the store is. Every
+ * {@code batchMillis} the records appended since the last batch are sealed into one frame,
+ * kept in memory up to {@code maxLogBytes}, and written to every replica that has caught
+ * up. One selector thread serves every replica over non-blocking channels, so a slow
+ * replica falls behind on its own without holding up the others or any writer.
+ *
+ * <p>A connecting replica says which primary and record it has reached. If the log still
+ * holds the records after that it resumes from there. Otherwise (a first connection, a
+ * restart of either side, a replica that fell too far behind, or a
+ * {@link InventoryStore#replaceAll} here) it is sent a snapshot, taken with
+ * {@link InventoryStore#consistentSnapshot()} and streamed in chunks, then the log from
+ * the record the snapshot was taken at. Records the snapshot already reflects are applied
+ * again; they are keyed by item id and carry whole states, so that does no harm.
+ *
+ * <pre>
+ * frame: int length (of what follows), byte type, body; little-endian
+ *   replica to primary
+ *     HELLO      long epoch, long seq      primary and last record applied, or 0, 0
+ *     ACK        long seq                  after each batch
+ *   primary to replica
+ *     SNAPSHOT   long epoch, long seq, long millis, int count   then ITEMS until count
+ *     ITEMS      int n, n x (long id, int quantity, long priceCents, int nameBytes, name)
+ *     RESUME     long epoch, long seq      records after seq follow
+ *     BATCH      long firstSeq, int n, long sealedMillis, n records
+ *     HEARTBEAT  long seq, long millis     every 50 ms, between batches: nothing newer
+ *                                          than seq had been recorded at millis
+ * record: byte type, body
+ *     CREATE     long id, int quantity, long priceCents, int nameBytes, name
+ *     STATE      long id, int quantity, long priceCents
+ *     RENAME     long fromId, long toId, int quantity, long priceCents, int nameBytes, name
+ *     DELETE     long id
+ * </pre>
+ */
+public final class ReplicationPrimary implements StoreListener, Closeable {
+    public static final long DEFAULT_BATCH_MILLIS = 5;
+    public static final long DEFAULT_MAX_LOG_BYTES = 64L << 20;
+
+    static final byte HELLO = 1;
+    static final byte ACK = 2;
+    static final byte SNAPSHOT = 3;
+    static final byte ITEMS = 4;
+    static final byte RESUME = 5;
+    static final byte BATCH = 6;
+    static final byte HEARTBEAT = 7;
+
+    static final byte CREATE = 1;
+    static final byte STATE = 2;
+    static final byte RENAME = 3;
+    static final byte DELETE = 4;
+
+    static final int MAX_FRAME_BYTES = 64 << 20;
+    static final long HEARTBEAT_MILLIS = 50;
+    private static final int SNAPSHOT_CHUNK_BYTES = 256 << 10;
+    private static final String SEQ_GAUGE = "replication_seq";
+    private static final String REPLICAS_GAUGE = "replication_replicas";
+
+    private final InventoryStore store;
+    private final long epoch;
+    private final long batchMillis;
+    private final long maxLogBytes;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // Records appended since the last batch; guarded by appendLock
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private ByteBuffer pending = newBuffer(64 * 1024);
+    private long lastSeq;           // records appended so far
+    private long resetSeq;          // the record standing for the last replaceAll()
+    private long lastStateId = -1;  // the last STATE record, so its twin can be dropped
+    private long lastState;
+
+    // Sealed batches by first record; selector thread only
+    private final TreeMap<Long, Batch> log = new TreeMap<>();
+    private long logBytes;
+    private long logBase = 1;       // first record the log can still replay
+    private volatile long sealedSeq;
+    private long sealedMillis;      // every record appended before this is sealed
+    private long sealedReset;
+
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+
+    private static final class Batch {
+        final long lastSeq;
+        final byte[] frame;
+
+        Batch(long lastSeq, byte[] frame) {
+            this.lastSeq = lastSeq;
+            this.frame = frame;
+        }
+    }
+
+    /** One replica's connection; fields other than acked belong to the selector thread. */
+    private static final class Session {
+        final SocketChannel channel;
+        final String address;
+        final ByteBuffer in = newBuffer(64);
+        SelectionKey key;
+        ByteBuffer out;             // frame being written, or null
+        boolean greeted;
+        boolean heartbeatDue;
+        long cursor;                // last record sent
+        volatile long acked;
+        List<InventoryItem> snapshot; // being streamed, from snapshotNext on
+        int snapshotNext;
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+            String remote;
+            try {
+                remote = String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                remote = "?";
+            }
+            this.address = remote.startsWith("/") ? remote.substring(1) : remote;
+        }
+    }
+
+    private ReplicationPrimary(InventoryStore store, InetSocketAddress address, long batchMillis, long maxLogBytes)
+            throws IOException {
+        this.store = store;
+        this.batchMillis = batchMillis;
+        this.maxLogBytes = maxLogBytes;
+        // A fresh epoch per start tells replicas that sequence numbers began again
+        this.epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        this.thread = new Thread(this::run, "inventory-replication");
+        thread.setDaemon(true);
+    }
+
+    /** Starts shipping {@code store}'s changes to replicas that connect to {@code address} (port 0 picks a free one). */
+    public static ReplicationPrimary start(InventoryStore store, InetSocketAddress address) throws IOException {
+        return start(store, address, DEFAULT_BATCH_MILLIS, DEFAULT_MAX_LOG_BYTES);
+    }
+
+    public static ReplicationPrimary start(InventoryStore store, InetSocketAddress address, long batchMillis,
+                                           long maxLogBytes) throws IOException {
+        ReplicationPrimary primary = new ReplicationPrimary(store, address, batchMillis, maxLogBytes);
+        store.addListener(primary);
+        store.metrics().gauge(SEQ_GAUGE, "Changes recorded for replicas", primary::sequence);
+        store.metrics().gauge(REPLICAS_GAUGE, "Replicas connected", () -> primary.sessions.size());
+        primary.thread.start();
+        return primary;
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    /** Identifies this run of the primary; see {@link InventoryReplica#awaitSequence}. */
+    public long epoch() {
+        return epoch;
+    }
+
+    /** Number of changes recorded so far; a replica that has applied this many is up to date. */
+    public long sequence() {
+        appendLock.lock();
+        try {
+            return lastSeq;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /** Connected replicas by address, with how many sealed records each has yet to acknowledge. */
+    public Map<String, Long> replicas() {
+        Map<String, Long> replicas = new LinkedHashMap<>();
+        long sealed = sealedSeq;
+        for (Session session : sessions) {
+            replicas.put(session.address, Math.max(0, sealed - session.acked));
+        }
+        return replicas;
+    }
+
+    // --- StoreListener: encode into the pending batch ---
+
+    @Override
+    public void itemCreated(InventoryItem item, int quantity, double price) {
+        byte[] name = item.getName().getBytes(StandardCharsets.UTF_8);
+        appendLock.lock();
+        try {
+            append(CREATE, 8 + 4 + 8 + 4 + name.length)
+                    .putLong(item.id).putInt(quantity).putLong(item.getPriceCents()).putInt(name.length).put(name);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void quantityChanged(InventoryItem item, int oldQuantity, int newQuantity) {
+        stateChanged(item);
+    }
+
+    @Override
+    public void priceChanged(InventoryItem item, double oldPrice, double newPrice) {
+        stateChanged(item);
+    }
+
+    private void stateChanged(InventoryItem item) {
+        appendLock.lock();
+        try {
+            // Read under the lock, so the item's records carry ever later states
+            long state = item.liveState();
+            if (state == InventoryItem.RETIRED) {
+                return; // the rename or delete record carries its final state
+            }
+            if (item.id == lastStateId && state == lastState) {
+                return; // the other half of a quantity and price change
+            }
+            append(STATE, 8 + 4 + 8)
+                    .putLong(item.id).putInt(InventoryItem.quantityOf(state)).putLong(InventoryItem.priceCentsOf(state));
+            lastStateId = item.id;
+            lastState = state;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void itemRenamed(InventoryItem from, InventoryItem to, int quantity) {
+        byte[] name = to.getName().getBytes(StandardCharsets.UTF_8);
+        appendLock.lock();
+        try {
+            append(RENAME, 8 + 8 + 4 + 8 + 4 + name.length).putLong(from.id).putLong(to.id)
+                    .putInt(quantity).putLong(to.getPriceCents()).putInt(name.length).put(name);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void itemDeleted(InventoryItem item, int finalQuantity) {
+        appendLock.lock();
+        try {
+            append(DELETE, 8).putLong(item.id);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /** Records before a replacement are dropped; every replica gets a new snapshot instead. */
+    @Override
+    public void storeReset(List<InventoryItem> items) {
+        appendLock.lock();
+        try {
+            pending.clear();
+            resetSeq = ++lastSeq;
+            lastStateId = -1;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Caller holds appendLock; returns the pending buffer positioned at the record body
+    private ByteBuffer append(byte type, int bodyBytes) {
+        int needed = 1 + bodyBytes;
+        if (pending.remaining() < needed) {
+            ByteBuffer grown = newBuffer(Math.max(pending.capacity() * 2, pending.position() + needed));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        lastSeq++;
+        return pending.put(type);
+    }
+
+    // --- Selector thread ---
+
+    private void run() {
+        long nextHeartbeat = 0;
+        while (running) {
+            try {
+                selector.select(batchMillis);
+                if (!running) {
+                    break;
+                }
+                seal();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Session session = (Session) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(session);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            pump(session);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        drop(session, e);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                boolean heartbeat = now >= nextHeartbeat;
+                if (heartbeat) {
+                    nextHeartbeat = now + HEARTBEAT_MILLIS;
+                }
+                for (Session session : sessions) {
+                    session.heartbeatDue |= heartbeat;
+                    if (!session.greeted || session.out != null) {
+                        continue; // still writing; the selector calls back when it can go on
+                    }
+                    try {
+                        pump(session);
+                    } catch (IOException | RuntimeException e) {
+                        drop(session, e);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Replication: " + e.getMessage());
+            }
+        }
+    }
+
+    // Moves the pending records into a batch frame at the end of the log
+    private void seal() {
+        long now = System.currentTimeMillis();
+        ByteBuffer records;
+        long last;
+        long reset;
+        appendLock.lock();
+        try {
+            if (pending.position() == 0 && resetSeq == sealedReset) {
+                sealedMillis = now;
+                return;
+            }
+            records = pending;
+            pending = newBuffer(Math.max(64 * 1024, records.position()));
+            last = lastSeq;
+            reset = resetSeq;
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (reset != sealedReset) {
+            log.clear();
+            logBytes = 0;
+            sealedReset = reset;
+        }
+        long first = Math.max(sealedSeq, reset) + 1;
+        int count = (int) (last - first + 1);
+        if (count > 0) {
+            records.flip();
+            ByteBuffer frame = frame(BATCH, 8 + 4 + 8 + records.remaining())
+                    .putLong(first).putInt(count).putLong(now).put(records);
+            finish(frame);
+            log.put(first, new Batch(last, frame.array()));
+            logBytes += frame.capacity();
+        }
+        sealedSeq = last;
+        sealedMillis = now;
+        while (logBytes > maxLogBytes && log.size() > 1) {
+            logBytes -= log.pollFirstEntry().getValue().frame.length;
+        }
+        logBase = log.isEmpty() ? sealedSeq + 1 : log.firstKey();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Session session = new Session(channel);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+        sessions.add(session);
+    }
+
+    private void read(Session session) throws IOException {
+        if (session.channel.read(session.in) < 0) {
+            throw new IOException("closed by replica");
+        }
+        session.in.flip();
+        while (session.in.remaining() >= 5) {
+            int length = session.in.getInt(session.in.position());
+            if (length < 1 || length > session.in.capacity() - 4) {
+                throw new IOException("bad frame from replica");
+            }
+            if (session.in.remaining() < 4 + length) {
+                break;
+            }
+            session.in.getInt();
+            byte type = session.in.get();
+            if (type == HELLO && !session.greeted) {
+                long replicaEpoch = session.in.getLong();
+                long seq = session.in.getLong();
+                session.greeted = true;
+                if (replicaEpoch == epoch && seq >= logBase - 1 && seq <= sealedSeq) {
+                    session.cursor = seq;
+                    session.out = frame(RESUME, 16).putLong(epoch).putLong(seq);
+                    finish(session.out);
+                } else {
+                    session.out = startSnapshot(session);
+                }
+                pump(session);
+            } else if (type == ACK && session.greeted) {
+                session.acked = session.in.getLong();
+            } else {
+                throw new IOException("unexpected frame " + type + " from replica");
+            }
+        }
+        session.in.compact();
+    }
+
+    // Writes frames until the channel is full or there is nothing left to send
+    private void pump(Session session) throws IOException {
+        for (;;) {
+            if (session.out == null || !session.out.hasRemaining()) {
+                session.out = next(session);
+                if (session.out == null) {
+                    session.key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+            session.channel.write(session.out);
+            if (session.out.hasRemaining()) {
+                session.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    private ByteBuffer next(Session session) {
+        if (!session.greeted) {
+            return null;
+        }
+        if (session.snapshot != null) {
+            return snapshotChunk(session);
+        }
+        // Goes to replicas that are behind too, so they know how far
+        if (session.heartbeatDue) {
+            session.heartbeatDue = false;
+            return finish(frame(HEARTBEAT, 16).putLong(sealedSeq).putLong(sealedMillis));
+        }
+        if (session.cursor >= sealedSeq) {
+            return null;
+        }
+        if (session.cursor + 1 < logBase) {
+            return startSnapshot(session); // the records it needs are gone
+        }
+        // The batch holding the next record; records before it in the batch are applied again
+        Map.Entry<Long, Batch> entry = log.floorEntry(session.cursor + 1);
+        Batch batch = entry.getValue();
+        session.cursor = batch.lastSeq;
+        return ByteBuffer.wrap(batch.frame);
+    }
+
+    private ByteBuffer startSnapshot(Session session) {
+        // Read first: every record after this is either in the snapshot or replayed over it
+        long seq = sequence();
+        List<InventoryItem> items = store.consistentSnapshot();
+        session.snapshot = items;
+        session.snapshotNext = 0;
+        session.cursor = seq;
+        ByteBuffer frame = frame(SNAPSHOT, 8 + 8 + 8 + 4)
+                .putLong(epoch).putLong(seq).putLong(System.currentTimeMillis()).putInt(items.size());
+        return finish(frame);
+    }
+
+    private ByteBuffer snapshotChunk(Session session) {
+        List<InventoryItem> items = session.snapshot;
+        if (session.snapshotNext == items.size()) {
+            session.snapshot = null;
+            return next(session);
+        }
+        ByteBuffer frame = frame(ITEMS, SNAPSHOT_CHUNK_BYTES);
+        int countAt = frame.position();
+        frame.putInt(0);
+        int count = 0;
+        while (session.snapshotNext < items.size()) {
+            InventoryItem item = items.get(session.snapshotNext);
+            byte[] name = item.getName().getBytes(StandardCharsets.UTF_8);
+            if (frame.remaining() < 8 + 4 + 8 + 4 + name.length) {
+                if (count > 0) {
+                    break;
+                }
+                frame = grow(frame, 8 + 4 + 8 + 4 + name.length);
+            }
+            long state = item.state();
+            frame.putLong(item.id).putInt(InventoryItem.quantityOf(state)).putLong(InventoryItem.priceCentsOf(state))
+                    .putInt(name.length).put(name);
+            session.snapshotNext++;
+            count++;
+        }
+        frame.putInt(countAt, count);
+        return finish(frame);
+    }
+
+    private void drop(Session session, Exception cause) {
+        sessions.remove(session);
+        session.key.cancel();
+        try {
+            session.channel.close();
+        } catch (IOException ignored) {
+            // already gone
+        }
+        if (running && !(cause instanceof IOException)) {
+            System.err.println("Replication: dropped " + session.address + ": " + cause);
+        }
+    }
+
+    // A frame with room for 'bodyBytes', positioned after its type
+    private static ByteBuffer frame(byte type, int bodyBytes) {
+        return newBuffer(4 + 1 + bodyBytes).putInt(0).put(type);
+    }
+
+    // Fills in the length and flips the frame for writing
+    private static ByteBuffer finish(ByteBuffer frame) {
+        frame.putInt(0, frame.position() - 4);
+        return frame.flip();
+    }
+
+    private static ByteBuffer grow(ByteBuffer frame, int needed) {
+        ByteBuffer grown = newBuffer(frame.position() + needed);
+        frame.flip();
+        return grown.put(frame);
+    }
+
+    static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Stops shipping changes and disconnects every replica; they keep what they have. */
+    @Override
+    public void close() throws IOException {
+        store.removeListener(this);
+        store.metrics().removeGauge(SEQ_GAUGE);
+        store.metrics().removeGauge(REPLICAS_GAUGE);
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Session session : sessions) {
+            session.channel.close();
+        }
+        sessions.clear();
+        server.close();
+        selector.close();
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Ordered indexes on quantity, unit price and total value, used by the store's range
+ * reports ({@link InventoryStore#lowStock}, {@link InventoryStore#priceBetween},
+ * {@link InventoryStore#topByValue}).
+ *
+ * <p>Each index is a skip list of (key, id) entries, so a range costs O(log n) to find plus
+ * O(1) per item visited, and can be walked lazily a page at a time instead of collected.
+ * A change only touches the indexes whose key it changes.
+ *
+ * <p>Quantity changes are lock-free CAS updates on the item and must stay cheap, so a change
+ * only marks its item stale and queues it, once, until the next query. Each query first
+ * re-files the queued items; a hot item adjusted a million times between reports is
+ * re-filed once, and a change costs a volatile read when its item is already queued. So
+ * that a store nobody queries does not keep stale entries and retired items forever, the
+ * change that queues the {@value #MAX_STALE}th item re-files the queue itself.
+ *
+ * <p>Rather than replaying each transition, {@link #sync} moves the item's entries from
+ * whatever state they were last filed under to the item's current state, under the item's
+ * monitor, so racing changes can finish in any order. While changes are in flight an entry
+ * can lag its item for a moment, and the queries re-check the live value. Like any weakly
+ * consistent iterator, a walk that overlaps a move may miss the moving item or see it
+ * twice.
+ */
+final class StockIndex {
+    static final int MAX_STALE = 4096;
+
+    private static final AtomicIntegerFieldUpdater<InventoryItem> QUEUED =
+            AtomicIntegerFieldUpdater.newUpdater(InventoryItem.class, "queued");
+
+    /** An item filed under one key. Keys are snapshots; the item may have moved on. */
+    private static final class Entry implements Comparable<Entry> {
+        final long key;
+        final long id;
+        final InventoryItem item;
+
+        Entry(long key, long id, InventoryItem item) {
+            this.key = key;
+            this.id = id;
+            this.item = item;
+        }
+
+        // Sorts before or after every real entry with this key
+        static Entry bound(long key, boolean high) {
+            return new Entry(key, high ? Long.MAX_VALUE : Long.MIN_VALUE, null);
+        }
+
+        // Written out rather than chained Comparators: this runs on every skip list hop
+        @Override
+        public int compareTo(Entry other) {
+            if (key != other.key) {
+                return key < other.key ? -1 : 1;
+            }
+            if (id != other.id) {
+                return id < other.id ? -1 : 1;
+            }
+            return item == other.item ? 0 : item.getName().compareTo(other.item.getName());
+        }
+    }
+
+    private final NavigableSet<Entry> byQuantity = new ConcurrentSkipListSet<>();
+    private final NavigableSet<Entry> byPrice = new ConcurrentSkipListSet<>();
+    private final NavigableSet<Entry> byValue = new ConcurrentSkipListSet<>();
+    private final Queue<InventoryItem> stale = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size() walks the queue, so the length is counted separately
+    private final AtomicInteger staleCount = new AtomicInteger();
+    private final AtomicBoolean catchingUp = new AtomicBoolean();
+
+    /** Notes that {@code item} was created, changed or retired; it is re-filed before the next query. */
+    void changed(InventoryItem item) {
+        // The item's state was written before this read, so either we queue it here or the
+        // catch-up that cleared the flag reads the new state afterwards
+        if (item.queued == 0 && QUEUED.compareAndSet(item, 0, 1)) {
+            stale.add(item);
+            // One writer re-files the backlog while the others carry on
+            if (staleCount.incrementAndGet() >= MAX_STALE && catchingUp.compareAndSet(false, true)) {
+                try {
+                    catchUp(staleCount.get()); // bounded, so a steady stream of changes cannot keep it here
+                } finally {
+                    catchingUp.set(false);
+                }
+            }
+        }
+    }
+
+    private void catchUp() {
+        catchUp(Integer.MAX_VALUE);
+    }
+
+    private void catchUp(int limit) {
+        InventoryItem item;
+        for (int i = 0; i < limit && (item = stale.poll()) != null; i++) {
+            staleCount.decrementAndGet();
+            item.queued = 0; // clear first, so a change from now on queues the item again
+            sync(item);
+        }
+    }
+
+    /** Re-files {@code item} under its current state, or drops it if it has been retired. */
+    void sync(InventoryItem item) {
+        synchronized (item) {
+            long current = item.liveState();
+            long filed = item.indexed;
+            if (current == filed) {
+                return;
+            }
+            // Most changes move only the quantity, so leave an index alone if its key is unchanged
+            move(byQuantity, item, filed, current, InventoryItem::quantityOf);
+            move(byPrice, item, filed, current, InventoryItem::priceCentsOf);
+            move(byValue, item, filed, current, InventoryItem::valueCentsOf);
+            item.indexed = current;
+        }
+    }
+
+    private static void move(NavigableSet<Entry> index, InventoryItem item, long from, long to, LongUnaryOperator key) {
+        boolean wasFiled = from != InventoryItem.RETIRED;
+        boolean staysFiled = to != InventoryItem.RETIRED;
+        long oldKey = wasFiled ? key.applyAsLong(from) : 0;
+        long newKey = staysFiled ? key.applyAsLong(to) : 0;
+        if (wasFiled && staysFiled && oldKey == newKey) {
+            return;
+        }
+        if (wasFiled) {
+            index.remove(new Entry(oldKey, item.id, item));
+        }
+        if (staysFiled) {
+            index.add(new Entry(newKey, item.id, item));
+        }
+    }
+
+    /** Items with quantity from {@code from} up to but not including {@code threshold}, in ascending quantity. */
+    Iterator<InventoryItem> quantityBetween(int from, int threshold) {
+        if (from >= threshold) {
+            return Collections.emptyIterator();
+        }
+        catchUp();
+        return items(byQuantity.subSet(Entry.bound(from, false), true, Entry.bound(threshold, false), false),
+                InventoryItem::quantityOf);
+    }
+
+    /** Items priced from {@code minCents} to {@code maxCents} inclusive, in ascending price. */
+    Iterator<InventoryItem> priceBetween(long minCents, long maxCents) {
+        if (minCents > maxCents) {
+            return Collections.emptyIterator();
+        }
+        catchUp();
+        return items(byPrice.subSet(Entry.bound(minCents, false), true, Entry.bound(maxCents, true), true),
+                InventoryItem::priceCentsOf);
+    }
+
+    /** Items with a total value of at most {@code maxCents}, highest first. */
+    Iterator<InventoryItem> byValueDescending(long maxCents) {
+        catchUp();
+        return items(byValue.headSet(Entry.bound(maxCents, true), true).descendingSet(), InventoryItem::valueCentsOf);
+    }
+
+    // Lazily walks a range, skipping entries whose item has been retired or has moved on
+    // from the key it is filed under: it is re-filed before the next query, and a walk that
+    // is still going may meet it again at its new key
+    private static Iterator<InventoryItem> items(NavigableSet<Entry> range, LongUnaryOperator key) {
+        Iterator<Entry> entries = range.iterator();
+        return new Iterator<InventoryItem>() {
+            private InventoryItem next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && entries.hasNext()) {
+                    Entry entry = entries.next();
+                    long state = entry.item.liveState();
+                    if (state != InventoryItem.RETIRED && key.applyAsLong(state) == entry.key) {
+                        next = entry.item;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public InventoryItem next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                InventoryItem result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * One change to an {@link InventoryStore}, as delivered in batches by a {@link ChangePublisher}.
+ * Fields that do not apply to a kind are zero or null.
+ *
+ * <p>Batches are coalesced, so an {@link Kind#ITEM_ADDED} item may already have moved on
+ * from the values it was created with, and a {@link Kind#QUANTITY_CHANGED} may span many
+ * adjustments, reported in any order (see {@link StoreListener}); its quantities then are
+ * the item's quantity when the batch was drawn up and that less the adjustments' net
+ * change. Read the item for its current values.
+ */
+public final class StoreChange {
+
+    public enum Kind {
+        ITEM_ADDED,
+        QUANTITY_CHANGED,
+        PRICE_CHANGED,
+        /** {@link #from} has been retired and replaced by {@link #item} under a new name. */
+        RENAMED,
+        DELETED,
+        /**
+         * The whole inventory was replaced, or changes came faster than the publisher would
+         * hold; subscribers should reread the store. Always first in its batch.
+         */
+        RESET
+    }
+
+    public final Kind kind;
+    public final InventoryItem item;
+    public final InventoryItem from;
+    public final int oldQuantity;
+    public final int newQuantity;
+    public final double oldPrice;
+    public final double newPrice;
+
+    private StoreChange(Kind kind, InventoryItem item, InventoryItem from,
+                        int oldQuantity, int newQuantity, double oldPrice, double newPrice) {
+        this.kind = kind;
+        this.item = item;
+        this.from = from;
+        this.oldQuantity = oldQuantity;
+        this.newQuantity = newQuantity;
+        this.oldPrice = oldPrice;
+        this.newPrice = newPrice;
+    }
+
+    static StoreChange added(InventoryItem item, int quantity, double price) {
+        return new StoreChange(Kind.ITEM_ADDED, item, null, 0, quantity, 0, price);
+    }
+
+    static StoreChange quantityChanged(InventoryItem item, int oldQuantity, int newQuantity) {
+        return new StoreChange(Kind.QUANTITY_CHANGED, item, null, oldQuantity, newQuantity, 0, 0);
+    }
+
+    static StoreChange priceChanged(InventoryItem item, double oldPrice, double newPrice) {
+        return new StoreChange(Kind.PRICE_CHANGED, item, null, 0, 0, oldPrice, newPrice);
+    }
+
+    static StoreChange renamed(InventoryItem from, InventoryItem to, int quantity) {
+        return new StoreChange(Kind.RENAMED, to, from, quantity, quantity, 0, 0);
+    }
+
+    static StoreChange deleted(InventoryItem item, int finalQuantity) {
+        return new StoreChange(Kind.DELETED, item, null, finalQuantity, 0, 0, 0);
+    }
+
+    static final StoreChange RESET = new StoreChange(Kind.RESET, null, null, 0, 0, 0, 0);
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case QUANTITY_CHANGED:
+                return kind + " " + item.getName() + " " + oldQuantity + " -> " + newQuantity;
+            case PRICE_CHANGED:
+                return kind + " " + item.getName() + " " + oldPrice + " -> " + newPrice;
+            case RENAMED:
+                return kind + " " + from.getName() + " -> " + item.getName();
+            case RESET:
+                return kind.toString();
+            default:
+                return kind + " " + item.getName();
+        }
+    }
+}
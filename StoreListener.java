@@ -0,0 +1,46 @@
+import java.util.List;
+
+/**
+ * Receives every change {@link InventoryStore} makes. Callbacks run on the mutating thread,
+ * sometimes while a store lock is held, so implementations must be quick and must not call
+ * back into the store's writers.
+ *
+ * <p>Changes made under the item's stripe lock (creation, overwrites, receipts, price
+ * changes, renames, deletions, resets) are reported in the order they were made for any
+ * one item. {@link InventoryStore#adjustQuantity} takes no lock and reports after its
+ * compare-and-set, so its {@link #quantityChanged} can arrive before or after the reports
+ * of changes made around it, even after the item's deletion. Each report's old and new
+ * quantities are exact for that one step, so listeners should act on their difference,
+ * which adds up correctly in any order, and not take {@code newQuantity} as the item's
+ * current quantity.
+ *
+ * <p>Values are passed explicitly rather than read back from the item because the item is
+ * already visible to other threads and may have moved on by the time the callback runs.
+ */
+public interface StoreListener {
+    void itemCreated(InventoryItem item, int quantity, double price);
+
+    void quantityChanged(InventoryItem item, int oldQuantity, int newQuantity);
+
+    /**
+     * The quantity was overwritten, as by {@link InventoryStore#upsert}, rather than moved by
+     * a receipt or an adjustment. Listeners that do not care about the difference get
+     * {@link #quantityChanged}.
+     */
+    default void quantitySet(InventoryItem item, int oldQuantity, int newQuantity) {
+        quantityChanged(item, oldQuantity, newQuantity);
+    }
+
+    void priceChanged(InventoryItem item, double oldPrice, double newPrice);
+
+    /** {@code from} has been retired and replaced by {@code to}, which took over {@code quantity}. */
+    void itemRenamed(InventoryItem from, InventoryItem to, int quantity);
+
+    void itemDeleted(InventoryItem item, int finalQuantity);
+
+    /**
+     * Called before {@code items} replace the whole inventory; none of them is visible yet.
+     * Every writer is held off meanwhile, so the items still in the store are at their final state.
+     */
+    void storeReset(List<InventoryItem> items);
+}
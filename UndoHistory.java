@@ -0,0 +1,361 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-level undo and redo for an {@link InventoryStore}, recorded from its listener
+ * callbacks as compact inverse commands rather than copies of the inventory: each change
+ * costs one entry in a few parallel arrays, and undoing a group costs one store call per
+ * entry, however large the inventory is.
+ *
+ * <p>Changes are grouped so that one user action undoes as one step:
+ * <pre>
+ * history.begin("Delete bolt");
+ * try {
+ *     store.delete("bolt");
+ * } finally {
+ *     history.end();
+ * }
+ * </pre>
+ * A group belongs to the thread that opened it: the changes that thread makes join it, as
+ * do those the store's pool threads make for it while applying a large batch (see
+ * {@link InventoryStore#changingThread()}), and a {@code begin} on that thread while it is
+ * open joins it too. Changes from any other thread are kept out of it, so an edit made on
+ * the EDT while an import runs in the background is not undone with the import. Each
+ * thread can have a group of its own open, and a change made for a thread with none is a
+ * step of its own. Steps go on the history as they end.
+ *
+ * <p>Undoing a group applies its inverse, newest entry first, and records the changes that
+ * makes as the group that redo will apply; redo does the same in the other direction. An
+ * entry that no longer applies, because its item was changed since by something outside the
+ * history, is skipped and the rest still applied; the {@link Result} counts the entries
+ * skipped, so the step can be reported as only partly undone. A new
+ * step clears the redo history. The history is capped at about {@code maxBytes}; the oldest
+ * steps are dropped first. A single step larger than the cap, or a reload of the whole
+ * inventory, cannot be undone, and since the steps before it may no longer apply, it clears
+ * the history.
+ */
+public final class UndoHistory implements StoreListener {
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    // Rough heap cost of one entry: its slot in each array, with room for growth
+    private static final int ENTRY_BYTES = 24;
+    // A deleted item's name is kept alive only by the history, so it is counted as well
+    private static final int STRING_BYTES = 40;
+
+    private static final byte CREATED = 0;   // value unused
+    private static final byte DELETED = 1;   // value: packed quantity and price at deletion
+    private static final byte QUANTITY = 2;  // value: quantity delta
+    private static final byte PRICE = 3;     // value: old price cents << 32 | new price cents
+    private static final byte RENAMED = 4;   // name: old name, target: new name
+
+    /** What {@link #undo()} or {@link #redo()} did. */
+    public static final class Result {
+        /** The step's label. */
+        public final String label;
+        /** Entries that no longer applied and were skipped; 0 if the whole step was applied. */
+        public final int skipped;
+
+        Result(String label, int skipped) {
+            this.label = label;
+            this.skipped = skipped;
+        }
+    }
+
+    /** One undoable step: its changes in the order they were made. */
+    private static final class Group {
+        final String label;
+        byte[] kinds = new byte[4];
+        String[] names = new String[4];
+        long[] values = new long[4];
+        String[] targets; // only once a rename is recorded
+        int size;
+        long bytes;
+        boolean lost; // outgrew the cap, so its entries were let go
+        int depth; // begin() calls not yet ended, while open
+
+        Group(String label) {
+            this.label = label;
+        }
+
+        void add(byte kind, String name, String target, long value) {
+            if (lost) {
+                return;
+            }
+            // Adjustments to the same item in a row fold into one entry
+            if (kind == QUANTITY && size > 0 && kinds[size - 1] == QUANTITY && names[size - 1].equals(name)) {
+                values[size - 1] += value;
+                return;
+            }
+            if (size == kinds.length) {
+                int capacity = size * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                names = Arrays.copyOf(names, capacity);
+                values = Arrays.copyOf(values, capacity);
+                if (targets != null) {
+                    targets = Arrays.copyOf(targets, capacity);
+                }
+            }
+            if (target != null && targets == null) {
+                targets = new String[kinds.length];
+            }
+            kinds[size] = kind;
+            names[size] = name;
+            values[size] = value;
+            if (target != null) {
+                targets[size] = target;
+            }
+            size++;
+            bytes += ENTRY_BYTES + (kind == DELETED ? STRING_BYTES + 2L * name.length() : 0);
+        }
+
+        void lose() {
+            lost = true;
+            kinds = null;
+            names = null;
+            values = null;
+            targets = null;
+            size = 0;
+            bytes = 0;
+        }
+    }
+
+    private final InventoryStore store;
+    private final long maxBytes;
+    // Guarded by this; first is newest
+    private final Deque<Group> undo = new ArrayDeque<>();
+    private final Deque<Group> redo = new ArrayDeque<>();
+    private long bytes; // held by the groups on both stacks
+    private final Map<Thread, Group> open = new HashMap<>();
+    private Group capturing; // the inverse being recorded while an undo or redo runs
+    private Thread replaying; // the thread running it
+    private boolean running;
+
+    public UndoHistory(InventoryStore store) {
+        this(store, DEFAULT_MAX_BYTES);
+    }
+
+    public UndoHistory(InventoryStore store, long maxBytes) {
+        this.store = store;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens a group named {@code label} for this thread, or joins the one it already has
+     * open. Pair with {@link #end()} on the same thread.
+     */
+    public synchronized void begin(String label) {
+        open.computeIfAbsent(Thread.currentThread(), thread -> new Group(label)).depth++;
+    }
+
+    public synchronized void end() {
+        Group group = open.get(Thread.currentThread());
+        if (group == null) {
+            throw new IllegalStateException("end() without begin() on this thread");
+        }
+        if (--group.depth == 0) {
+            open.remove(Thread.currentThread());
+            finish(group);
+        }
+    }
+
+    public synchronized boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    public synchronized boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    /** The label of the step {@link #undo()} would undo, or null. */
+    public synchronized String undoLabel() {
+        return undo.isEmpty() ? null : undo.peekFirst().label;
+    }
+
+    public synchronized String redoLabel() {
+        return redo.isEmpty() ? null : redo.peekFirst().label;
+    }
+
+    /** Estimated heap held by the history. */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Undoes the newest step. Runs on the calling thread, one store call per entry, so call
+     * it off the EDT for large steps.
+     *
+     * @return the step undone and how much of it was skipped, or null if there was nothing
+     *         to undo
+     * @throws IllegalStateException if an undo or redo is already running
+     */
+    public Result undo() {
+        return replay(true);
+    }
+
+    /** Redoes the newest undone step; see {@link #undo()}. */
+    public Result redo() {
+        return replay(false);
+    }
+
+    private Result replay(boolean undoing) {
+        Group group;
+        Group inverse;
+        synchronized (this) {
+            if (running) {
+                throw new IllegalStateException("An undo or redo is already running");
+            }
+            group = (undoing ? undo : redo).pollFirst();
+            if (group == null) {
+                return null;
+            }
+            bytes -= group.bytes;
+            inverse = new Group(group.label);
+            capturing = inverse;
+            replaying = Thread.currentThread();
+            running = true;
+        }
+        // No lock is held here: the store calls below take stripe locks, and listener
+        // callbacks made under those locks need this object's
+        int skipped = 0;
+        try {
+            for (int i = group.size - 1; i >= 0; i--) {
+                try {
+                    apply(group, i);
+                } catch (IllegalArgumentException | ArithmeticException e) {
+                    skipped++; // changed since by something outside the history; the rest still applies
+                }
+            }
+        } finally {
+            synchronized (this) {
+                capturing = null;
+                replaying = null;
+                running = false;
+                if (inverse.lost) {
+                    clear();
+                } else if (inverse.size > 0) {
+                    (undoing ? redo : undo).addFirst(inverse);
+                    bytes += inverse.bytes;
+                    evict();
+                }
+            }
+        }
+        return new Result(group.label, skipped);
+    }
+
+    private void apply(Group group, int i) {
+        String name = group.names[i];
+        long value = group.values[i];
+        switch (group.kinds[i]) {
+            case CREATED:
+                store.delete(name);
+                break;
+            case DELETED:
+                store.upsert(name, InventoryItem.quantityOf(value), InventoryItem.priceCentsOf(value) / 100.0);
+                break;
+            case QUANTITY:
+                store.adjustQuantity(name, Math.toIntExact(-value));
+                break;
+            case PRICE:
+                // Adding no stock sets the price alone
+                if (store.contains(name)) {
+                    store.addStock(name, 0, (value >>> 32) / 100.0);
+                }
+                break;
+            case RENAMED:
+                store.rename(group.targets[i], name);
+                break;
+            default:
+                throw new IllegalStateException("Unknown entry kind " + group.kinds[i]);
+        }
+    }
+
+    // --- Recording; callbacks may come from any thread ---
+
+    private synchronized void record(byte kind, String name, String target, long value) {
+        Thread thread = InventoryStore.changingThread();
+        Group group = thread == replaying ? capturing : open.get(thread);
+        if (group == null) {
+            group = new Group("Change");
+            group.add(kind, name, target, value);
+            finish(group);
+            return;
+        }
+        group.add(kind, name, target, value);
+        if (group.bytes > maxBytes) {
+            group.lose();
+        }
+    }
+
+    // Caller holds the lock
+    private void finish(Group group) {
+        if (group.lost) {
+            clear();
+            return;
+        }
+        if (group.size == 0) {
+            return;
+        }
+        undo.addFirst(group);
+        bytes += group.bytes;
+        for (Group dropped : redo) {
+            bytes -= dropped.bytes;
+        }
+        redo.clear();
+        evict();
+    }
+
+    // Drops the oldest steps until the history fits; caller holds the lock
+    private void evict() {
+        while (bytes > maxBytes && !(undo.isEmpty() && redo.isEmpty())) {
+            Group dropped = !undo.isEmpty() ? undo.pollLast() : redo.pollLast();
+            bytes -= dropped.bytes;
+        }
+    }
+
+    private void clear() {
+        undo.clear();
+        redo.clear();
+        bytes = 0;
+    }
+
+    @Override
+    public void itemCreated(InventoryItem item, int quantity, double price) {
+        record(CREATED, item.getName(), null, 0);
+    }
+
+    @Override
+    public void quantityChanged(InventoryItem item, int oldQuantity, int newQuantity) {
+        record(QUANTITY, item.getName(), null, (long) newQuantity - oldQuantity);
+    }
+
+    @Override
+    public void priceChanged(InventoryItem item, double oldPrice, double newPrice) {
+        record(PRICE, item.getName(), null, InventoryItem.toCents(oldPrice) << 32 | InventoryItem.toCents(newPrice));
+    }
+
+    @Override
+    public void itemRenamed(InventoryItem from, InventoryItem to, int quantity) {
+        record(RENAMED, from.getName(), to.getName(), 0);
+    }
+
+    @Override
+    public void itemDeleted(InventoryItem item, int finalQuantity) {
+        record(DELETED, item.getName(), null, InventoryItem.pack(finalQuantity, item.getPriceCents()));
+    }
+
+    /** A reload replaces everything, which the history cannot take back. */
+    @Override
+    public synchronized void storeReset(List<InventoryItem> items) {
+        clear();
+        for (Group group : open.values()) {
+            group.lose();
+        }
+        if (capturing != null) {
+            capturing.lose();
+        }
+    }
+}
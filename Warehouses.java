@@ -0,0 +1,240 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * Stock held at several locations, such as warehouses. Each location is a
+ * {@link InventoryStore} of its own, with its own locks, indexes and running totals, so
+ * updates at one site never contend with updates at another, and reports on one site
+ * only visit that site's items.
+ *
+ * <p>Rollups across locations are kept up to date from each store's listener callbacks:
+ * an item's total quantity over every location is an O(1) read, as is a location's total
+ * value and unit count (the store's own running sums). Totals over every location add up
+ * one number per location.
+ *
+ * <p>On disk, a set of locations is a directory with one {@code .inv} file per location,
+ * named after it, as written by {@link InventoryFiles}. The locations are not part of the
+ * main inventory: nothing journals them or records them for undo, so changes last only
+ * until {@link #save} writes them out.
+ */
+public final class Warehouses {
+    // Location names double as file names
+    private static final Pattern LOCATION_NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9 _.-]*");
+    private static final String EXTENSION = ".inv";
+
+    /** An item's stock summed over every location; guarded by its map bin, read without locking. */
+    private static final class Rollup {
+        volatile long units;
+        volatile int locations; // locations that list the item
+    }
+
+    private final ConcurrentSkipListMap<String, InventoryStore> locations = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Rollup> byItem = new ConcurrentHashMap<>();
+
+    /** The store for {@code location}, created empty if there is none yet. */
+    public InventoryStore location(String location) {
+        InventoryStore store = locations.get(location);
+        if (store != null) {
+            return store;
+        }
+        if (location == null || !LOCATION_NAME.matcher(location).matches()) {
+            throw new IllegalArgumentException("Location names use letters, digits, spaces, '_', '.' and '-': " + location);
+        }
+        return locations.computeIfAbsent(location, name -> {
+            InventoryStore created = new InventoryStore();
+            created.addListener(new RollupListener(created));
+            return created;
+        });
+    }
+
+    /** The store for {@code location}, or null if there is no such location. */
+    public InventoryStore find(String location) {
+        return locations.get(location);
+    }
+
+    /** Location names, in alphabetical order. */
+    public List<String> locations() {
+        return new ArrayList<>(locations.keySet());
+    }
+
+    /** Quantity of {@code item} over every location. O(1). */
+    public long unitsOf(String item) {
+        Rollup rollup = byItem.get(item);
+        return rollup == null ? 0 : rollup.units;
+    }
+
+    /** Number of locations that list {@code item}, even with no stock. O(1). */
+    public int locationCount(String item) {
+        Rollup rollup = byItem.get(item);
+        return rollup == null ? 0 : rollup.locations;
+    }
+
+    /** Quantity of {@code item} at each location that lists it, in location order. */
+    public Map<String, Integer> stockOf(String item) {
+        Map<String, Integer> stock = new LinkedHashMap<>();
+        for (Map.Entry<String, InventoryStore> location : locations.entrySet()) {
+            InventoryItem found = location.getValue().get(item);
+            if (found != null) {
+                stock.put(location.getKey(), found.getQuantity());
+            }
+        }
+        return stock;
+    }
+
+    /** Sum of quantity * price over every location, in cents. */
+    public long totalValueCents() {
+        long total = 0;
+        for (InventoryStore store : locations.values()) {
+            total += store.totalValueCents();
+        }
+        return total;
+    }
+
+    /** Sum of all quantities over every location. */
+    public long totalUnits() {
+        long total = 0;
+        for (InventoryStore store : locations.values()) {
+            total += store.totalUnits();
+        }
+        return total;
+    }
+
+    /**
+     * Moves {@code quantity} of {@code item} from one location to another. The stock joins
+     * the item's existing stock at the destination at the destination's price; only an item
+     * new to the destination takes its price at the source. The stock leaves the source
+     * first, so it is never counted twice.
+     *
+     * @throws IllegalArgumentException if either location or the item at the source does
+     *         not exist, or the source has too little stock
+     */
+    public void transfer(String item, int quantity, String from, String to) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity to transfer must be positive");
+        }
+        InventoryStore source = existing(from);
+        InventoryStore target = existing(to);
+        if (source == target) {
+            return;
+        }
+        InventoryItem sourceItem = source.get(item);
+        if (sourceItem == null) {
+            throw new IllegalArgumentException("No such item at " + from + ": " + item);
+        }
+        double price = sourceItem.getPrice();
+        source.adjustQuantity(item, -quantity);
+        try {
+            target.addStockKeepingPrice(item, quantity, price);
+        } catch (RuntimeException e) {
+            source.addStockKeepingPrice(item, quantity, price);
+            throw e;
+        }
+    }
+
+    private InventoryStore existing(String location) {
+        InventoryStore store = locations.get(location);
+        if (store == null) {
+            throw new IllegalArgumentException("No such location: " + location);
+        }
+        return store;
+    }
+
+    /**
+     * Loads every {@code .inv} file in {@code directory} into the location named after it,
+     * replacing that location's stock. Other locations are left as they are.
+     *
+     * @return the locations loaded
+     */
+    public List<String> load(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        List<String> loaded = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            String location = name.substring(0, name.length() - EXTENSION.length());
+            if (!LOCATION_NAME.matcher(location).matches()) {
+                continue; // not one of ours
+            }
+            InventoryFiles.load(location(location), file);
+            loaded.add(location);
+        }
+        loaded.sort(null);
+        return loaded;
+    }
+
+    /** Writes each location to its own {@code .inv} file in {@code directory}, creating it if need be. */
+    public void save(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        for (Map.Entry<String, InventoryStore> location : locations.entrySet()) {
+            InventoryFiles.save(location.getValue(), new File(directory, location.getKey() + EXTENSION));
+        }
+    }
+
+    // Applied under the item's map bin, so updates from different locations serialize per
+    // item only. A late quantity change can arrive after its item's deletion was counted,
+    // so an entry is dropped only once both numbers are back to zero.
+    private void rollUp(String item, long units, int locations) {
+        byItem.compute(item, (name, rollup) -> {
+            if (rollup == null) {
+                rollup = new Rollup();
+            }
+            rollup.units += units;
+            rollup.locations += locations;
+            return rollup.units == 0 && rollup.locations == 0 ? null : rollup;
+        });
+    }
+
+    /** Keeps the rollups in step with one location's store. */
+    private final class RollupListener implements StoreListener {
+        private final InventoryStore store;
+
+        RollupListener(InventoryStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public void itemCreated(InventoryItem item, int quantity, double price) {
+            rollUp(item.getName(), quantity, 1);
+        }
+
+        @Override
+        public void quantityChanged(InventoryItem item, int oldQuantity, int newQuantity) {
+            rollUp(item.getName(), (long) newQuantity - oldQuantity, 0);
+        }
+
+        @Override
+        public void priceChanged(InventoryItem item, double oldPrice, double newPrice) {
+        }
+
+        @Override
+        public void itemRenamed(InventoryItem from, InventoryItem to, int quantity) {
+            rollUp(from.getName(), -quantity, -1);
+            rollUp(to.getName(), quantity, 1);
+        }
+
+        @Override
+        public void itemDeleted(InventoryItem item, int finalQuantity) {
+            rollUp(item.getName(), -finalQuantity, -1);
+        }
+
+        // The store holds off every writer, so the outgoing items are at their final state
+        @Override
+        public void storeReset(List<InventoryItem> items) {
+            store.forEach(item -> rollUp(item.getName(), -item.getQuantity(), -1));
+            for (InventoryItem item : items) {
+                rollUp(item.getName(), item.getQuantity(), 1);
+            }
+        }
+    }
+}
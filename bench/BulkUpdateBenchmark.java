@@ -0,0 +1,111 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Times one bulk repricing and write-off pass over a catalog: a loop over the original
+ * {@code HashMap<String, Item>}, {@link InventoryStore#applyBulk} (one compare-and-set and
+ * one change event per item), {@link CompactInventory#applyBulk}, and the scalar and
+ * vector kernels on bare columns. The two kernels are also checked to give identical
+ * columns and results.
+ *
+ * <pre>
+ * javac -d out *.java bench/*.java
+ * javac --add-modules jdk.incubator.vector -cp out -d out vector/*.java
+ * java --add-modules jdk.incubator.vector -cp out BulkUpdateBenchmark [items] [passes]
+ * </pre>
+ *
+ * Defaults to 1,000,000 items and 20 passes; without {@code --add-modules} the vector rows
+ * fall back to the scalar kernel.
+ */
+public class BulkUpdateBenchmark {
+    private static final int FREE = -1;
+
+    // Prices climb 2.5% a pass on items under $80, and 1% of their stock is written off
+    private static final BulkUpdate RULE = BulkUpdate.all().pricedBelow(80).priceByPercent(2.5).writeOffPercent(1);
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0].replace("_", "").replace(",", "")) : 1_000_000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.println("Kernel: " + BulkUpdate.KERNEL.getClass().getSimpleName());
+        System.out.printf("%-16s %12s %14s%n", "engine", "ms/pass", "ns/item");
+
+        Map<String, InventoryManagementSystem.Item> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(name(i), new InventoryManagementSystem.Item(name(i), quantity(i), price(i)));
+        }
+        report("HashMap", size, time(passes, () -> {
+            for (InventoryManagementSystem.Item item : map.values()) {
+                if (item.price < 80) {
+                    item.price = Math.round(item.price * 102.5) / 100.0;
+                    item.quantity -= Math.round(item.quantity * 0.01);
+                }
+            }
+        }));
+
+        InventoryStore store = new InventoryStore();
+        for (int i = 0; i < size; i++) {
+            store.upsert(name(i), quantity(i), price(i));
+        }
+        report("InventoryStore", size, time(passes, () -> store.applyBulk(RULE)));
+
+        CompactInventory compact = new CompactInventory(size);
+        for (int i = 0; i < size; i++) {
+            compact.upsert(name(i), quantity(i), price(i));
+        }
+        report("Compact", size, time(passes, () -> compact.applyBulk(RULE)));
+
+        // Every tenth slot free, as after deletions
+        int[] quantities = new int[size];
+        long[] priceCents = new long[size];
+        int[] nameLengths = new int[size];
+        for (int i = 0; i < size; i++) {
+            quantities[i] = quantity(i);
+            priceCents[i] = InventoryItem.toCents(price(i));
+            nameLengths[i] = i % 10 == 9 ? FREE : name(i).length();
+        }
+        int[] vectorQuantities = quantities.clone();
+        long[] vectorPriceCents = priceCents.clone();
+        BulkUpdate.Result[] last = new BulkUpdate.Result[2];
+        report("scalar kernel", size, time(passes,
+                () -> last[0] = BulkUpdate.SCALAR.apply(RULE, quantities, priceCents, nameLengths, size, FREE)));
+        report("vector kernel", size, time(passes,
+                () -> last[1] = BulkUpdate.KERNEL.apply(RULE, vectorQuantities, vectorPriceCents, nameLengths, size, FREE)));
+
+        boolean same = java.util.Arrays.equals(quantities, vectorQuantities)
+                && java.util.Arrays.equals(priceCents, vectorPriceCents)
+                && last[0].matched == last[1].matched && last[0].changed == last[1].changed
+                && last[0].valueDeltaCents == last[1].valueDeltaCents && last[0].unitsDelta == last[1].unitsDelta;
+        System.out.println(same ? "Kernels agree" : "KERNELS DISAGREE");
+    }
+
+    private static String name(int i) {
+        return "SKU-" + i;
+    }
+
+    private static int quantity(int i) {
+        return i % 500;
+    }
+
+    private static double price(int i) {
+        return (i % 10_000) / 100.0;
+    }
+
+    // Best of the passes after a warm-up third, in nanoseconds
+    private static long time(int passes, Runnable pass) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < passes; i++) {
+            long begin = System.nanoTime();
+            pass.run();
+            long elapsed = System.nanoTime() - begin;
+            if (i >= passes / 3) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        return best;
+    }
+
+    private static void report(String engine, int size, long nanos) {
+        System.out.printf("%-16s %,12.2f %,14.2f%n", engine, nanos / 1e6, (double) nanos / size);
+    }
+}
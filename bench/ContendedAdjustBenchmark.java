@@ -0,0 +1,163 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Measures contended {@link InventoryStore#adjustQuantity} throughput at 1, 4, 16 and 64
+ * threads, all hammering a small set of hot SKUs, next to the same workload on a single
+ * synchronized map for comparison. Finally checks that the store's running totals still
+ * match a recount after adjustments and receipts race on the same items.
+ *
+ * <pre>
+ * javac -d out *.java bench/*.java
+ * java -cp out ContendedAdjustBenchmark [seconds-per-run] [hot-skus]
+ * </pre>
+ *
+ * The same workload runs under JMH, with its forks and warm-up, from the benchmark module in
+ * {@code jmh/}.
+ */
+public class ContendedAdjustBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 4, 16, 64};
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int hotSkus = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        Map<String, IntConsumer> adjusters = adjusters(hotSkus);
+        IntConsumer striped = adjusters.get("store");
+        IntConsumer globalLock = adjusters.get("global-lock");
+
+        // Warm up both paths before measuring
+        run(striped, 4, 1);
+        run(globalLock, 4, 1);
+
+        System.out.printf("%-8s %18s %18s%n", "threads", "store ops/s", "global-lock ops/s");
+        for (int threads : THREAD_COUNTS) {
+            double storeRate = run(striped, threads, seconds);
+            double lockRate = run(globalLock, threads, seconds);
+            System.out.printf("%-8d %,18.0f %,18.0f%n", threads, storeRate, lockRate);
+        }
+
+        String[] names = new String[hotSkus];
+        for (int i = 0; i < hotSkus; i++) {
+            names[i] = name(i);
+        }
+        checkTotals(names);
+    }
+
+    /**
+     * The two contenders over {@code hotSkus} items with ample stock: "store", through
+     * {@link InventoryStore#adjustQuantity}, and "global-lock", one synchronized map. A call
+     * with {@code i} receives one unit of SKU {@code i % hotSkus} and picks it again, two
+     * adjustments that leave the stock level. Also used by the JMH benchmark.
+     */
+    public static Map<String, IntConsumer> adjusters(int hotSkus) {
+        String[] names = new String[hotSkus];
+        InventoryStore store = new InventoryStore();
+        Map<String, int[]> lockedMap = new HashMap<>();
+        for (int i = 0; i < hotSkus; i++) {
+            names[i] = name(i);
+            store.upsert(names[i], 1_000_000, 1.0);
+            lockedMap.put(names[i], new int[]{1_000_000});
+        }
+
+        Map<String, IntConsumer> adjusters = new LinkedHashMap<>();
+        adjusters.put("store", i -> {
+            String name = names[i % names.length];
+            store.adjustQuantity(name, 1);
+            store.adjustQuantity(name, -1);
+        });
+        adjusters.put("global-lock", i -> {
+            String name = names[i % names.length];
+            synchronized (lockedMap) {
+                lockedMap.get(name)[0] += 1;
+            }
+            synchronized (lockedMap) {
+                lockedMap.get(name)[0] -= 1;
+            }
+        });
+        return adjusters;
+    }
+
+    private static String name(int i) {
+        return "SKU-" + i;
+    }
+
+    // Lock-free adjustments racing receipts (which take the stripe lock) on the same items
+    // must leave the running totals equal to a recount of the items
+    private static void checkTotals(String[] names) throws InterruptedException {
+        InventoryStore store = new InventoryStore();
+        for (String name : names) {
+            store.upsert(name, 1_000_000, 1.0);
+        }
+        Thread[] workers = new Thread[8];
+        for (int t = 0; t < workers.length; t++) {
+            boolean receiver = t % 2 == 0;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < 2_000_000; i++) {
+                    String name = names[i % names.length];
+                    if (receiver) {
+                        store.addStock(name, 1, 1.0 + i % 3);
+                    } else {
+                        store.adjustQuantity(name, 1);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long[] recount = new long[2];
+        store.forEach(item -> {
+            recount[0] += item.getQuantity();
+            recount[1] += item.getQuantity() * item.getPriceCents();
+        });
+        if (store.totalUnits() != recount[0] || store.totalValueCents() != recount[1]) {
+            throw new IllegalStateException("Running totals " + store.totalUnits() + " units, "
+                    + store.totalValueCents() + " cents; recount " + recount[0] + " units, " + recount[1] + " cents");
+        }
+        System.out.printf("Totals match a recount: %,d units, %,d cents%n", recount[0], recount[1]);
+    }
+
+    private static double run(IntConsumer adjuster, int threads, int seconds) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            workers[t] = new Thread(() -> {
+                int i = seed;
+                long local = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (running.get()) {
+                    adjuster.accept(i++ & Integer.MAX_VALUE);
+                    local += 2;
+                }
+                ops.add(local);
+            });
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        return ops.sum() / elapsed;
+    }
+}
@@ -0,0 +1,111 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Compares the retained heap and garbage-collection cost of three ways to hold a catalog:
+ * the original {@code HashMap<String, Item>}, {@link InventoryStore}, and the columnar
+ * {@link CompactInventory}. For each engine and size it reports the heap still in use after
+ * loading, GC time spent while loading, and the time of a full collection over the loaded
+ * catalog, which grows with the number of live objects the collector has to trace.
+ *
+ * <pre>
+ * javac -d out *.java bench/*.java
+ * java -Xmx12g -XX:+UseParallelGC -cp out FootprintBenchmark [items...]
+ * </pre>
+ *
+ * Sizes default to 1,000,000 and 10,000,000; the 10M HashMap and store runs need a heap of
+ * several gigabytes.
+ */
+public class FootprintBenchmark {
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? parse(args) : new int[]{1_000_000, 10_000_000};
+
+        System.out.printf("%-10s %-14s %12s %10s %14s %14s%n",
+                "items", "engine", "heap MB", "bytes/item", "load GC ms", "full GC ms");
+        for (int size : sizes) {
+            measure(size, "HashMap", FootprintBenchmark::loadHashMap);
+            measure(size, "InventoryStore", FootprintBenchmark::loadStore);
+            measure(size, "Compact", FootprintBenchmark::loadCompact);
+        }
+    }
+
+    private static int[] parse(String[] args) {
+        int[] sizes = new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i].replace("_", "").replace(",", ""));
+        }
+        return sizes;
+    }
+
+    private static String name(int i) {
+        return "SKU-" + i;
+    }
+
+    private static Object loadHashMap(int size) {
+        Map<String, InventoryManagementSystem.Item> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(name(i), new InventoryManagementSystem.Item(name(i), i % 500, (i % 10_000) / 100.0));
+        }
+        return map;
+    }
+
+    private static Object loadStore(int size) {
+        InventoryStore store = new InventoryStore();
+        for (int i = 0; i < size; i++) {
+            store.upsert(name(i), i % 500, (i % 10_000) / 100.0);
+        }
+        return store;
+    }
+
+    private static Object loadCompact(int size) {
+        CompactInventory inventory = new CompactInventory();
+        for (int i = 0; i < size; i++) {
+            inventory.upsert(name(i), i % 500, (i % 10_000) / 100.0);
+        }
+        return inventory;
+    }
+
+    private static void measure(int size, String engine, IntFunction<Object> loader) {
+        long before = settledHeap();
+        long gcBefore = gcMillis();
+        Object catalog;
+        try {
+            catalog = loader.apply(size);
+        } catch (OutOfMemoryError e) {
+            System.out.printf("%-10d %-14s %12s%n", size, engine, "out of memory");
+            return;
+        }
+        long loadGc = gcMillis() - gcBefore;
+        long retained = settledHeap() - before;
+
+        long fullBegin = System.nanoTime();
+        System.gc();
+        long fullGc = (System.nanoTime() - fullBegin) / 1_000_000;
+
+        System.out.printf("%-10d %-14s %,12.1f %10.1f %,14d %,14d%n", size, engine,
+                retained / (1024.0 * 1024.0), (double) retained / size, loadGc, fullGc);
+        // Keep the catalog reachable until everything above has been measured
+        Reference.reachabilityFence(catalog);
+    }
+
+    private static long settledHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
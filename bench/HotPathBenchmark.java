@@ -0,0 +1,339 @@
+import com.sun.management.ThreadMXBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.text.NumberFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Times the paths the application leans on, over synthetic catalogs of 10K, 1M and 10M
+ * items (see {@link SyntheticCatalog}):
+ * <ul>
+ * <li>{@code updateTable} - refilling the main table's model from the store;
+ * <li>{@code search} - a four-letter search box query;
+ * <li>{@code valueReport} - building the first page of the Inventory Value Report and
+ *     formatting a screenful of it;
+ * <li>{@code lowStockReport} - building the first page of the Low Stock Report;
+ * <li>{@code breakdown} - the parallel pass behind the price band and quantity breakdown;
+ * <li>{@code save} and {@code load} - writing and reading the whole catalog as an .inv file.
+ * </ul>
+ * Each operation is warmed up and then run back to back for a fixed time. The report gives
+ * throughput, latency percentiles, and allocation and GC work per operation, and is also
+ * written as JSON so runs can be kept and compared.
+ *
+ * <pre>
+ * javac -d out *.java bench/*.java
+ * java -Xmx16g -cp out HotPathBenchmark [--sizes=10000,1000000,10000000] [--names=uniform:8:40]
+ *      [--ops=search,save,...] [--warmup=2] [--seconds=5] [--out=hotpaths.json]
+ * </pre>
+ *
+ * Allocation is counted across all threads, so the parallel parts of a load are included.
+ * This is a plain harness, not JMH: it runs everything in one JVM and does not guard against
+ * every optimization a JIT may make, so compare runs made the same way on the same machine.
+ * It needs nothing but the JDK; the same operations run under JMH, with its warm-up, forks,
+ * dead-code protection and gc profiler, from the benchmark module in {@code jmh/}.
+ */
+public class HotPathBenchmark {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final int MIN_SAMPLES = 3;
+    private static final int LOW_STOCK_THRESHOLD = 10;
+    private static final int REPORT_PAGE_SIZE = 500;
+    private static final int SCREEN_ROWS = 40;
+
+    /** One timed call; the result is kept so the work cannot be optimized away. */
+    interface Operation {
+        Object run(int iteration) throws Exception;
+    }
+
+    static final class Result {
+        final String operation;
+        final int items;
+        final String names;
+        final long samples;
+        final double opsPerSecond;
+        final long[] percentileNanos;
+        final long maxNanos;
+        final double bytesPerOp;
+        final long gcCount;
+        final long gcMillis;
+
+        Result(String operation, int items, String names, long samples, double opsPerSecond,
+               long[] percentileNanos, long maxNanos, double bytesPerOp, long gcCount, long gcMillis) {
+            this.operation = operation;
+            this.items = items;
+            this.names = names;
+            this.samples = samples;
+            this.opsPerSecond = opsPerSecond;
+            this.percentileNanos = percentileNanos;
+            this.maxNanos = maxNanos;
+            this.bytesPerOp = bytesPerOp;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+    }
+
+    private static Object sink; // keeps results reachable
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        int[] sizes = Arrays.stream(options.getOrDefault("sizes", "10000,1000000,10000000").split(","))
+                .mapToInt(s -> Integer.parseInt(s.trim().replace("_", ""))).toArray();
+        String names = options.getOrDefault("names", "uniform:8:40");
+        List<String> ops = Arrays.asList(options.getOrDefault("ops",
+                "updateTable,search,valueReport,lowStockReport,breakdown,save,load").split(","));
+        double warmup = Double.parseDouble(options.getOrDefault("warmup", "2"));
+        double seconds = Double.parseDouble(options.getOrDefault("seconds", "5"));
+        File out = new File(options.getOrDefault("out", "hotpaths.json"));
+
+        List<Result> results = new ArrayList<>();
+        System.out.printf("%-10s %-15s %8s %12s %12s %12s %12s %12s %14s %6s%n", "items", "operation", "samples",
+                "ops/s", "p50 us", "p99 us", "p99.9 us", "max us", "bytes/op", "gc ms");
+        for (int size : sizes) {
+            SyntheticCatalog catalog = new SyntheticCatalog(size, names, 42);
+            InventoryStore store = catalog.newStore();
+            File file = File.createTempFile("hotpaths", ".inv");
+            file.deleteOnExit();
+            InventoryFiles.save(store, file);
+            Map<String, Operation> operations = operations(store, file);
+            for (String op : ops) {
+                Operation operation = operations.get(op.trim());
+                if (operation == null) {
+                    throw new IllegalArgumentException("Unknown operation: " + op + "; expected one of "
+                            + operations.keySet());
+                }
+                Result result = measure(op.trim(), size, names, operation, warmup, seconds);
+                results.add(result);
+                print(result);
+            }
+            file.delete();
+        }
+        writeJson(out, names, results);
+        System.out.println("Results written to " + out.getAbsolutePath());
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value but found " + arg);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    /**
+     * The operations over a fresh catalog, for the JMH benchmarks in {@code jmh/}. JMH needs
+     * those in a named package, from which this class can only be reached by reflection,
+     * so they get the operations as plain {@link IntFunction}s.
+     */
+    public static Map<String, IntFunction<Object>> catalogOperations(int size, String names) throws IOException {
+        InventoryStore store = new SyntheticCatalog(size, names, 42).newStore();
+        File file = File.createTempFile("hotpaths", ".inv");
+        file.deleteOnExit();
+        InventoryFiles.save(store, file);
+        Map<String, IntFunction<Object>> functions = new LinkedHashMap<>();
+        operations(store, file).forEach((name, operation) -> functions.put(name, iteration -> {
+            try {
+                return operation.run(iteration);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        return functions;
+    }
+
+    // Each one does what the corresponding part of InventoryManagementSystem does, minus the painting
+    private static Map<String, Operation> operations(InventoryStore store, File file) {
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        InventoryTableModel tableModel = new InventoryTableModel();
+        NumberFormat currencyFormat = NumberFormat.getCurrencyInstance(Locale.US);
+        String[] terms = searchTerms(store, 1024);
+
+        operations.put("updateTable", i -> {
+            tableModel.setItems(store.items());
+            return tableModel;
+        });
+        operations.put("search", i -> {
+            long totalCents = 0;
+            List<InventoryItem> matches = store.search(terms[i % terms.length]);
+            for (InventoryItem item : matches) {
+                totalCents += item.getTotalValueCents();
+            }
+            return totalCents;
+        });
+        operations.put("valueReport", i -> {
+            InventoryTableModel reportModel = new InventoryTableModel();
+            page(reportModel, store.iterateByValue());
+            // Prices are formatted as rows are painted, so only for what is on screen
+            StringBuilder screen = new StringBuilder();
+            for (int row = 0; row < Math.min(SCREEN_ROWS, reportModel.getRowCount()); row++) {
+                InventoryItem item = reportModel.getItemAt(row);
+                screen.append(currencyFormat.format(item.getPrice())).append(currencyFormat.format(item.getTotalValue()));
+            }
+            return screen;
+        });
+        operations.put("lowStockReport", i -> {
+            InventoryTableModel reportModel = new InventoryTableModel();
+            page(reportModel, store.iterateLowStock(LOW_STOCK_THRESHOLD));
+            return reportModel;
+        });
+        operations.put("breakdown", i -> InventoryReports.breakdown(store));
+        operations.put("save", i -> {
+            InventoryFiles.save(store, file);
+            return file;
+        });
+        InventoryStore loaded = new InventoryStore();
+        operations.put("load", i -> {
+            InventoryFiles.load(loaded, file);
+            return loaded;
+        });
+        return operations;
+    }
+
+    private static void page(InventoryTableModel model, Iterator<InventoryItem> items) {
+        for (int row = 0; row < REPORT_PAGE_SIZE && items.hasNext(); row++) {
+            InventoryItem item = items.next();
+            if (!model.contains(item)) {
+                model.itemAdded(item);
+            }
+        }
+    }
+
+    // Four-letter pieces of real names, as someone typing into the search box would produce
+    private static String[] searchTerms(InventoryStore store, int count) {
+        List<InventoryItem> items = store.items();
+        Random random = new Random(7);
+        String[] terms = new String[count];
+        for (int i = 0; i < count; i++) {
+            String name = items.get(random.nextInt(items.size())).getName();
+            int start = name.length() <= 4 ? 0 : random.nextInt(name.length() - 4);
+            terms[i] = name.substring(start, Math.min(name.length(), start + 4));
+        }
+        return terms;
+    }
+
+    private static Result measure(String name, int size, String names, Operation operation,
+                                  double warmupSeconds, double seconds) throws Exception {
+        run(operation, warmupSeconds);
+        System.gc();
+
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long allocatedBefore = allocatedBytes();
+        long begin = System.nanoTime();
+        long[] sorted = run(operation, seconds);
+        long elapsed = System.nanoTime() - begin;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        int samples = sorted.length;
+        Arrays.sort(sorted);
+        long[] percentiles = new long[PERCENTILES.length];
+        for (int p = 0; p < PERCENTILES.length; p++) {
+            int rank = (int) Math.ceil(PERCENTILES[p] / 100.0 * samples) - 1;
+            percentiles[p] = sorted[Math.max(0, Math.min(samples - 1, rank))];
+        }
+        return new Result(name, size, names, samples, samples / (elapsed / 1e9), percentiles,
+                sorted[samples - 1], (double) allocated / samples,
+                gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+    }
+
+    // Runs back to back for the given time, and at least MIN_SAMPLES times; returns each call's latency
+    private static long[] run(Operation operation, double seconds) throws Exception {
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        long[] latencies = new long[1024];
+        int count = 0;
+        for (;;) {
+            long start = System.nanoTime();
+            sink = operation.run(count);
+            long end = System.nanoTime();
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = end - start;
+            if (end >= deadline && count >= MIN_SAMPLES) {
+                return Arrays.copyOf(latencies, count);
+            }
+        }
+    }
+
+    // Bytes allocated so far by every live thread; threads that have ended no longer count
+    private static long allocatedBytes() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static void print(Result r) {
+        System.out.printf("%-10d %-15s %,8d %,12.1f %,12.1f %,12.1f %,12.1f %,12.1f %,14.0f %,6d%n",
+                r.items, r.operation, r.samples, r.opsPerSecond,
+                r.percentileNanos[0] / 1e3, r.percentileNanos[2] / 1e3, r.percentileNanos[3] / 1e3,
+                r.maxNanos / 1e3, r.bytesPerOp, r.gcMillis);
+    }
+
+    private static void writeJson(File out, String names, List<Result> results) throws IOException {
+        try (PrintWriter json = new PrintWriter(out, StandardCharsets.UTF_8)) {
+            json.println("{");
+            json.printf("  \"timestamp\": \"%s\",%n", Instant.now());
+            json.printf("  \"java\": \"%s\",%n", System.getProperty("java.version"));
+            json.printf("  \"processors\": %d,%n", Runtime.getRuntime().availableProcessors());
+            json.printf("  \"maxHeapBytes\": %d,%n", Runtime.getRuntime().maxMemory());
+            json.printf("  \"nameLengths\": \"%s\",%n", names);
+            json.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                json.printf(Locale.ROOT, "    {\"operation\": \"%s\", \"items\": %d, \"samples\": %d, \"opsPerSecond\": %.3f, "
+                        + "\"latencyNanos\": {", r.operation, r.items, r.samples, r.opsPerSecond);
+                for (int p = 0; p < PERCENTILES.length; p++) {
+                    json.printf(Locale.ROOT, "\"p%s\": %d, ", format(PERCENTILES[p]), r.percentileNanos[p]);
+                }
+                json.printf(Locale.ROOT, "\"max\": %d}, \"allocatedBytesPerOp\": %.1f, \"gcCount\": %d, \"gcMillis\": %d}%s%n",
+                        r.maxNanos, r.bytesPerOp, r.gcCount, r.gcMillis, i + 1 < results.size() ? "," : "");
+            }
+            json.println("  ]");
+            json.println("}");
+        }
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+}
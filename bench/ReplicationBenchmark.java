@@ -0,0 +1,140 @@
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a {@link ReplicationPrimary} and several {@link InventoryReplica}s in one process over
+ * loopback: times the snapshot a new replica starts from, then drives random writes at the
+ * primary for a while, sampling each replica's lag, and times how long the replicas take to
+ * drain what is left. Finally checks that every replica holds exactly the primary's items.
+ *
+ * <pre>
+ * javac -d out *.java bench/*.java
+ * java -cp out ReplicationBenchmark [items] [replicas] [writers] [seconds]
+ * </pre>
+ *
+ * Defaults to 200,000 items, 3 replicas, 2 writer threads and 5 seconds of writes.
+ */
+public class ReplicationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0].replace("_", "").replace(",", "")) : 200_000;
+        int replicaCount = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int writerCount = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        InventoryStore store = new InventoryStore();
+        for (int i = 0; i < size; i++) {
+            store.upsert(name(i), i % 500, (i % 10_000) / 100.0);
+        }
+        ReplicationPrimary primary = ReplicationPrimary.start(store, new InetSocketAddress("127.0.0.1", 0));
+        InventoryStore[] copies = new InventoryStore[replicaCount];
+        InventoryReplica[] replicas = new InventoryReplica[replicaCount];
+
+        long begin = System.nanoTime();
+        for (int r = 0; r < replicaCount; r++) {
+            copies[r] = new InventoryStore();
+            replicas[r] = InventoryReplica.start(copies[r], primary.getAddress());
+        }
+        awaitAll(primary, replicas);
+        System.out.printf("Snapshot of %,d items to %d replicas: %,d ms%n",
+                size, replicaCount, (System.nanoTime() - begin) / 1_000_000);
+
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread[] writers = new Thread[writerCount];
+        long[] writes = new long[writerCount];
+        for (int w = 0; w < writerCount; w++) {
+            int writer = w;
+            writers[w] = new Thread(() -> {
+                Random random = new Random(writer);
+                while (!stop.get()) {
+                    String name = name(random.nextInt(size));
+                    try {
+                        switch (random.nextInt(50)) {
+                            case 0:
+                                store.delete(name);
+                                break;
+                            case 1:
+                                store.rename(name, name(random.nextInt(size)));
+                                break;
+                            case 2:
+                                store.upsert(name, random.nextInt(1000), random.nextInt(10_000) / 100.0);
+                                break;
+                            default:
+                                store.adjustQuantity(name, random.nextInt(11) - 5);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // Deleted or renamed away by another writer; the miss counts as a write
+                    }
+                    writes[writer]++;
+                }
+            });
+            writers[w].start();
+        }
+
+        // Lag as the replicas see it, sampled every 10 ms while the writers run
+        long samples = 0;
+        long lagMillisSum = 0;
+        long maxLagMillis = 0;
+        long maxLagRecords = 0;
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            Thread.sleep(10);
+            for (InventoryReplica replica : replicas) {
+                long lag = replica.lagMillis();
+                samples++;
+                lagMillisSum += lag;
+                maxLagMillis = Math.max(maxLagMillis, lag);
+                maxLagRecords = Math.max(maxLagRecords, replica.lagRecords());
+            }
+        }
+        stop.set(true);
+        long total = 0;
+        for (int w = 0; w < writerCount; w++) {
+            writers[w].join();
+            total += writes[w];
+        }
+        System.out.printf("Writes: %,d (%,d/s), %,d change records%n",
+                total, total / seconds, primary.sequence());
+        System.out.printf("Lag while writing: %,.1f ms average, %,d ms max, %,d records max%n",
+                samples == 0 ? 0.0 : (double) lagMillisSum / samples, maxLagMillis, maxLagRecords);
+
+        begin = System.nanoTime();
+        awaitAll(primary, replicas);
+        System.out.printf("Drained after the last write in %,d ms%n", (System.nanoTime() - begin) / 1_000_000);
+
+        String expected = fingerprint(store);
+        boolean same = true;
+        for (InventoryStore copy : copies) {
+            same &= fingerprint(copy).equals(expected);
+        }
+        System.out.println(same ? "Replicas match the primary" : "REPLICAS DIFFER FROM THE PRIMARY");
+
+        for (InventoryReplica replica : replicas) {
+            replica.close();
+        }
+        primary.close();
+    }
+
+    private static void awaitAll(ReplicationPrimary primary, InventoryReplica[] replicas) throws InterruptedException {
+        for (InventoryReplica replica : replicas) {
+            if (!replica.awaitSequence(primary.epoch(), primary.sequence(), 60_000)) {
+                throw new IllegalStateException("Replica did not catch up: " + replica.lastError());
+            }
+        }
+    }
+
+    // Order-independent digest of every item's name, quantity and price
+    private static String fingerprint(InventoryStore store) {
+        long[] digest = new long[2];
+        store.forEach(item -> {
+            digest[0]++;
+            digest[1] += (item.getName().hashCode() * 31L + item.getQuantity()) * 1_000_003L + item.getPriceCents();
+        });
+        return digest[0] + ":" + digest[1] + ":" + store.totalValueCents();
+    }
+
+    private static String name(int i) {
+        return "SKU-" + i;
+    }
+}
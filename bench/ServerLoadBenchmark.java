@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives an {@link InventoryServer} on localhost with many concurrent clients and reports
+ * sustained requests per second and latency percentiles. Each client loops over a scanner
+ * and order-system mix: 70% item lookups (half of them conditional, revalidating an ETag
+ * the client saw earlier), 20% stock adjustments, 5% searches and 5% value totals.
+ *
+ * <pre>
+ * javac -d out *.java bench/*.java
+ * java -cp out ServerLoadBenchmark [--clients=64] [--seconds=10] [--items=100000] [--url=http://host:port]
+ * </pre>
+ *
+ * Without {@code --url} it starts its own server over a synthetic catalog in the same JVM,
+ * so the clients and the server share the machine; with it, it drives a server started
+ * with {@code --serve}, using names the server already has from {@code /items?search=}.
+ */
+public class ServerLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value but found " + arg);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        int clients = Integer.parseInt(options.getOrDefault("clients", "64"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "10"));
+        int items = Integer.parseInt(options.getOrDefault("items", "100000"));
+
+        InventoryServer server = null;
+        String base = options.get("url");
+        if (base == null) {
+            InventoryStore store = new SyntheticCatalog(items, "uniform:8:40", 42).newStore();
+            // Plenty of stock, so the adjustments in the mix never run an item dry
+            store.forEach(item -> store.adjustQuantity(item.getName(), 1_000_000));
+            server = new InventoryServer(store, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            server.start();
+            base = "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        String[] names = names(http, base);
+        System.out.printf("%d clients for %d s against %s (%,d names)%n", clients, seconds, base, names.length);
+
+        run(http, base, names, clients, 2, new LatencyHistogram(), new Counts()); // warm-up
+        LatencyHistogram latency = new LatencyHistogram();
+        Counts counts = new Counts();
+        long begin = System.nanoTime();
+        run(http, base, names, clients, seconds, latency, counts);
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+
+        LatencyHistogram.Snapshot s = latency.snapshot();
+        System.out.printf("requests/s  %,12.0f%n", s.count / elapsed);
+        System.out.printf("p50 ms      %12.3f%n", s.percentile(50) / 1e6);
+        System.out.printf("p99 ms      %12.3f%n", s.percentile(99) / 1e6);
+        System.out.printf("p99.9 ms    %12.3f%n", s.percentile(99.9) / 1e6);
+        System.out.printf("max ms      %12.3f%n", s.max / 1e6);
+        System.out.printf("304s        %,12d%n", counts.notModified.sum());
+        System.out.printf("errors      %,12d%n", counts.errors.sum());
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    static final class Counts {
+        final LongAdder notModified = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    // Names to use: from the server's own catalog, found through a few broad searches
+    private static String[] names(HttpClient http, String base) throws IOException, InterruptedException {
+        List<String> names = new ArrayList<>();
+        for (String term : new String[]{"bolt", "nut", "screw", "pipe", "ring"}) {
+            HttpResponse<String> response = http.send(
+                    HttpRequest.newBuilder(URI.create(base + "/items?limit=20000&search=" + term)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Object parsed = Json.parse(response.body());
+            if (parsed instanceof List) {
+                for (Object item : (List<?>) parsed) {
+                    names.add((String) ((Map<?, ?>) item).get("name"));
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            throw new IllegalStateException("The server at " + base + " has no items to look up");
+        }
+        return names.toArray(new String[0]);
+    }
+
+    private static void run(HttpClient http, String base, String[] names, int clients, int seconds,
+                            LatencyHistogram latency, Counts counts) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            long seed = c;
+            workers[c] = new Thread(() -> {
+                Random random = new Random(seed);
+                Map<String, String> etags = new HashMap<>();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (running.get()) {
+                    String name = names[random.nextInt(names.length)];
+                    int dice = random.nextInt(100);
+                    HttpRequest.Builder request;
+                    if (dice < 70) {
+                        request = HttpRequest.newBuilder(URI.create(base + "/items/"
+                                + URLEncoder.encode(name, StandardCharsets.UTF_8).replace("+", "%20")));
+                        String etag = etags.get(name);
+                        if (etag != null && random.nextBoolean()) {
+                            request.header("If-None-Match", etag);
+                        }
+                    } else if (dice < 90) {
+                        StringBuilder body = Json.quote(new StringBuilder("{\"name\": "), name);
+                        body.append(", \"delta\": ").append(random.nextBoolean() ? 1 : -1).append('}');
+                        request = HttpRequest.newBuilder(URI.create(base + "/adjust"))
+                                .POST(HttpRequest.BodyPublishers.ofString(body.toString()));
+                    } else if (dice < 95) {
+                        String term = name.length() > 4 ? name.substring(0, 4) : name;
+                        request = HttpRequest.newBuilder(URI.create(base + "/items?limit=50&search="
+                                + URLEncoder.encode(term, StandardCharsets.UTF_8)));
+                    } else {
+                        request = HttpRequest.newBuilder(URI.create(base + "/value"));
+                    }
+                    long begin = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+                        latency.record(System.nanoTime() - begin);
+                        if (response.statusCode() == 304) {
+                            counts.notModified.increment();
+                        } else if (response.statusCode() != 200) {
+                            counts.errors.increment();
+                        } else if (dice < 70) {
+                            response.headers().firstValue("ETag").ifPresent(tag -> etags.put(name, tag));
+                        }
+                    } catch (IOException e) {
+                        counts.errors.increment();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "load-client-" + c);
+            workers[c].start();
+        }
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.Random;
+
+/**
+ * Deterministic generator of benchmark catalogs: unique item names with a configurable
+ * length distribution, quantities from 0 to 999 and prices from $0.01 to $999.99. The same
+ * size, name lengths and seed always give the same catalog, so runs can be compared.
+ *
+ * <p>Name lengths are given as one of
+ * <ul>
+ * <li>{@code fixed:N} - every name is N characters;
+ * <li>{@code uniform:MIN:MAX} - lengths spread evenly from MIN to MAX;
+ * <li>{@code normal:MEAN:SD} - a bell curve around MEAN, clipped to 1..255.
+ * </ul>
+ * Each name ends in a base-36 serial number that keeps it unique; the rest is lower-case
+ * words, so names share trigrams the way real product names do. A name too short for its
+ * serial number is just the serial number.
+ */
+final class SyntheticCatalog {
+    private static final String[] WORDS = {
+            "bolt", "nut", "washer", "screw", "steel", "brass", "hex", "flat", "round", "small",
+            "large", "blue", "red", "cable", "clip", "hinge", "plate", "pipe", "valve", "seal",
+            "ring", "gear", "spring", "pin", "bracket", "mount", "rail", "panel", "cover", "tube"
+    };
+
+    interface Sink {
+        void item(String name, int quantity, double price);
+    }
+
+    private final int size;
+    private final String nameLengths;
+    private final long seed;
+    private final int min;
+    private final int max;
+    private final boolean normal;
+
+    SyntheticCatalog(int size, String nameLengths, long seed) {
+        this.size = size;
+        this.nameLengths = nameLengths;
+        this.seed = seed;
+        String[] parts = nameLengths.split(":");
+        try {
+            switch (parts[0]) {
+                case "fixed":
+                    min = max = Integer.parseInt(parts[1]);
+                    normal = false;
+                    break;
+                case "uniform":
+                    min = Integer.parseInt(parts[1]);
+                    max = Integer.parseInt(parts[2]);
+                    normal = false;
+                    break;
+                case "normal":
+                    min = Integer.parseInt(parts[1]); // mean
+                    max = Integer.parseInt(parts[2]); // standard deviation
+                    normal = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown name length distribution: " + nameLengths);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Name lengths must be fixed:N, uniform:MIN:MAX or normal:MEAN:SD, not "
+                    + nameLengths);
+        }
+        if (!normal && (min < 1 || max < min)) {
+            throw new IllegalArgumentException("Bad name length range: " + nameLengths);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    String nameLengths() {
+        return nameLengths;
+    }
+
+    /** Passes every item to {@code sink}, in the same order on every call. */
+    void generate(Sink sink) {
+        Random random = new Random(seed);
+        StringBuilder name = new StringBuilder(64);
+        for (int i = 0; i < size; i++) {
+            name.setLength(0);
+            String serial = Integer.toString(i, 36);
+            int length = Math.max(serial.length(), nextLength(random));
+            while (name.length() + serial.length() < length) {
+                name.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            name.setLength(Math.max(0, length - serial.length()));
+            name.append(serial);
+            int quantity = random.nextInt(1000);
+            double price = (1 + random.nextInt(99_999)) / 100.0;
+            sink.item(name.toString(), quantity, price);
+        }
+    }
+
+    private int nextLength(Random random) {
+        if (normal) {
+            return (int) Math.max(1, Math.min(255, Math.round(min + random.nextGaussian() * max)));
+        }
+        return min + random.nextInt(max - min + 1);
+    }
+
+    InventoryStore newStore() {
+        InventoryStore store = new InventoryStore();
+        generate(store::upsert);
+        return store;
+    }
+}
@@ -0,0 +1,103 @@
+package inventory.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Contended quantity adjustments, as timed by {@code bench/ContendedAdjustBenchmark.java}:
+ * every thread receives and picks units of the same few hot SKUs ({@code hotSkus}), through
+ * {@code InventoryStore.adjustQuantity} ({@code impl=store}) or, as the baseline, one
+ * synchronized map ({@code impl=global-lock}). The score is adjustments per second over all
+ * threads, at 1, 4, 16 and 64 threads:
+ * <pre>
+ * java -jar jmh/target/benchmarks.jar ContendedAdjust -rf json -rff contended-jmh.json
+ * java -jar jmh/target/benchmarks.jar ContendedAdjust.threads16 -p hotSkus=1
+ * </pre>
+ *
+ * <p>JMH fixes thread counts per method ({@link Threads}), so there is one method per count.
+ * The adjusters are looked up through {@code ContendedAdjustBenchmark.adjusters}, as the
+ * store lives in the unnamed package.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(2)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class ContendedAdjustBenchmarks {
+    @Param({"store", "global-lock"})
+    public String impl;
+
+    @Param("16")
+    public int hotSkus;
+
+    private IntConsumer adjuster;
+
+    /** Each thread's position in the SKU cycle, offset so the threads start on different SKUs. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup
+        public void start(ThreadParams thread) {
+            next = thread.getThreadIndex();
+        }
+
+        int advance() {
+            return next++ & Integer.MAX_VALUE;
+        }
+    }
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void buildStore() throws ReflectiveOperationException {
+        Map<String, IntConsumer> adjusters = (Map<String, IntConsumer>) Class.forName("ContendedAdjustBenchmark")
+                .getMethod("adjusters", int.class)
+                .invoke(null, hotSkus);
+        adjuster = adjusters.get(impl);
+        if (adjuster == null) {
+            throw new IllegalArgumentException("impl must be one of " + adjusters.keySet() + ": " + impl);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1(Cursor cursor) {
+        adjuster.accept(cursor.advance());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads4(Cursor cursor) {
+        adjuster.accept(cursor.advance());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void threads16(Cursor cursor) {
+        adjuster.accept(cursor.advance());
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void threads64(Cursor cursor) {
+        adjuster.accept(cursor.advance());
+    }
+}
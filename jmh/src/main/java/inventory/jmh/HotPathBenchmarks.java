@@ -0,0 +1,112 @@
+package inventory.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * The hot paths timed by {@code bench/HotPathBenchmark.java}, under JMH: refilling the main
+ * table, a search box query, the first page of the value and low stock reports, the
+ * breakdown pass, and saving and loading the catalog as an .inv file. Each runs over
+ * synthetic catalogs of 10K, 1M and 10M items with a configurable name length
+ * distribution ({@code names}, see {@code bench/SyntheticCatalog.java}).
+ *
+ * <p>Throughput and sampled latency (with percentiles) come from the benchmark modes; run
+ * with the gc profiler for the allocation rate and with JSON results to keep runs:
+ * <pre>
+ * mvn install
+ * mvn -f jmh/pom.xml package
+ * java -jar jmh/target/benchmarks.jar HotPath -prof gc -rf json -rff hotpaths-jmh.json
+ * java -jar jmh/target/benchmarks.jar search -p items=10000 -p names=normal:24:8 -prof gc
+ * </pre>
+ *
+ * <p>JMH does not run benchmarks from the unnamed package, where the application lives, so
+ * the operations are looked up once per trial through
+ * {@code HotPathBenchmark.catalogOperations} and called through {@link IntFunction}.
+ * Their results are returned, so JMH consumes them and the work cannot be optimized away.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class HotPathBenchmarks {
+    @Param({"10000", "1000000", "10000000"})
+    public int items;
+
+    @Param("uniform:8:40")
+    public String names;
+
+    private IntFunction<Object> updateTable;
+    private IntFunction<Object> search;
+    private IntFunction<Object> valueReport;
+    private IntFunction<Object> lowStockReport;
+    private IntFunction<Object> breakdown;
+    private IntFunction<Object> save;
+    private IntFunction<Object> load;
+    private int iteration;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void buildCatalog() throws ReflectiveOperationException {
+        Map<String, IntFunction<Object>> operations = (Map<String, IntFunction<Object>>) Class.forName("HotPathBenchmark")
+                .getMethod("catalogOperations", int.class, String.class)
+                .invoke(null, items, names);
+        updateTable = operations.get("updateTable");
+        search = operations.get("search");
+        valueReport = operations.get("valueReport");
+        lowStockReport = operations.get("lowStockReport");
+        breakdown = operations.get("breakdown");
+        save = operations.get("save");
+        load = operations.get("load");
+    }
+
+    @Benchmark
+    public Object updateTable() {
+        return updateTable.apply(iteration++);
+    }
+
+    /** Cycles through 1024 four-letter pieces of real names. */
+    @Benchmark
+    public Object search() {
+        return search.apply(iteration++);
+    }
+
+    @Benchmark
+    public Object valueReport() {
+        return valueReport.apply(iteration++);
+    }
+
+    @Benchmark
+    public Object lowStockReport() {
+        return lowStockReport.apply(iteration++);
+    }
+
+    @Benchmark
+    public Object breakdown() {
+        return breakdown.apply(iteration++);
+    }
+
+    @Benchmark
+    public Object save() {
+        return save.apply(iteration++);
+    }
+
+    @Benchmark
+    public Object load() {
+        return load.apply(iteration++);
+    }
+}